@@ -18,7 +18,6 @@ package de.uni.stuttgart.informatik.ToureNPlaner.ClientSideCompute;
 
 import android.util.Log;
 import com.carrotsearch.hppc.IntArrayDeque;
-import com.carrotsearch.hppc.IntIntOpenHashMap;
 import com.carrotsearch.hppc.cursors.IntCursor;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -48,6 +47,12 @@ public class ClientComputeHandler extends SessionAwareHandler implements Algorit
 
 	private int version;
 
+	/** workspaces of finished searches; each search takes its own one. Guarded by itself */
+	private static final ArrayList<ShortestPathWorkspace> idleWorkspaces = new ArrayList<ShortestPathWorkspace>();
+	private static final int MAX_IDLE_WORKSPACES = 2;
+	/** incremented by {@link #trimMemory()}; workspaces taken before aren't kept */
+	private static int workspaceGeneration = 0;
+
 	public ClientComputeHandler(Observer listener, Session session) {
 		super(listener, session);
 	}
@@ -158,27 +163,51 @@ public class ClientComputeHandler extends SessionAwareHandler implements Algorit
 
 	protected IntArrayDeque computeSubgraphPath(ClientGraph graph) throws Exception {
 		IntArrayDeque pathOfNodes;
-		IntIntOpenHashMap dists = new IntIntOpenHashMap(graph.getNodeCount());
-		IntIntOpenHashMap predEdges = new IntIntOpenHashMap(graph.getEdgeCount());
+		boolean res;
+		int distance;
 
 		long start = System.currentTimeMillis();
 
-		boolean res = ShortestPath.dijkstraStopAtDest(graph, dists, predEdges);
+		final int generation;
+		ShortestPathWorkspace workspace = null;
+		synchronized (idleWorkspaces) {
+			generation = workspaceGeneration;
+			if (!idleWorkspaces.isEmpty()) workspace = idleWorkspaces.remove(idleWorkspaces.size() - 1);
+		}
+		if (null == workspace) workspace = new ShortestPathWorkspace();
+
+		res = ShortestPath.dijkstraStopAtDest(graph, workspace);
 		if (res) {
-			pathOfNodes = ShortestPath.backtrack(graph, predEdges);
+			pathOfNodes = ShortestPath.backtrack(graph, workspace);
 		} else {
 			// No path found
 			pathOfNodes = new IntArrayDeque(0);
 		}
+		distance = workspace.distOf(graph.getOrigTarget());
+		Log.d(TAG, workspace.toString());
+
+		synchronized (idleWorkspaces) {
+			if (generation == workspaceGeneration && idleWorkspaces.size() < MAX_IDLE_WORKSPACES) idleWorkspaces.add(workspace);
+		}
 		long end = System.currentTimeMillis();
 
 
 		Log.d(TAG, "That's "+(end-start)+" ms for the Dijkstra");
 		Log.d(TAG, "Did it? " + Boolean.toString(res));
-		Log.d(TAG, "Distance " + dists.get(graph.getOrigTarget()));
+		Log.d(TAG, "Distance " + distance);
 		return pathOfNodes;
 	}
 
+	/**
+	 * Drop the workspaces kept for the next searches
+	 */
+	public static void trimMemory() {
+		synchronized (idleWorkspaces) {
+			idleWorkspaces.clear();
+			++workspaceGeneration;
+		}
+	}
+
 	private Result readResult(JacksonManager.ContentType type, InputStream inputStream) throws Exception {
 		Result result = Result.parse(type, inputStream);
 		result.setVersion(version);
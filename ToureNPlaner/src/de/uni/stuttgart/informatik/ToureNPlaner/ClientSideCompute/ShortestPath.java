@@ -18,6 +18,8 @@ package de.uni.stuttgart.informatik.ToureNPlaner.ClientSideCompute;
 
 import com.carrotsearch.hppc.IntArrayDeque;
 import com.carrotsearch.hppc.IntIntOpenHashMap;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.DijkstraWorkspace;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.NodeQueue;
 
 /**
  * Provides an implementation of ShortestPath algorithm.
@@ -35,11 +37,70 @@ public class ShortestPath {
      * @throws IllegalAccessException
      */
     public static final boolean dijkstraStopAtDest(ClientGraph graph, IntIntOpenHashMap dists, IntIntOpenHashMap predEdges)
+            throws IllegalAccessException {
+        return dijkstraStopAtDest(graph, dists, predEdges, new Heap());
+    }
+
+    /**
+     * Same as {@link #dijkstraStopAtDest(ClientGraph, IntIntOpenHashMap, IntIntOpenHashMap)},
+     * but keeps distances, predecessor edges and queue in a reusable workspace
+     * (which gets reset first), using the queue implementation of the workspace.
+     *
+     * @param workspace
+     * @return
+     * @throws IllegalAccessException
+     */
+    public static final boolean dijkstraStopAtDest(ClientGraph graph, ShortestPathWorkspace workspace)
+            throws IllegalAccessException {
+        int srcId = graph.getOrigSource();
+        int trgtId = graph.getOrigTarget();
+        workspace.reset();
+        DijkstraWorkspace slots = workspace.slots;
+        NodeQueue heap = slots.queue;
+        int srcSlot = slots.add(srcId);
+        slots.set(srcSlot, 0, -1, -1);
+        heap.push(srcSlot, srcId, 0);
+
+        int nodeDist;
+        int edgeId;
+        int tempDist;
+        int targetNode;
+        int targetSlot;
+        int nodeId = srcId;
+        DIJKSTRA:
+        while (!heap.isEmpty()) {
+            nodeId = heap.peekMinId();
+            nodeDist = heap.peekMinDist();
+            heap.removeMin();
+            if (nodeId == trgtId) {
+                break DIJKSTRA;
+            }
+            if (nodeDist > slots.dist(slots.slot(nodeId))) {
+                continue;
+            }
+            int edgeCount = graph.getOutEdgeCount(nodeId);
+            for (int i = 0; i < edgeCount; i++) {
+                edgeId = graph.getOutEdgeId(nodeId, i);
+                targetNode = graph.getTarget(edgeId);
+
+                // with multiplier = shortest path
+                tempDist = nodeDist + graph.getDist(edgeId);
+
+                targetSlot = slots.add(targetNode);
+                if (tempDist < slots.dist(targetSlot)) {
+                    slots.set(targetSlot, tempDist, nodeId, edgeId);
+                    heap.push(targetSlot, targetNode, tempDist);
+                }
+            }
+        }
+        return nodeId == trgtId;
+    }
+
+    private static boolean dijkstraStopAtDest(ClientGraph graph, IntIntOpenHashMap dists, IntIntOpenHashMap predEdges, Heap heap)
             throws IllegalAccessException {
 		int srcId = graph.getOrigSource();
 	    int trgtId = graph.getOrigTarget();
         dists.put(srcId, 0);
-        Heap heap = new Heap();
         heap.insert(srcId, 0);
 
         int nodeDist;
@@ -79,6 +140,20 @@ public class ShortestPath {
         return nodeId == trgtId;
     }
 
+	public static final IntArrayDeque backtrack(ClientGraph graph, ShortestPathWorkspace workspace){
+		IntArrayDeque result = new IntArrayDeque();
+		DijkstraWorkspace slots = workspace.slots;
+		int srcId = graph.getOrigSource();
+		int currId = graph.getOrigTarget();
+		while (currId != srcId){
+			result.addFirst(currId);
+			currId = slots.pred(slots.slot(currId));
+		}
+		// don't forget to add the source
+		result.addFirst(srcId);
+		return result;
+	}
+
 	public static final IntArrayDeque backtrack(ClientGraph graph, IntIntOpenHashMap predEdges){
 		IntArrayDeque result = new IntArrayDeque();
 		int srcId = graph.getOrigSource();
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 ToureNPlaner
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.uni.stuttgart.informatik.ToureNPlaner.ClientSideCompute;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.DijkstraWorkspace;
+
+/**
+ * Storage of a {@link ShortestPath} search (distances, predecessor edges and
+ * priority queue), kept between searches so the tables don't have to grow again for
+ * every request.
+ * <p>
+ * Distances and predecessor edges live in the epoch stamped slot table of a
+ * {@link DijkstraWorkspace}, so {@link #reset()} is O(1) no matter how large
+ * earlier searches were. The queue is the one of the DijkstraWorkspace, so it
+ * follows {@link DijkstraWorkspace#getDefaultQueueType()}.
+ * <p>
+ * Not thread-safe; each search needs its own workspace.
+ */
+public class ShortestPathWorkspace {
+	final DijkstraWorkspace slots = new DijkstraWorkspace();
+
+	/**
+	 * Forget the last search (keeps the allocated storage)
+	 */
+	public void reset() {
+		slots.reset();
+	}
+
+	/**
+	 * @param nodeId
+	 * @return distance of the node in the last search, or {@link Integer#MAX_VALUE} if it wasn't reached
+	 */
+	public int distOf(int nodeId) {
+		final int slot = slots.slot(nodeId);
+		return (-1 == slot) ? Integer.MAX_VALUE : slots.dist(slot);
+	}
+
+	@Override
+	public String toString() {
+		return "ShortestPathWorkspace(reached: " + slots.size() + ", " + slots + ")";
+	}
+}
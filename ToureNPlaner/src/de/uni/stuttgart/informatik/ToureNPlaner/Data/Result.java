@@ -68,6 +68,21 @@ public class Result implements Serializable {
 		return misc;
 	}
 
+	/**
+	 * @return copy with its own version, point list and misc information; the
+	 *         way and the points themselves are shared
+	 */
+	public Result copy() {
+		final Result copy = new Result();
+		copy.way = way;
+		copy.points.addAll(points);
+		copy.misc.info.putAll(misc.info);
+		copy.misc.distance = misc.distance;
+		copy.misc.time = misc.time;
+		copy.version = version;
+		return copy;
+	}
+
 	static void jacksonParse(JsonParser jp, ArrayList<SmartIntArray> ways, ArrayList<ResultNode> points, Misc misc) throws IOException {
 		int lt = 0, ln = 0;
 		while (jp.nextToken() != JsonToken.END_OBJECT && jp.getCurrentToken() != null) {
@@ -31,6 +31,8 @@ import de.uni.stuttgart.informatik.ToureNPlaner.Net.Session;
 import de.uni.stuttgart.informatik.ToureNPlaner.R;
 import de.uni.stuttgart.informatik.ToureNPlaner.ToureNPlanerApplication;
 import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineAlgorithmInfo;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineIsochroneAlgorithmInfo;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineTSPAlgorithmInfo;
 
 import javax.net.ssl.HttpsURLConnection;
 import java.io.InputStream;
@@ -171,11 +173,17 @@ public class ServerInfoHandler extends SimpleNetworkHandler {
 			Session session = (Session) object;
 			final ArrayList<AlgorithmInfo> algorithms = session.getAlgorithms();
 			algorithms.add(new OfflineAlgorithmInfo());
+			algorithms.add(new OfflineTSPAlgorithmInfo(true));
+			algorithms.add(new OfflineTSPAlgorithmInfo(false));
+			algorithms.add(new OfflineIsochroneAlgorithmInfo());
 		} else {
 			Toast.makeText(ToureNPlanerApplication.getContext(),"Error:\n" + object.toString(), Toast.LENGTH_LONG).show();
 
-			final ArrayList<AlgorithmInfo> algorithms = new ArrayList<AlgorithmInfo>(1);
+			final ArrayList<AlgorithmInfo> algorithms = new ArrayList<AlgorithmInfo>(4);
 			algorithms.add(new OfflineAlgorithmInfo());
+			algorithms.add(new OfflineTSPAlgorithmInfo(true));
+			algorithms.add(new OfflineTSPAlgorithmInfo(false));
+			algorithms.add(new OfflineIsochroneAlgorithmInfo());
 
 			Session session = new Session();
 			URL fallbackurl = null;
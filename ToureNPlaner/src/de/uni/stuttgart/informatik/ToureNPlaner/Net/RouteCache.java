@@ -0,0 +1,357 @@
+/*
+ * Copyright 2012 ToureNPlaner
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package de.uni.stuttgart.informatik.ToureNPlaner.Net;
+
+import android.preference.PreferenceManager;
+import android.util.Log;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.AlgorithmInfo;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Result;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Constraints.Constraint;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequest;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer;
+import de.uni.stuttgart.informatik.ToureNPlaner.ToureNPlanerApplication;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineAlgorithmInfo;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineRoutingEngine;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LRU cache of finished results, keyed by the algorithm, its data source
+ * (the server or the offline graph file), the (snapped) node positions and
+ * the constraint values; used by {@link Session#performRequest(Observer, boolean)}
+ * to answer requests without running the algorithm again.
+ * <p>
+ * The size is limited by a memory budget (estimated from the ways); the
+ * entries are stored in the cache directory (in a background thread) when
+ * the app goes to the background and loaded in a background thread when the
+ * app starts (see {@link #startLoading()}), if the "persistent_route_cache"
+ * preference is set; until they are loaded every lookup is a miss. The stored
+ * entries are dropped when the offline graph changed.
+ * <p>
+ * The cache keeps its own copies of the results. Must only be used from the
+ * UI thread.
+ */
+public final class RouteCache {
+	private static final String FILE_NAME = "routes";
+	private static final long DEFAULT_BUDGET = 2 * 1024 * 1024;
+	/** estimated size of a cache entry without the way */
+	private static final int ENTRY_OVERHEAD = 200;
+	/** estimated size per result point */
+	private static final int POINT_SIZE = 100;
+
+	private static final RouteCache instance = new RouteCache(DEFAULT_BUDGET);
+
+	public static RouteCache getInstance() {
+		return instance;
+	}
+
+	private final LinkedHashMap<String, Result> entries = new LinkedHashMap<String, Result>(16, 0.75f, true);
+	private final long budget;
+	private long size;
+	/** whether the stored entries were loaded or are being loaded; see {@link #startLoading()} */
+	private boolean loaded = false;
+	/** entries read by the load thread, not merged yet; set by the load thread */
+	private volatile ArrayList<Object[]> loadedEntries = null;
+	/** whether the entries of the last started load were merged */
+	private boolean merged = false;
+	private boolean modified = false;
+	private int hits, misses;
+
+	/** the listener of the request whose result is stored next; see {@link #wrap(String, Observer)} */
+	private CachingObserver pending;
+
+	private RouteCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return key identifying the result of the request for the current state of session
+	 */
+	public static String key(Session session) {
+		final AlgorithmInfo algorithm = session.getSelectedAlgorithm();
+		final StringBuilder key = new StringBuilder();
+		key.append(algorithm.getClass().getName()).append('|').append(algorithm.getUrlsuffix()).append('|').append(algorithm.getName());
+		key.append('|').append(algorithm.sourceIsTarget());
+		key.append('|').append((algorithm instanceof OfflineAlgorithmInfo) ? OfflineRoutingEngine.graphIdentity() : session.getURL());
+		for (Node node: session.getNodeModel().getNodeVector()) {
+			key.append('|').append(node.getLaE7()).append(',').append(node.getLoE7());
+			appendConstraints(key, node.getConstraintList());
+		}
+		key.append('|');
+		appendConstraints(key, session.getConstraints());
+		return key.toString();
+	}
+
+	private static void appendConstraints(StringBuilder key, ArrayList<Constraint> constraints) {
+		if (null == constraints) return;
+		for (Constraint c: constraints) key.append(';').append(c.getType().getId()).append('=').append(c.getValue());
+	}
+
+	private static long memorySize(String key, Result result) {
+		long s = ENTRY_OVERHEAD + 2L * key.length();
+		if (null != result.getWay()) {
+			for (int[] way: result.getWay()) s += 16 + 4L * way.length;
+		}
+		s += POINT_SIZE * result.getPoints().size();
+		return s;
+	}
+
+	/**
+	 * @return copy of the cached result, or null
+	 */
+	public Result get(String key) {
+		startLoading();
+		mergeLoaded();
+		final Result result = entries.get(key);
+		if (null == result) {
+			++misses;
+			return null;
+		}
+		++hits;
+		return result.copy();
+	}
+
+	/**
+	 * Store a copy of result
+	 */
+	public void put(String key, Result result) {
+		startLoading();
+		mergeLoaded();
+		store(key, result.copy());
+	}
+
+	private void store(String key, Result result) {
+		final long entrySize = memorySize(key, result);
+		if (entrySize > budget) return;
+		final Result old = entries.put(key, result);
+		if (null != old) size -= memorySize(key, old);
+		size += entrySize;
+		modified = true;
+
+		final java.util.Iterator<Map.Entry<String, Result>> it = entries.entrySet().iterator();
+		while (size > budget && it.hasNext()) {
+			final Map.Entry<String, Result> e = it.next();
+			size -= memorySize(e.getKey(), e.getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Listener for a request: stores the result under key and passes it on.
+	 * <p>
+	 * The handlers only keep a weak reference to their listener, so the
+	 * returned listener is kept here until the next request; it only keeps
+	 * a weak reference to listener itself.
+	 */
+	Observer wrap(String key, Observer listener) {
+		pending = new CachingObserver(key, listener);
+		return pending;
+	}
+
+	/**
+	 * Remember the request started with the listener returned by the last
+	 * {@link #wrap(String, Observer)}, for {@link #rewrap(AlgorithmRequest, Observer)}.
+	 */
+	void started(AlgorithmRequest request) {
+		if (null != pending) pending.request = request;
+	}
+
+	/**
+	 * Listener to set on a request that is still running after a configuration
+	 * change (the activity and its listener were recreated): if the request was
+	 * started with a caching listener, a new caching listener for the same key
+	 * is returned, so the result is still stored.
+	 *
+	 * @param request  the running request
+	 * @param listener the new listener
+	 * @return the listener to pass to {@link AlgorithmRequest#setListener(Observer)}
+	 */
+	public Observer rewrap(AlgorithmRequest request, Observer listener) {
+		if (null == pending || null == request || pending.request != request) return listener;
+		final CachingObserver observer = new CachingObserver(pending.key, listener);
+		observer.request = request;
+		pending = observer;
+		return observer;
+	}
+
+	private final class CachingObserver implements Observer {
+		private final String key;
+		private final WeakReference<Observer> listener;
+		/** the request the observer was set on, see {@link #started(AlgorithmRequest)} */
+		private AlgorithmRequest request;
+
+		CachingObserver(String key, Observer listener) {
+			this.key = key;
+			this.listener = new WeakReference<Observer>(listener);
+		}
+
+		@Override
+		public void onCompleted(Object caller, Object object) {
+			if (pending == this) pending = null;
+			if (object instanceof Result) put(key, (Result) object);
+			final Observer l = listener.get();
+			if (null != l) l.onCompleted(caller, object);
+		}
+
+		@Override
+		public void onError(Object caller, Object object) {
+			if (pending == this) pending = null;
+			final Observer l = listener.get();
+			if (null != l) l.onError(caller, object);
+		}
+	}
+
+	private static boolean isPersistent() {
+		return PreferenceManager.getDefaultSharedPreferences(ToureNPlanerApplication.getContext()).getBoolean("persistent_route_cache", true);
+	}
+
+	private static File file() {
+		return new File(ToureNPlanerApplication.getContext().getCacheDir(), FILE_NAME);
+	}
+
+	/**
+	 * Start loading the stored entries in a background thread (if not loaded
+	 * or loading yet); they are added to the cache on the next use after the
+	 * thread is done.
+	 */
+	public void startLoading() {
+		if (loaded) return;
+		loaded = true;
+		merged = false;
+		final File file = file();
+		new Thread() {
+			@Override
+			public void run() {
+				loadedEntries = load(file);
+			}
+		}.start();
+	}
+
+	/**
+	 * @return the stored entries (least recently used first); empty if there are none
+	 */
+	@SuppressWarnings("unchecked")
+	private static ArrayList<Object[]> load(File file) {
+		synchronized (FILE_LOCK) {
+			if (!isPersistent() || !file.exists()) return new ArrayList<Object[]>(0);
+			try {
+				final ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+				try {
+					// the offline results are only valid for the graph they were stored with
+					if (!OfflineRoutingEngine.graphIdentity().equals(in.readObject())) {
+						Log.i("TP", "Offline graph changed, dropping stored routes");
+						file.delete();
+						return new ArrayList<Object[]>(0);
+					}
+					return (ArrayList<Object[]>) in.readObject();
+				} finally {
+					in.close();
+				}
+			} catch (Exception e) {
+				Log.e("TP", "Loading route cache failed", e);
+				file.delete();
+				return new ArrayList<Object[]>(0);
+			}
+		}
+	}
+
+	/**
+	 * Add the entries loaded by the load thread (if it is done); entries put
+	 * meanwhile are kept and stay the most recently used ones.
+	 */
+	private void mergeLoaded() {
+		final ArrayList<Object[]> stored = loadedEntries;
+		if (null == stored) return;
+		loadedEntries = null;
+		merged = true;
+		if (stored.isEmpty()) return;
+
+		final ArrayList<Map.Entry<String, Result>> current = new ArrayList<Map.Entry<String, Result>>(entries.entrySet());
+		final boolean wasModified = modified;
+		entries.clear();
+		size = 0;
+		for (Object[] e: stored) store((String) e[0], (Result) e[1]);
+		for (Map.Entry<String, Result> e: current) store(e.getKey(), e.getValue());
+		modified = wasModified;
+	}
+
+	/** serializes the access to the stored file between the UI and the save threads */
+	private static final Object FILE_LOCK = new Object();
+
+	/**
+	 * Store the entries in the cache directory (if enabled and changed); the
+	 * file is written in a background thread.
+	 */
+	public void save() {
+		mergeLoaded();
+		// writing now would drop the stored entries that are still being loaded; they are saved the next time
+		if (!modified || (loaded && !merged)) return;
+		modified = false;
+		final File file = file();
+		final boolean persistent = isPersistent();
+		final String graph = persistent ? OfflineRoutingEngine.graphIdentity() : null;
+		// the cached results aren't changed, so a snapshot of the entries can be written later
+		final ArrayList<Object[]> stored = new ArrayList<Object[]>(entries.size());
+		for (Map.Entry<String, Result> e: entries.entrySet()) stored.add(new Object[] { e.getKey(), e.getValue() });
+		new Thread() {
+			@Override
+			public void run() {
+				synchronized (FILE_LOCK) {
+					if (!persistent) {
+						file.delete();
+						return;
+					}
+					try {
+						final ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+						try {
+							out.writeObject(graph);
+							out.writeObject(stored);
+						} finally {
+							out.close();
+						}
+					} catch (Exception e) {
+						Log.e("TP", "Saving route cache failed", e);
+						file.delete();
+					}
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Drop all entries (without saving them: used when memory is low); the
+	 * last saved entries are loaded again on the next use.
+	 */
+	public void clear() {
+		entries.clear();
+		size = 0;
+		modified = false;
+		loaded = false;
+	}
+
+	@Override
+	public String toString() {
+		return "RouteCache(" + entries.size() + " routes, " + (size >> 10) + "/" + (budget >> 10) + "kB, hits: " + hits + ", misses: " + misses + ")";
+	}
+}
@@ -488,9 +488,28 @@ public class Session implements Serializable {
 		return cl.getCoreGraph();
 	}
 
+	/**
+	 * Start the request for the selected algorithm, or answer it from the {@link RouteCache}
+	 *
+	 * @return the running request; null if requestListener was already called with a cached result
+	 */
 	public AlgorithmRequest performRequest(Observer requestListener, boolean force) throws RequestInvalidException {
+		return performRequest(requestListener, force, true);
+	}
+
+	private AlgorithmRequest performRequest(Observer requestListener, boolean force, boolean useCache) throws RequestInvalidException {
 		if (canPerformRequest() && (force || result == null || nodeModel.getVersion() != result.getVersion())) {
-			return d.selectedAlgorithm.execute(requestListener, this);
+			final RouteCache cache = RouteCache.getInstance();
+			final String key = RouteCache.key(this);
+			final Result cached = useCache ? cache.get(key) : null;
+			if (cached != null) {
+				cached.setVersion(nodeModel.getVersion());
+				requestListener.onCompleted(null, cached);
+				return null;
+			}
+			final AlgorithmRequest request = d.selectedAlgorithm.execute(cache.wrap(key, requestListener), this);
+			cache.started(request);
+			return request;
 		} else {
 			throw new RequestInvalidException(canPerformReason());
 		}
@@ -537,7 +556,8 @@ public class Session implements Serializable {
 		notifyChangeListerners(new Session.Change(Session.MODEL_CHANGE));
 
 		// We will get a new route from the ToureNPlaner server and after that is finished we let the TBTRequester be notified and it will make the tbt request
-		return performRequest(new TBTRequester(tbtip), true);
+		// no cached result: the TBTRequester must not be called before the navigation is set up
+		return performRequest(new TBTRequester(tbtip), true, false);
 	}
 
 	private class TBTRequester implements Observer {
@@ -17,13 +17,16 @@
 package de.uni.stuttgart.informatik.ToureNPlaner;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Environment;
 import android.util.Log;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.RouteCache;
 import de.uni.stuttgart.informatik.ToureNPlaner.Net.Session;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineRoutingEngine;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -102,6 +105,7 @@ public class ToureNPlanerApplication extends Application {
 
 		context = getApplicationContext();
 		disableConnectionReuseIfNecessary();
+		RouteCache.getInstance().startLoading();
 		new Thread() {
 			@Override
 			public void run() {
@@ -110,6 +114,24 @@ public class ToureNPlanerApplication extends Application {
 		}.start();
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		OfflineRoutingEngine.getInstance().onTrimMemory(level);
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+			RouteCache.getInstance().clear();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			RouteCache.getInstance().save();
+		}
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		OfflineRoutingEngine.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+		RouteCache.getInstance().clear();
+	}
+
 	public static Context getContext() {
 		return context;
 	}
@@ -35,6 +35,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuItem;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.AlgorithmInfo;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.Constraints.Constraint;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.Edits.*;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
@@ -43,6 +44,7 @@ import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequest;
 import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequestNN;
 import de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer;
 import de.uni.stuttgart.informatik.ToureNPlaner.Net.Handler.GeoCodingHandler;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.RouteCache;
 import de.uni.stuttgart.informatik.ToureNPlaner.Net.Session;
 import de.uni.stuttgart.informatik.ToureNPlaner.R;
 import de.uni.stuttgart.informatik.ToureNPlaner.UI.Activities.*;
@@ -50,6 +52,7 @@ import de.uni.stuttgart.informatik.ToureNPlaner.UI.CustomTileDownloader;
 import de.uni.stuttgart.informatik.ToureNPlaner.UI.Overlays.FastWayAndNodeOverlay;
 import de.uni.stuttgart.informatik.ToureNPlaner.UI.Overlays.NodeOverlay;
 import de.uni.stuttgart.informatik.ToureNPlaner.UI.TBTNavigation;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineAlgorithmInfo;
 import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.Projection;
 import org.mapsforge.android.maps.mapgenerator.databaserenderer.DatabaseRenderer;
@@ -493,7 +496,9 @@ public class MapScreen extends MapActivity implements Session.Listener {
 
 		try {
 			Session.sesshandler = session.performRequest(requestListener, force);
-			setSupportProgressBarIndeterminateVisibility(true);
+			// null: the cached result was already delivered
+			if (Session.sesshandler != null)
+				setSupportProgressBarIndeterminateVisibility(true);
 		} catch (Session.RequestInvalidException e) {
 			if (messageToast != null) {
 				messageToast.setText(e.getMessage());
@@ -516,6 +521,10 @@ public class MapScreen extends MapActivity implements Session.Listener {
 					case RESULT_OK:
 						edit = new ChangeNodeModelEdit(session, (ArrayList<Node>) data.getExtras().getSerializable(NodeModel.IDENTIFIER));
 						edit.perform();
+						if (session.getSelectedAlgorithm() instanceof OfflineAlgorithmInfo) {
+							// snapping is local and cheap; snap all nodes of a loaded tour in one task
+							performNNSearch(session.getNodeModel().getNodeVector());
+						}
 						break;
 				}
 				break;
@@ -553,12 +562,22 @@ public class MapScreen extends MapActivity implements Session.Listener {
 		requestList.add(session.getSelectedAlgorithm().executeNN(nnsListener, session, node));
 	}
 
+	public void performNNSearch(ArrayList<Node> nodes) {
+		final AlgorithmInfo algorithm = session.getSelectedAlgorithm();
+		if (algorithm instanceof OfflineAlgorithmInfo) {
+			requestList.addAll(((OfflineAlgorithmInfo) algorithm).executeNN(nnsListener, session, nodes));
+		} else {
+			for (Node node : nodes) performNNSearch(node);
+		}
+	}
+
 	@SuppressWarnings("deprecation")
 	private void initializeHandler() {
 		Session.sesshandler = (AlgorithmRequest) getLastNonConfigurationInstance();
 
 		if (Session.sesshandler != null) {
-			Session.sesshandler.setListener(requestListener);
+			// keep storing the result in the route cache if the request was started with a caching listener
+			Session.sesshandler.setListener(RouteCache.getInstance().rewrap(Session.sesshandler, requestListener));
 			setSupportProgressBarIndeterminateVisibility(true);
 		} else {
 			setSupportProgressBarIndeterminateVisibility(false);
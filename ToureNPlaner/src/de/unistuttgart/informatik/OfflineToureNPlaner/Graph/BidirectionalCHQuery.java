@@ -0,0 +1,322 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.IOException;
+
+import android.util.Log;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+
+/**
+ * Calculates the shortest path between two nodes with a bidirectional search:
+ * a forward search from the start and a backward search from the destination
+ * are interleaved until no shorter path can be found.
+ * <p>
+ * For a contraction hierarchy query the forward graph is the union of the
+ * upward graphs of start and destination (as built by
+ * {@link GraphReader#createGraphWithoutCore(int, boolean)}) and the core; the
+ * backward graph contains the same edges {@link NestedSimpleGraph#reversed() reversed}
+ * (see {@link NestedCompactCoreGraph#reversed()} for the core).
+ * <p>
+ * The results are the same as for {@link Dijkstra}, so they can be passed to
+ * {@link GraphReader#expandShortcuts(IntArrayDeque, IntArrayDeque)}.
+ */
+public final class BidirectionalCHQuery {
+	static final boolean DEBUG = false;
+
+	/**
+	 * state of the search in one direction; nodes are identified by their node
+	 * id, or by their local index if a {@link CompactQueryGraph} is used
+	 */
+	private static final class Search {
+		final NestedGraph graph;
+		final CompactQueryGraph compact;
+		final DijkstraWorkspace ws;
+		int settled, stalled;
+
+		Search(NestedGraph graph, CompactQueryGraph compact, DijkstraWorkspace ws) {
+			this.graph = graph;
+			this.compact = compact;
+			this.ws = ws;
+		}
+
+		void init(int source) {
+			if (null != compact) {
+				ws.resetDense(compact.size());
+			} else {
+				ws.reset();
+			}
+			settled = stalled = 0;
+
+			final int slot = add(source);
+			ws.set(slot, 0, -1, -1);
+			ws.queue.push(slot, source, 0);
+		}
+
+		int add(int node) {
+			return (null != compact) ? ws.addDense(node) : ws.add(node);
+		}
+
+		int slot(int node) {
+			return (null != compact) ? ws.denseSlot(node) : ws.slot(node);
+		}
+
+		/**
+		 * @return current distance of node, or -1 if the node wasn't reached yet
+		 */
+		int dist(int node) {
+			final int slot = slot(node);
+			return (-1 == slot) ? -1 : ws.dist(slot);
+		}
+
+		int nodeID(int node) {
+			return (null != compact) ? compact.nodeID(node) : node;
+		}
+
+		/**
+		 * drop heap entries for nodes already reached on a shorter path
+		 *
+		 * @return whether there are nodes left to settle
+		 */
+		boolean skipOutdated() {
+			final NodeQueue queue = ws.queue;
+			while (!queue.isEmpty()) {
+				if (queue.isIndexed() || queue.peekMinDist() <= ws.dist(slot(queue.peekMinId()))) return true;
+				queue.removeMin();
+			}
+			return false;
+		}
+	}
+
+	private final Search forward, backward;
+	/** used for stall-on-demand, null if disabled */
+	private GraphReader stallReader;
+	private GraphReader.NodeEdgesIterator stallIterator;
+
+	/** length of the shortest path found so far */
+	private int best;
+	/** node where forward and backward search met on the shortest path found so far, -1 if none */
+	private int meet;
+
+	/**
+	 * @param forwardGraph  graph to search from the start
+	 * @param backwardGraph reversed graph to search from the destination
+	 */
+	public BidirectionalCHQuery(NestedGraph forwardGraph, NestedGraph backwardGraph) {
+		this(forwardGraph, backwardGraph, new DijkstraWorkspace(), new DijkstraWorkspace());
+	}
+
+	/**
+	 * @param forwardGraph      graph to search from the start
+	 * @param backwardGraph     reversed graph to search from the destination
+	 * @param forwardWorkspace  storage for the forward search
+	 * @param backwardWorkspace storage for the backward search
+	 */
+	public BidirectionalCHQuery(NestedGraph forwardGraph, NestedGraph backwardGraph, DijkstraWorkspace forwardWorkspace, DijkstraWorkspace backwardWorkspace) {
+		forward = new Search(forwardGraph, null, forwardWorkspace);
+		backward = new Search(backwardGraph, null, backwardWorkspace);
+	}
+
+	/**
+	 * @param forwardGraph      graph to search from the start
+	 * @param backwardGraph     reversed graph to search from the destination, built with the local indices of forwardGraph
+	 * @param forwardWorkspace  storage for the forward search
+	 * @param backwardWorkspace storage for the backward search
+	 * @see CompactQueryGraph#build(CompactQueryGraph, NestedSimpleGraph...)
+	 */
+	public BidirectionalCHQuery(CompactQueryGraph forwardGraph, CompactQueryGraph backwardGraph, DijkstraWorkspace forwardWorkspace, DijkstraWorkspace backwardWorkspace) {
+		forward = new Search(null, forwardGraph, forwardWorkspace);
+		backward = new Search(null, backwardGraph, backwardWorkspace);
+	}
+
+	/**
+	 * Enable stall-on-demand: a settled node is not expanded if a shorter path
+	 * to it from the same search is known through a higher node (found by
+	 * reading its incoming (forward search) or outgoing (backward search) edges
+	 * from the graph file; core nodes are never stalled).
+	 *
+	 * @param reader the reader the graphs were built with; null disables stalling
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void setStallOnDemand(GraphReader reader) throws IOException, InterruptedException {
+		stallReader = reader;
+		stallIterator = (null == reader) ? null : reader.new NodeEdgesIterator();
+	}
+
+	/**
+	 * Nodes on the shortest path after {@link #run(int, int)} returned true.
+	 */
+	public IntArrayDeque path_nodes = new IntArrayDeque();
+	/**
+	 * Edges between {@link #path_nodes nodes} on the shortest path after {@link #run(int, int)} returned true.
+	 */
+	public IntArrayDeque path_edges = new IntArrayDeque();
+	/**
+	 * Sum of the {@link #path_edges edge} distances after {@link #run(int, int)} returned true.
+	 */
+	public int path_length;
+
+	/**
+	 * Fill public result values {@link #path_nodes}, {@link #path_edges}, {@link #path_length} from internal state.
+	 */
+	private void backtrack(int start, int dest) {
+		final DijkstraWorkspace f = forward.ws, b = backward.ws;
+		path_length = forward.dist(meet) + backward.dist(meet);
+
+		for (int n = meet; n != start;) {
+			final int slot = forward.slot(n);
+			path_nodes.addFirst(forward.nodeID(n));
+			path_edges.addFirst(f.edge(slot));
+			n = f.pred(slot);
+		}
+		path_nodes.addFirst(forward.nodeID(start));
+
+		for (int n = meet; n != dest;) {
+			final int slot = backward.slot(n);
+			path_edges.addLast(b.edge(slot));
+			n = b.pred(slot);
+			path_nodes.addLast(backward.nodeID(n));
+		}
+	}
+
+	/**
+	 * Calculates the shortest path between {@code start} and {@code destination}.
+	 * <p>
+	 * Clears {@link #path_nodes}, {@link #path_edges}, {@link #path_length}, whether returning true or not.
+	 *
+	 * @param start
+	 * @param destination
+	 * @return true when a path was found, false of no path was found
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public boolean run(int start, int destination) throws IOException, InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		path_edges.clear();
+		path_nodes.clear();
+		path_length = 0;
+
+		if (null != forward.compact) {
+			// search on local indices
+			final int localStart = forward.compact.localID(start), localDest = backward.compact.localID(destination);
+			if (-1 == localStart || -1 == localDest) {
+				if (start == destination) path_nodes.addFirst(start);
+				return start == destination;
+			}
+			start = localStart;
+			destination = localDest;
+		}
+
+		forward.init(start);
+		backward.init(destination);
+		best = Integer.MAX_VALUE;
+		meet = -1;
+		if (start == destination) {
+			best = 0;
+			meet = start;
+		}
+
+		for (;;) {
+			final boolean forwardLeft = forward.skipOutdated(), backwardLeft = backward.skipOutdated();
+			if (!forwardLeft && !backwardLeft) break;
+
+			/* every path not found yet is at least as long as the sum of the smallest
+			 * distances left in both heaps (if one search is done all nodes reachable
+			 * from its source have been settled, so 0 is a valid bound for it) */
+			final int forwardMin = forwardLeft ? forward.ws.queue.peekMinDist() : 0;
+			final int backwardMin = backwardLeft ? backward.ws.queue.peekMinDist() : 0;
+			if ((long) forwardMin + backwardMin >= best) break;
+
+			if (forwardLeft && (!backwardLeft || forwardMin <= backwardMin)) {
+				settle(forward, backward, false);
+			} else {
+				settle(backward, forward, true);
+			}
+		}
+
+		if (DEBUG) Log.d("Offline TP", "-- settled " + forward.settled + "/" + backward.settled + " nodes, stalled " + forward.stalled + "/" + backward.stalled);
+
+		if (-1 == meet) {
+			Log.d("Dijkstra", "<- Found no path in " + (System.currentTimeMillis() - startTime) + "ms");
+			return false;
+		}
+
+		backtrack(start, destination);
+		Log.d("Dijkstra", "<- Found path in " + (System.currentTimeMillis() - startTime) + "ms");
+		return true;
+	}
+
+	/**
+	 * settle the next node of search {@code s}, and check for paths to nodes reached by {@code other}
+	 */
+	private void settle(Search s, Search other, boolean isBackward) throws IOException, InterruptedException {
+		final DijkstraWorkspace ws = s.ws;
+		final int nodeId = ws.queue.peekMinId();
+		final int nodeDist = ws.queue.peekMinDist();
+		ws.queue.removeMin();
+		++s.settled;
+
+		if (null != stallIterator && stalled(s, nodeId, nodeDist, isBackward)) {
+			++s.stalled;
+			return;
+		}
+
+		if (null != s.compact) {
+			final CompactQueryGraph g = s.compact;
+			final int row = g.row(nodeId);
+			if (-1 != row) {
+				final int[] edgeTargets = g.edgeTargets, edgeDists = g.edgeDists, edgeIDs = g.edgeIDs;
+				for (int e = g.rowIndex[row], end = g.rowIndex[row+1]; e < end; ++e) {
+					relax(s, other, nodeId, nodeDist + edgeDists[e], edgeTargets[e], edgeIDs[e]);
+				}
+			}
+			if (nodeId < g.coreNodes) {
+				final int[] coreDetails = g.coreDetails, coreEdgeIDs = g.coreEdgeIDs;
+				for (int e = g.coreIndex[nodeId], end = g.coreIndex[nodeId+1]; e < end; ++e) {
+					final int edgeID = (null == coreEdgeIDs) ? g.coreFirstEdgeID + e : coreEdgeIDs[e];
+					relax(s, other, nodeId, nodeDist + coreDetails[2*e+1], g.coreLocalID(coreDetails[2*e]), edgeID);
+				}
+			}
+		} else {
+			final NestedGraphEdgeIterator iterator = ws.iterator;
+			iterator.load(s.graph, nodeId);
+			while (iterator.next()) {
+				relax(s, other, nodeId, nodeDist + iterator.dist, iterator.target, iterator.edgeid);
+			}
+		}
+	}
+
+	private void relax(Search s, Search other, int nodeId, int nextDist, int nextTarget, int edgeID) {
+		final DijkstraWorkspace ws = s.ws;
+		final int slot = s.add(nextTarget);
+		if (nextDist >= ws.dist(slot)) return;
+		ws.set(slot, nextDist, nodeId, edgeID);
+		ws.queue.push(slot, nextTarget, nextDist);
+
+		final int otherDist = other.dist(nextTarget);
+		if (-1 != otherDist && (long) nextDist + otherDist < best) {
+			best = nextDist + otherDist;
+			meet = nextTarget;
+		}
+	}
+
+	/**
+	 * @return whether a shorter path to {@code nodeId} is known through an edge
+	 *   from a higher node (such a node can't be on a shortest path)
+	 */
+	private boolean stalled(Search s, int node, int nodeDist, boolean isBackward) throws IOException, InterruptedException {
+		final int nodeId = s.nodeID(node);
+		if ((nodeId >>> 10) >= stallReader.coreBlock) return false;
+
+		final GraphReader.NodeEdgesIterator i = stallIterator;
+		// forward search: edges from higher nodes are incoming edges; backward search: outgoing edges
+		i.load(nodeId, isBackward);
+		while (i.next()) {
+			final int peer = (null != s.compact) ? s.compact.localID(i.edgePeer) : i.edgePeer;
+			if (-1 == peer) continue;
+			final int peerDist = s.dist(peer);
+			if (-1 != peerDist && peerDist + i.edgeDist < nodeDist) return true;
+		}
+		return false;
+	}
+}
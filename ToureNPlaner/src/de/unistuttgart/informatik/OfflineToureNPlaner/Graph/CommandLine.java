@@ -2,46 +2,87 @@ package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Random;
+
+import com.carrotsearch.hppc.IntArrayDeque;
 
 import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
 
 import android.util.Log;
 
+/**
+ * Benchmarks the route query as the app runs it (see
+ * {@link de.unistuttgart.informatik.OfflineToureNPlaner.Handler.LegRouter}):
+ * a {@link BidirectionalCHQuery} on {@link CompactQueryGraph}s, including
+ * the reading of the upward graphs and the expansion of the shortcuts.
+ */
 public class CommandLine {
+	private static final int DEFAULT_QUERIES = 100;
+
+	/**
+	 * @param args {@link DijkstraWorkspace.QueueType} to use, the graph file
+	 *   ("synthetic" for a temporary graph from {@link SyntheticGraphGenerator})
+	 *   and optional either the number of queries between random points in the
+	 *   bounding box of the graph, or start and destination (latitude and
+	 *   longitude in degree*1E6) of a single query
+	 */
 	public static void main(String[] args) {
+		if (args.length != 2 && args.length != 3 && args.length != 6) {
+			System.err.println("usage: CommandLine <queue type> <graph|synthetic> [<queries> | <startLatE6> <startLonE6> <destLatE6> <destLonE6>]");
+			return;
+		}
+		DijkstraWorkspace.setDefaultQueueType(DijkstraWorkspace.QueueType.valueOf(args[0]));
+		File graphFile = null;
+		final boolean synthetic = "synthetic".equals(args[1]);
 		try {
 			GraphReader reader = null;
 			try {
-				reader = new GraphReader(new File("/home/stefan/diplomarbeit/data/germany-szhk-jan29.ch.result"));
-				reader.openNCache(16);
-				int start = reader.findPoint(Position.fromE6(48710628, 9241326));
-				int dest = reader.findPoint(Position.fromE6(53525447, 10075375));
-				if (-1 == start || -1 == dest)  {
-					Log.e("Offline TP", "** Couldn't find nodes for start/dest points");
-					return;
+				if (synthetic) {
+					graphFile = File.createTempFile("synthetic", ".ch");
+					new SyntheticGraphGenerator(100, 100, 42).contract(200).write(graphFile);
+				} else {
+					graphFile = new File(args[1]);
 				}
+				reader = new GraphReader(graphFile);
+				reader.openNCache(16);
+				final Router router = new Router(reader, reader.loadCoreGraph());
 
-				NestedGraph coreGraph = reader.loadCoreGraph();
-
-				Log.d("Offline TP", "** Search path from: " + start + " -> " + dest);
-
-				NestedSimpleGraph outGraph = reader.createGraphWithoutCore(start, true);
-				NestedSimpleGraph inGraph = reader.createGraphWithoutCore(dest, false);
-				outGraph.setParent(coreGraph);
-				inGraph.setParent(outGraph);
+				final Position[] points;
+				if (6 == args.length) {
+					points = new Position[] {
+							Position.fromE6(Integer.parseInt(args[2]), Integer.parseInt(args[3])),
+							Position.fromE6(Integer.parseInt(args[4]), Integer.parseInt(args[5])) };
+				} else {
+					points = randomPoints(reader, 2 * ((3 == args.length) ? Integer.parseInt(args[2]) : DEFAULT_QUERIES), new Random(42));
+				}
+				final int[] nodes = reader.findPoints(points);
 
-				Dijkstra dijkstra = new Dijkstra(inGraph);
-				if (!dijkstra.run(start, dest)) {
-					Log.e("Offline TP", "** Dijkstra didn't find a path");
+				int queries = 0, noPath = 0;
+				long totalLength = 0, totalEuclid = 0, totalTime = 0;
+				for (int k = 0; k + 1 < nodes.length; k += 2) {
+					if (-1 == nodes[k] || -1 == nodes[k+1]) continue;
+					final long startTime = System.nanoTime();
+					final int length = router.route(nodes[k], nodes[k+1]);
+					if (-1 != length) reader.loadWayCoords();
+					totalTime += System.nanoTime() - startTime;
+					++queries;
+					if (-1 == length) {
+						++noPath;
+					} else {
+						totalLength += length;
+						totalEuclid += reader.path_euclid_length;
+					}
+				}
+				if (0 == queries) {
+					Log.e("Offline TP", "** Couldn't find nodes for start/dest points");
 					return;
 				}
-
-				reader.expandShortcuts(dijkstra.path_nodes, dijkstra.path_edges);
-				reader.loadWayCoords();
-
-				Log.d("Offline TP", String.format("** Found way: %1.1f km", reader.path_euclid_length/1000.0));
+				Log.d("Offline TP", String.format("** %1$d queries (%2$d without path) in %3$dms, %4$dus per query; total length %5$d, %6$1.1f km",
+						queries, noPath, totalTime / 1000000, totalTime / 1000 / queries, totalLength, totalEuclid / 1000.0));
+				Log.d("Offline TP", "** reader caches: " + reader.cacheStatistics());
 			} finally {
 				if (reader != null) reader.close();
+				if (synthetic && null != graphFile) graphFile.delete();
 			}
 		} catch (IOException e) {
 			Log.e("Offline TP", "IOException", e);
@@ -49,4 +90,75 @@ public class CommandLine {
 		}
 	}
 
+	/**
+	 * @return count random points in the bounding box of the grid of the graph
+	 */
+	static Position[] randomPoints(GraphReader reader, int count, Random random) {
+		final Position[] points = new Position[count];
+		final long width = (long) reader.gridWidth * reader.cellWidth, height = (long) reader.gridHeight * reader.cellHeight;
+		for (int k = 0; k < count; ++k) {
+			points[k] = Position.fromE7((int) (reader.baseLat + (long) (random.nextDouble() * height)), (int) (reader.baseLon + (long) (random.nextDouble() * width)));
+		}
+		return points;
+	}
+
+	/**
+	 * Runs the route query like the app: bidirectional on compact query graphs
+	 * if the core graph is loaded to the heap, else a {@link Dijkstra} on the
+	 * nested graphs. Not thread-safe.
+	 */
+	static final class Router {
+		private final GraphReader reader;
+		private final NestedGraph coreGraph;
+		/** null if the core graph isn't a {@link NestedCompactCoreGraph} */
+		private final CompactQueryGraph forwardQueryGraph, backwardQueryGraph;
+		private final DijkstraWorkspace forwardWorkspace = new DijkstraWorkspace(), backwardWorkspace = new DijkstraWorkspace();
+
+		Router(GraphReader reader, NestedGraph coreGraph) {
+			this.reader = reader;
+			this.coreGraph = coreGraph;
+			if (coreGraph instanceof NestedCompactCoreGraph) {
+				final NestedCompactCoreGraph compactCore = (NestedCompactCoreGraph) coreGraph;
+				forwardQueryGraph = new CompactQueryGraph(compactCore);
+				backwardQueryGraph = new CompactQueryGraph(compactCore.reversed());
+			} else {
+				forwardQueryGraph = backwardQueryGraph = null;
+			}
+		}
+
+		/**
+		 * Calculate the shortest path and expand its shortcuts (see
+		 * {@link GraphReader#expandShortcuts(IntArrayDeque, IntArrayDeque)})
+		 *
+		 * @return length of the path, or -1 if no path was found
+		 */
+		int route(int start, int dest) throws IOException, InterruptedException {
+			final NestedSimpleGraph outGraph = reader.createGraphWithoutCore(start, true);
+			final NestedSimpleGraph inGraph = reader.createGraphWithoutCore(dest, false);
+			outGraph.setParent(coreGraph);
+			inGraph.setParent(outGraph);
+
+			final IntArrayDeque path_nodes, path_edges;
+			final int path_length;
+			if (null != forwardQueryGraph) {
+				// the backward search runs on the same edges reversed
+				forwardQueryGraph.build(inGraph, outGraph);
+				backwardQueryGraph.build(forwardQueryGraph, outGraph.reversed(), inGraph.reversed());
+				final BidirectionalCHQuery query = new BidirectionalCHQuery(forwardQueryGraph, backwardQueryGraph, forwardWorkspace, backwardWorkspace);
+				query.setStallOnDemand(reader);
+				if (!query.run(start, dest)) return -1;
+				path_nodes = query.path_nodes;
+				path_edges = query.path_edges;
+				path_length = query.path_length;
+			} else {
+				final Dijkstra dijkstra = new Dijkstra(inGraph, forwardWorkspace);
+				if (!dijkstra.run(start, dest)) return -1;
+				path_nodes = dijkstra.path_nodes;
+				path_edges = dijkstra.path_edges;
+				path_length = dijkstra.path_length;
+			}
+			reader.expandShortcuts(path_nodes, path_edges);
+			return path_length;
+		}
+	}
 }
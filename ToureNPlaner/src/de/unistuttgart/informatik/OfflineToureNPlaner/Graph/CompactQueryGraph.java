@@ -0,0 +1,257 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.util.Arrays;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+
+/**
+ * Query graph with dense local node indices, built from the {@link NestedSimpleGraph}s
+ * of a query and a {@link NestedCompactCoreGraph}; searches on it work on plain
+ * arrays instead of walking the parent chain and looking up edge lists in hash maps.
+ * <p>
+ * Core nodes get the local index {@code (block - coreBlock) * blockSize + node in block},
+ * their core edges are read from the arrays of the core graph. All other nodes
+ * get the indices following the core nodes; their edges (and the edges from the
+ * sub graphs of core nodes) are stored in compressed sparse rows.
+ * <p>
+ * An instance is built once per core graph and then {@link #build(NestedSimpleGraph...) rebuilt}
+ * for each query, reusing its arrays.
+ */
+public final class CompactQueryGraph {
+	private final NestedCompactCoreGraph core;
+	private final int coreBlock, blockSize;
+	/** number of core nodes (and first local index of other nodes) */
+	final int coreNodes;
+
+	/* core graph arrays */
+	final int[] coreIndex;
+	final int[] coreDetails;
+	final int[] coreEdgeIDs;
+	final int coreFirstEdgeID;
+
+	/* global <-> local ids of non core nodes; may be the maps of another graph */
+	private final IntIntOpenHashMap ownNodeToLocal = new IntIntOpenHashMap();
+	private final IntArrayList ownLocalToNode = new IntArrayList();
+	private IntIntOpenHashMap nodeToLocal = ownNodeToLocal;
+	private IntArrayList localToNode = ownLocalToNode;
+
+	/* row of core nodes with sub graph edges; only valid if stamp equals buildEpoch */
+	private final int[] coreRows;
+	private final int[] coreRowStamps;
+	private int buildEpoch = 0;
+	/** core nodes with a row, in row order */
+	private final IntArrayList rowCoreNodes = new IntArrayList();
+
+	/* compressed sparse rows: non core node u has row u - coreNodes, core nodes follow */
+	int[] rowIndex = new int[1024];
+	int[] edgeTargets = new int[4096];
+	int[] edgeDists = new int[4096];
+	int[] edgeIDs = new int[4096];
+	/** number of rows for non core nodes (the ids may be extended after the build) */
+	private int subRows;
+	private int rows;
+
+	/** reads the local edges of the sub graphs */
+	private final NestedGraphEdgeIterator iterator = new NestedGraphEdgeIterator();
+
+	/** time the last build took in microseconds */
+	private long buildTime;
+
+	/**
+	 * @param core core graph, or null if there is no core
+	 */
+	public CompactQueryGraph(NestedCompactCoreGraph core) {
+		this.core = core;
+		if (null != core) {
+			coreBlock = core.coreBlock;
+			blockSize = core.blockSize;
+			coreNodes = core.edgesIndex.length - 1;
+			coreIndex = core.edgesIndex;
+			coreDetails = core.edgeDetails;
+			coreEdgeIDs = core.edgeIDs;
+			coreFirstEdgeID = core.firstEdgeID;
+		} else {
+			coreBlock = Integer.MAX_VALUE;
+			blockSize = 1;
+			coreNodes = 0;
+			coreIndex = null;
+			coreDetails = null;
+			coreEdgeIDs = null;
+			coreFirstEdgeID = 0;
+		}
+		coreRows = new int[coreNodes];
+		coreRowStamps = new int[coreNodes];
+	}
+
+	/**
+	 * @return the core graph this graph was created for
+	 */
+	public NestedCompactCoreGraph getCore() {
+		return core;
+	}
+
+	/**
+	 * Rebuild graph from the given sub graphs (without their parents) and the core.
+	 *
+	 * @param levels sub graphs in {@link NestedGraph} order (child first)
+	 */
+	public void build(NestedSimpleGraph... levels) {
+		build(null, levels);
+	}
+
+	/**
+	 * Rebuild graph from the given sub graphs (without their parents) and the
+	 * core, using the same local indices as {@code ids}; needed if searches on
+	 * both graphs have to compare nodes (for example a bidirectional search on
+	 * a graph and its reversed graph).
+	 *
+	 * @param ids    graph to share the local indices with (gets extended by new nodes); null to create new indices
+	 * @param levels sub graphs in {@link NestedGraph} order (child first)
+	 */
+	public void build(CompactQueryGraph ids, NestedSimpleGraph... levels) {
+		final long startTime = System.nanoTime();
+
+		if (null == ids) {
+			nodeToLocal = ownNodeToLocal;
+			localToNode = ownLocalToNode;
+			nodeToLocal.clear();
+			localToNode.clear();
+		} else {
+			assert ids.coreNodes == coreNodes;
+			nodeToLocal = ids.nodeToLocal;
+			localToNode = ids.localToNode;
+		}
+
+		if (++buildEpoch == Integer.MAX_VALUE) {
+			Arrays.fill(coreRowStamps, 0);
+			buildEpoch = 1;
+		}
+		rowCoreNodes.clear();
+
+		final int[][] levelNodes = new int[levels.length][];
+		for (int l = 0; l < levels.length; ++l) levelNodes[l] = levels[l].nodes();
+
+		// assign local ids to all nodes; count edges
+		final NestedGraphEdgeIterator i = iterator;
+		int edges = 0;
+		for (int l = 0; l < levels.length; ++l) {
+			final NestedSimpleGraph g = levels[l];
+			for (final int node: levelNodes[l]) {
+				localID(node, true);
+				for (boolean more = g.start(i, node); more; more = g.next(i)) {
+					localID(i.target, true);
+					++edges;
+				}
+			}
+		}
+		subRows = localToNode.size();
+		for (int l = 0; l < levels.length; ++l) {
+			for (final int node: levelNodes[l]) {
+				if ((node >>> 10) >= coreBlock) {
+					final int local = coreLocalID(node);
+					if (coreRowStamps[local] != buildEpoch) {
+						coreRowStamps[local] = buildEpoch;
+						coreRows[local] = subRows + rowCoreNodes.size();
+						rowCoreNodes.add(local);
+					}
+				}
+			}
+		}
+		rows = subRows + rowCoreNodes.size();
+
+		if (rowIndex.length < rows + 1) rowIndex = new int[Math.max(rows + 1, 2 * rowIndex.length)];
+		if (edgeTargets.length < edges) {
+			final int capacity = Math.max(edges, 2 * edgeTargets.length);
+			edgeTargets = new int[capacity];
+			edgeDists = new int[capacity];
+			edgeIDs = new int[capacity];
+		}
+
+		// count edges per row, then calculate row starts
+		Arrays.fill(rowIndex, 0, rows + 1, 0);
+		for (int l = 0; l < levels.length; ++l) {
+			for (final int node: levelNodes[l]) {
+				rowIndex[row(localID(node, false)) + 1] += levels[l].edgeCount(node);
+			}
+		}
+		for (int r = 0; r < rows; ++r) rowIndex[r+1] += rowIndex[r];
+
+		// fill rows, using rowIndex[r] as fill position; afterwards rowIndex[r] is the start of row r+1
+		for (int l = 0; l < levels.length; ++l) {
+			final NestedSimpleGraph g = levels[l];
+			for (final int node: levelNodes[l]) {
+				final int r = row(localID(node, false));
+				int pos = rowIndex[r];
+				for (boolean more = g.start(i, node); more; more = g.next(i), ++pos) {
+					edgeTargets[pos] = localID(i.target, false);
+					edgeDists[pos] = i.dist;
+					edgeIDs[pos] = i.edgeid;
+				}
+				rowIndex[r] = pos;
+			}
+		}
+		for (int r = rows; r > 0; --r) rowIndex[r] = rowIndex[r-1];
+		rowIndex[0] = 0;
+
+		buildTime = (System.nanoTime() - startTime) / 1000;
+	}
+
+	int coreLocalID(int node) {
+		return ((node >>> 10) - coreBlock) * blockSize + (node & 1023);
+	}
+
+	private int localID(int node, boolean add) {
+		if ((node >>> 10) >= coreBlock) return coreLocalID(node);
+		if (nodeToLocal.containsKey(node)) return coreNodes + nodeToLocal.lget();
+		if (!add) return -1;
+		final int local = localToNode.size();
+		nodeToLocal.put(node, local);
+		localToNode.add(node);
+		return coreNodes + local;
+	}
+
+	/**
+	 * @return local index of node, or -1 if the node is not in the graph
+	 */
+	public int localID(int node) {
+		return localID(node, false);
+	}
+
+	/**
+	 * @return node id for local index
+	 */
+	public int nodeID(int local) {
+		if (local >= coreNodes) return localToNode.get(local - coreNodes);
+		return ((coreBlock + local / blockSize) << 10) | (local % blockSize);
+	}
+
+	/**
+	 * @return number of local indices
+	 */
+	public int size() {
+		return coreNodes + localToNode.size();
+	}
+
+	/**
+	 * @return compressed sparse row of local node, or -1 if the node has no sub graph edges
+	 */
+	int row(int local) {
+		if (local >= coreNodes) return (local - coreNodes < subRows) ? local - coreNodes : -1;
+		return (coreRowStamps[local] == buildEpoch) ? coreRows[local] : -1;
+	}
+
+	/**
+	 * @return time the last build took in microseconds
+	 */
+	public long getBuildTime() {
+		return buildTime;
+	}
+
+	/**
+	 * @return number of (sub graph) edges stored in the rows
+	 */
+	public int rowEdges() {
+		return rowIndex[rows];
+	}
+}
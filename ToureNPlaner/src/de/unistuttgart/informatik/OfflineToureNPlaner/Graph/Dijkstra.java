@@ -1,23 +1,73 @@
 package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
 
+import java.io.IOException;
+
 import android.util.Log;
 
 import com.carrotsearch.hppc.IntArrayDeque;
-import com.carrotsearch.hppc.IntArrayList;
-import com.carrotsearch.hppc.IntIntOpenHashMap;
 
 /**
  * Calculates the shortest path between two nodes in a {@link NestedGraph}
  */
 public final class Dijkstra {
-	/** Graph to calculate paths in */
+	/** Graph to calculate paths in (null if {@link #compactGraph} is used) */
 	private final NestedGraph graph;
+	/** Graph to calculate paths in (null if {@link #graph} is used) */
+	private final CompactQueryGraph compactGraph;
+	/** storage for the search, reused by each {@link #run(int, int)} */
+	private final DijkstraWorkspace workspace;
 
 	/**
 	 * @param graph Graph to calculate paths in
 	 */
 	public Dijkstra(NestedGraph graph) {
+		this(graph, new DijkstraWorkspace());
+	}
+
+	/**
+	 * @param graph     Graph to calculate paths in
+	 * @param workspace storage for the search (can be shared with other searches not running at the same time)
+	 */
+	public Dijkstra(NestedGraph graph, DijkstraWorkspace workspace) {
 		this.graph = graph;
+		this.compactGraph = null;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * @param graph     Graph to calculate paths in
+	 * @param workspace storage for the search (can be shared with other searches not running at the same time)
+	 */
+	public Dijkstra(CompactQueryGraph graph, DijkstraWorkspace workspace) {
+		this.graph = null;
+		this.compactGraph = graph;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Reference query for the faster ones (in tests and benchmarks): a
+	 * Dijkstra on the upward graph of start, the core graph and the reversed
+	 * upward graph of dest
+	 *
+	 * @return the search with the path, or null if there is no path
+	 */
+	static Dijkstra nested(GraphReader reader, NestedGraph coreGraph, int start, int dest) throws IOException, InterruptedException {
+		final NestedSimpleGraph outGraph = reader.createGraphWithoutCore(start, true);
+		final NestedSimpleGraph inGraph = reader.createGraphWithoutCore(dest, false);
+		outGraph.setParent(coreGraph);
+		inGraph.setParent(outGraph);
+		final Dijkstra dijkstra = new Dijkstra(inGraph);
+		return dijkstra.run(start, dest) ? dijkstra : null;
+	}
+
+	/**
+	 * @return length of the path found by {@link #nested(GraphReader, NestedGraph, int, int)},
+	 *   or -1 if there is none or start or dest is -1 (like {@link ManyToManyQuery#NO_PATH})
+	 */
+	static int nestedPathLength(GraphReader reader, NestedGraph coreGraph, int start, int dest) throws IOException, InterruptedException {
+		if (-1 == start || -1 == dest) return -1;
+		final Dijkstra dijkstra = nested(reader, coreGraph, start, dest);
+		return (null != dijkstra) ? dijkstra.path_length : -1;
 	}
 
 	/**
@@ -36,15 +86,15 @@ public final class Dijkstra {
 	/**
 	 * Fill public result values {@link #path_nodes}, {@link #path_edges}, {@link #path_length} from internal state.
 	 */
-	private void backtrack(int start, int dest, IntArrayList nodeData, IntIntOpenHashMap nodeDataIndex) {
+	private void backtrack(int start, int dest) {
 		for (int n = dest; n != start;) {
-			final int ndx = nodeDataIndex.get(n);
+			final int slot = workspace.slot(n);
 			path_nodes.addFirst(n);
-			path_edges.addFirst(nodeData.get(ndx+2));
-			n = nodeData.get(ndx+1);
+			path_edges.addFirst(workspace.edge(slot));
+			n = workspace.pred(slot);
 		}
 		path_nodes.addFirst(start);
-		// Log.d("Dijkstra", "-- temporary sizes: " + nodeData.size() + " " + nodeDataIndex.size());
+		// Log.d("Dijkstra", "-- temporary sizes: " + workspace.size());
 	}
 
 	/**
@@ -62,31 +112,36 @@ public final class Dijkstra {
 		path_nodes.clear();
 		path_length = 0;
 
-		final IntArrayList nodeData = new IntArrayList(16384);
-		final IntIntOpenHashMap nodeDataIndex = new IntIntOpenHashMap(4096);
+		if (null != compactGraph) {
+			final boolean found = runCompact(start, destination);
+			Log.d("Dijkstra", (found ? "<- Found path in " : "<- Found no path in ") + (System.currentTimeMillis() - startTime) + "ms");
+			return found;
+		}
 
-		/* store node id with distance; each time a new shortest way to a node is found, a new entry is created - the old is not removed */
-		final Heap heap = new Heap();
-		heap.insert(start, 0);
+		final DijkstraWorkspace ws = workspace;
+		ws.reset();
 
-		nodeDataIndex.put(start, nodeData.size());
-		nodeData.add(0);
+		/* store node id with distance; if the queue isn't indexed, each time a new shortest way to a node is found, a new entry is created - the old is not removed */
+		final NodeQueue queue = ws.queue;
+		final int startSlot = ws.add(start);
+		ws.set(startSlot, 0, -1, -1);
+		queue.push(startSlot, start, 0);
 
-		final NestedGraphEdgeIterator iterator = new NestedGraphEdgeIterator();
+		final NestedGraphEdgeIterator iterator = ws.iterator;
 
-		while (!heap.isEmpty()) {
-			final int nodeId = heap.peekMinId();
-			final int nodeDist = heap.peekMinDist();
-			heap.removeMin();
+		while (!queue.isEmpty()) {
+			final int nodeId = queue.peekMinId();
+			final int nodeDist = queue.peekMinDist();
+			queue.removeMin();
 
 			if (nodeId == destination) {
 				path_length = nodeDist;
-				backtrack(start, destination, nodeData, nodeDataIndex);
+				backtrack(start, destination);
 				Log.d("Dijkstra", "<- Found path in " + (System.currentTimeMillis() - startTime) + "ms");
 				return true;
 			}
 
-			if (nodeDist > nodeData.get(nodeDataIndex.get(nodeId))) {
+			if (nodeDist > ws.dist(ws.slot(nodeId))) {
 				// we already have this node on a shorter path - see heap comment above
 				continue;
 			}
@@ -96,17 +151,10 @@ public final class Dijkstra {
 				int nextDist = nodeDist + iterator.dist;
 				int nextTarget = iterator.target;
 
-				final int nodeDataSize = nodeData.size();
-				final int ndx = nodeDataIndex.putOrAdd(nextTarget, nodeDataSize, 0);
-				if (ndx == nodeDataSize) {
-					nodeData.add(nextDist);
-					nodeData.add(nodeId, iterator.edgeid);
-					heap.insert(nextTarget, nextDist); // new entry
-				} else if (nextDist < nodeData.get(ndx)) {
-					nodeData.set(ndx, nextDist);
-					nodeData.set(ndx+1, nodeId);
-					nodeData.set(ndx+2, iterator.edgeid);
-					heap.insert(nextTarget, nextDist); // new entry - old entries to nextTarget with longer distance are not removed
+				final int slot = ws.add(nextTarget);
+				if (nextDist < ws.dist(slot)) {
+					ws.set(slot, nextDist, nodeId, iterator.edgeid);
+					queue.push(slot, nextTarget, nextDist); // lazy heap: new entry - old entries to nextTarget with longer distance are not removed
 				}
 			}
 		}
@@ -114,4 +162,71 @@ public final class Dijkstra {
 		Log.d("Dijkstra", "<- Found no path in " + (System.currentTimeMillis() - startTime) + "ms");
 		return false;
 	}
+
+	/**
+	 * {@link #run(int, int)} on {@link #compactGraph}; the workspace is used in dense mode.
+	 */
+	private boolean runCompact(int start, int destination) {
+		final CompactQueryGraph g = compactGraph;
+		final int localStart = g.localID(start), localDest = g.localID(destination);
+		if (-1 == localStart || -1 == localDest) return start == destination && found(start);
+
+		final DijkstraWorkspace ws = workspace;
+		ws.resetDense(g.size());
+
+		final NodeQueue queue = ws.queue;
+		ws.set(ws.addDense(localStart), 0, -1, -1);
+		queue.push(localStart, localStart, 0);
+
+		final int coreNodes = g.coreNodes;
+		final int[] rowIndex = g.rowIndex, edgeTargets = g.edgeTargets, edgeDists = g.edgeDists, edgeIDs = g.edgeIDs;
+		final int[] coreIndex = g.coreIndex, coreDetails = g.coreDetails, coreEdgeIDs = g.coreEdgeIDs;
+		final int coreFirstEdgeID = g.coreFirstEdgeID;
+
+		while (!queue.isEmpty()) {
+			final int node = queue.peekMinId();
+			final int nodeDist = queue.peekMinDist();
+			queue.removeMin();
+
+			if (node == localDest) {
+				path_length = nodeDist;
+				for (int n = localDest; n != localStart; n = ws.pred(n)) {
+					path_nodes.addFirst(g.nodeID(n));
+					path_edges.addFirst(ws.edge(n));
+				}
+				path_nodes.addFirst(start);
+				return true;
+			}
+
+			if (nodeDist > ws.dist(node)) continue; // outdated entry of a lazy heap
+
+			final int row = g.row(node);
+			if (-1 != row) {
+				for (int e = rowIndex[row], end = rowIndex[row+1]; e < end; ++e) {
+					relax(ws, queue, node, nodeDist + edgeDists[e], edgeTargets[e], edgeIDs[e]);
+				}
+			}
+			if (node < coreNodes) {
+				for (int e = coreIndex[node], end = coreIndex[node+1]; e < end; ++e) {
+					final int edgeID = (null == coreEdgeIDs) ? coreFirstEdgeID + e : coreEdgeIDs[e];
+					relax(ws, queue, node, nodeDist + coreDetails[2*e+1], g.coreLocalID(coreDetails[2*e]), edgeID);
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void relax(DijkstraWorkspace ws, NodeQueue queue, int node, int nextDist, int nextTarget, int edgeID) {
+		final int slot = ws.addDense(nextTarget);
+		if (nextDist < ws.dist(slot)) {
+			ws.set(slot, nextDist, node, edgeID);
+			queue.push(slot, nextTarget, nextDist);
+		}
+	}
+
+	/** trivial path from node to itself */
+	private boolean found(int node) {
+		path_nodes.addFirst(node);
+		return true;
+	}
 }
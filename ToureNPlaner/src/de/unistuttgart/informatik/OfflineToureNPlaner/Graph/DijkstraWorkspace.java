@@ -0,0 +1,315 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+/**
+ * Reusable storage for shortest path searches: per reached node the distance,
+ * the predecessor node and the edge from the predecessor, and the priority
+ * queue (see {@link QueueType}).
+ * <p>
+ * Nodes are mapped to dense slots with an open addressing hash table; entries
+ * of the table are stamped with the current epoch, so {@link #reset()} only has
+ * to increment the epoch. The arrays are only reallocated when a search reaches
+ * more nodes than any search before.
+ * <p>
+ * Not thread-safe; use one workspace per concurrently running search.
+ */
+public final class DijkstraWorkspace {
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** priority queue implementations */
+	public static enum QueueType {
+		/** ternary {@link Heap} without decrease-key */
+		LAZY_HEAP,
+		/** {@link IndexedHeap} */
+		INDEXED_HEAP,
+		/** {@link RadixHeap} */
+		RADIX_HEAP,
+	}
+
+	private static volatile QueueType defaultQueueType = QueueType.INDEXED_HEAP;
+
+	/**
+	 * Select the queue implementation for workspaces created without explicit
+	 * type (for benchmarks)
+	 */
+	public static void setDefaultQueueType(QueueType type) {
+		defaultQueueType = type;
+	}
+
+	public static QueueType getDefaultQueueType() {
+		return defaultQueueType;
+	}
+
+	private static NodeQueue createQueue(QueueType type, int initialCapacity) {
+		switch (type) {
+		case LAZY_HEAP:
+			return new Heap(initialCapacity);
+		case RADIX_HEAP:
+			return new RadixHeap(initialCapacity);
+		case INDEXED_HEAP:
+		default:
+			return new IndexedHeap(initialCapacity);
+		}
+	}
+
+	/* node -> slot hash table; an entry is only valid if its stamp equals the epoch */
+	private int[] tableNodes;
+	private int[] tableSlots;
+	private int[] tableStamps;
+	private int tableMask;
+	private int tableShift;
+	private int epoch = 1;
+
+	/* slot storage */
+	private int[] nodes;
+	private int[] dists;
+	private int[] preds;
+	private int[] edges;
+	private int size;
+
+	/* dense mode (see resetDense): slot == local node index, valid if stamp equals epoch */
+	private int[] denseStamps = new int[0];
+
+	/** queue for the search; cleared by {@link #reset()} */
+	public final NodeQueue queue;
+	/** edge iterator for the search */
+	final NestedGraphEdgeIterator iterator = new NestedGraphEdgeIterator();
+
+	private long queueMemorySize;
+	private long allocations, allocatedBytes;
+
+	public DijkstraWorkspace() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity number of nodes to reserve space for
+	 */
+	public DijkstraWorkspace(int initialCapacity) {
+		this(initialCapacity, defaultQueueType);
+	}
+
+	/**
+	 * @param initialCapacity number of nodes to reserve space for
+	 * @param queueType       priority queue implementation to use
+	 */
+	public DijkstraWorkspace(int initialCapacity, QueueType queueType) {
+		queue = createQueue(queueType, initialCapacity);
+		queueMemorySize = queue.memorySize();
+		allocateSlots(Math.max(16, initialCapacity));
+		allocateTable(2 * slotCapacity());
+		allocations = allocatedBytes = 0;
+	}
+
+	private int slotCapacity() {
+		return nodes.length;
+	}
+
+	private void allocateSlots(int capacity) {
+		nodes = grow(nodes, capacity);
+		dists = grow(dists, capacity);
+		preds = grow(preds, capacity);
+		edges = grow(edges, capacity);
+	}
+
+	private int[] grow(int[] old, int capacity) {
+		final int[] a = new int[capacity];
+		if (null != old) System.arraycopy(old, 0, a, 0, size);
+		++allocations;
+		allocatedBytes += 4L * capacity;
+		return a;
+	}
+
+	/** capacity must be a power of two; (re)inserts all current slots */
+	private void allocateTable(int capacity) {
+		tableNodes = new int[capacity];
+		tableSlots = new int[capacity];
+		tableStamps = new int[capacity];
+		allocations += 3;
+		allocatedBytes += 12L * capacity;
+		tableMask = capacity - 1;
+		tableShift = 32 - Integer.numberOfTrailingZeros(capacity);
+		for (int slot = 0; slot < size; ++slot) {
+			final int node = nodes[slot];
+			int pos = hash(node);
+			while (tableStamps[pos] == epoch) pos = (pos + 1) & tableMask;
+			tableStamps[pos] = epoch;
+			tableNodes[pos] = node;
+			tableSlots[pos] = slot;
+		}
+	}
+
+	private int hash(int node) {
+		return (node * 0x9E3779B9) >>> tableShift;
+	}
+
+	/**
+	 * Forget all nodes and empty the queue; O(1).
+	 */
+	public void reset() {
+		// the queue grows by itself; account for it here
+		final long memorySize = queue.memorySize();
+		if (memorySize != queueMemorySize) {
+			++allocations;
+			allocatedBytes += memorySize - queueMemorySize;
+			queueMemorySize = memorySize;
+		}
+		queue.clear();
+		size = 0;
+		if (++epoch == Integer.MAX_VALUE) {
+			java.util.Arrays.fill(tableStamps, 0);
+			java.util.Arrays.fill(denseStamps, 0);
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * Forget all nodes and empty the queue, and switch to dense mode: nodes
+	 * are identified by local indices {@code 0 <= node < nodes} (for example
+	 * of a {@link CompactQueryGraph}), which are used as slots directly; use
+	 * {@link #addDense(int)} and {@link #denseSlot(int)} instead of {@link #add(int)}
+	 * and {@link #slot(int)}.
+	 * <p>
+	 * O(1) unless the arrays have to grow.
+	 *
+	 * @param nodes number of local indices
+	 */
+	public void resetDense(int nodes) {
+		reset();
+		if (slotCapacity() < nodes) allocateSlots(Math.max(nodes, 2 * slotCapacity()));
+		if (denseStamps.length < nodes) {
+			denseStamps = new int[slotCapacity()];
+			++allocations;
+			allocatedBytes += 4L * denseStamps.length;
+		}
+	}
+
+	/**
+	 * dense mode version of {@link #add(int)}
+	 *
+	 * @return slot of node (which is the node)
+	 */
+	public int addDense(int node) {
+		if (denseStamps[node] != epoch) {
+			denseStamps[node] = epoch;
+			dists[node] = Integer.MAX_VALUE;
+			preds[node] = -1;
+			edges[node] = -1;
+		}
+		return node;
+	}
+
+	/**
+	 * dense mode version of {@link #slot(int)}
+	 *
+	 * @return slot of node (which is the node), or -1 if node wasn't reached
+	 */
+	public int denseSlot(int node) {
+		return (denseStamps[node] == epoch) ? node : -1;
+	}
+
+	/**
+	 * @return number of reached nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return slot of node, or -1 if node wasn't reached
+	 */
+	public int slot(int node) {
+		for (int pos = hash(node); tableStamps[pos] == epoch; pos = (pos + 1) & tableMask) {
+			if (tableNodes[pos] == node) return tableSlots[pos];
+		}
+		return -1;
+	}
+
+	/**
+	 * Find slot of node; a new slot is created if the node wasn't reached yet,
+	 * with distance {@link Integer#MAX_VALUE} and no predecessor (-1).
+	 *
+	 * @return slot of node
+	 */
+	public int add(int node) {
+		int pos = hash(node);
+		for (; tableStamps[pos] == epoch; pos = (pos + 1) & tableMask) {
+			if (tableNodes[pos] == node) return tableSlots[pos];
+		}
+
+		final int slot = size;
+		if (slot == slotCapacity()) allocateSlots(2 * slot);
+		nodes[slot] = node;
+		dists[slot] = Integer.MAX_VALUE;
+		preds[slot] = -1;
+		edges[slot] = -1;
+		++size;
+
+		if (2 * size > tableMask) {
+			allocateTable(2 * (tableMask + 1)); // also inserts the new slot
+		} else {
+			tableStamps[pos] = epoch;
+			tableNodes[pos] = node;
+			tableSlots[pos] = slot;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return distance of node, or -1 if node wasn't reached
+	 */
+	public int distOf(int node) {
+		final int slot = slot(node);
+		return (-1 == slot) ? -1 : dists[slot];
+	}
+
+	public int node(int slot) {
+		return nodes[slot];
+	}
+
+	public int dist(int slot) {
+		return dists[slot];
+	}
+
+	public int pred(int slot) {
+		return preds[slot];
+	}
+
+	public int edge(int slot) {
+		return edges[slot];
+	}
+
+	/**
+	 * @param slot slot of the node
+	 * @param dist distance to the node
+	 * @param pred predecessor node on the path to the node
+	 * @param edge edge from pred to the node
+	 */
+	public void set(int slot, int dist, int pred, int edge) {
+		dists[slot] = dist;
+		preds[slot] = pred;
+		edges[slot] = edge;
+	}
+
+	/**
+	 * @return number of arrays allocated since creation (not counting the initial arrays) or the last {@link #resetStatistics()}
+	 */
+	public long getAllocations() {
+		return allocations;
+	}
+
+	/**
+	 * @return size of the arrays counted in {@link #getAllocations()} in bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public void resetStatistics() {
+		allocations = allocatedBytes = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "DijkstraWorkspace(" + slotCapacity() + " slots, allocations: " + allocations + " (" + (allocatedBytes >> 10) + "kB))";
+	}
+}
@@ -0,0 +1,109 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.IOException;
+
+import android.util.Log;
+
+/**
+ * Loads the pages a BFS frontier of {@link GraphReader#createGraphWithoutCore(int, boolean)}
+ * will read into the shared {@link PageCache}, in a background thread while the
+ * frontier is processed: first the node edge headers of all nodes, then the
+ * edge ranges the headers point to, each in file order. Pages of mapped files
+ * are not cached; they are faulted in instead.
+ * <p>
+ * The prefetch is only a hint: it stops when {@link #cancel() cancelled}
+ * (when the frontier is done), and errors are ignored, as the query reads
+ * the pages itself anyway.
+ */
+final class EdgePrefetcher implements Runnable {
+	static final boolean DEBUG = GraphReader.DEBUG;
+
+	private final GraphFile graph;
+	/** frontier nodes, sorted */
+	private final int[] nodes;
+	private final boolean out;
+	private volatile boolean cancelled = false;
+
+	/** current page of {@link #readInt(long)} */
+	private long pageOffset = -1;
+	private java.nio.IntBuffer page;
+	private int loadedPages;
+
+	/**
+	 * @param graph file to read
+	 * @param nodes sorted frontier nodes (core nodes are skipped)
+	 * @param out   true => outgoing edges; false => incoming edges
+	 */
+	EdgePrefetcher(GraphFile graph, int[] nodes, boolean out) {
+		this.graph = graph;
+		this.nodes = nodes;
+		this.out = out;
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	@Override
+	public void run() {
+		final long startTime = System.currentTimeMillis();
+		try {
+			// headers; the edge ranges are remembered as first/last edge pairs
+			final int[] ranges = new int[2 * nodes.length];
+			int count = 0;
+			for (final int node: nodes) {
+				if (cancelled) return;
+				final int block = node >>> 10;
+				if (block >= graph.coreBlock) continue;
+				final long head = graph.offsetNodeEdges + block * graph.strideNodeEdgesBlock + (node & 1023) * 8 + (out ? 4 : 8);
+				final int firstEdge = readInt(head);
+				final int lastEdge = readInt(head + 4);
+				if (firstEdge >= lastEdge) continue;
+				ranges[count++] = firstEdge;
+				ranges[count++] = lastEdge;
+			}
+
+			// edges; the ranges of sorted nodes are mostly ascending
+			long lastPage = -1;
+			for (int r = 0; r < count; r += 2) {
+				final long first, end;
+				if (ranges[r] >= graph.packedEdgeCount) {
+					first = (graph.offsetRawEdges + graph.strideEdge * (ranges[r] - graph.packedEdgeCount)) & ~PageCache.PAGE_MASK;
+					end = graph.offsetRawEdges + graph.strideEdge * (ranges[r+1] - graph.packedEdgeCount);
+				} else {
+					// packed: from the start of the first block to the end of the last block
+					first = (graph.offsetEdges + readInt(graph.offsetEdgesIndex + 4L * (ranges[r] / graph.edgeBlockSize))) & ~PageCache.PAGE_MASK;
+					end = graph.offsetEdges + readInt(graph.offsetEdgesIndex + 4L * ((ranges[r+1] - 1) / graph.edgeBlockSize + 1));
+				}
+				for (long p = first; p < end; p += PageCache.PAGE_SIZE) {
+					if (cancelled) return;
+					if (p == lastPage) continue;
+					load(p);
+					lastPage = p;
+				}
+			}
+		} catch (IOException e) {
+			if (DEBUG) Log.d("Offline TP", "prefetch failed: " + e.getMessage());
+		} catch (InterruptedException e) {
+		} catch (RuntimeException e) {
+			// the file may be closed while a cancelled prefetch still runs
+			if (DEBUG) Log.d("Offline TP", "prefetch failed: " + e);
+		} finally {
+			if (DEBUG) Log.d("Offline TP", "<- prefetched " + loadedPages + " pages for " + nodes.length + " nodes in " + (System.currentTimeMillis() - startTime) + "ms" + (cancelled ? " (cancelled)" : ""));
+		}
+	}
+
+	private void load(long offset) throws IOException, InterruptedException {
+		page = PageCache.getInstance().get(graph.fileID, graph.file, offset);
+		// a page of a mapped file is only a view: reading from it faults the page in
+		if (graph.file.isMapped()) page.get(0);
+		pageOffset = offset;
+		++loadedPages;
+	}
+
+	private int readInt(long offset) throws IOException, InterruptedException {
+		final long p = offset & ~PageCache.PAGE_MASK;
+		if (p != pageOffset) load(p);
+		return page.get((int) (offset & PageCache.PAGE_MASK) >>> 2);
+	}
+}
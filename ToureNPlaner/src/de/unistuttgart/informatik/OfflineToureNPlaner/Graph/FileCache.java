@@ -3,33 +3,28 @@ package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
 import java.io.IOException;
 
 final class FileCache {
-	public final int PAGE_SIZE;
-	public final int PAGE_MASK;
+	public static final int PAGE_SIZE = PageCache.PAGE_SIZE;
+	public static final int PAGE_MASK = PageCache.PAGE_MASK;
 
 	private long offset;
 	private int localOffset;
-	private boolean loaded = false;
-	private RandomInputStream file;
-	private final long fileLength;
-	private int[] intBuffer;
+	private final RandomInputStream file;
+	private final int fileID;
+	private final PageCache pageCache;
+	private java.nio.IntBuffer page; /** current page from the {@link #pageCache}; null if not loaded */
 
-	public FileCache(RandomInputStream file) throws IOException {
+	public FileCache(RandomInputStream file, int fileID) {
+		this(file, fileID, PageCache.getInstance());
+	}
+
+	public FileCache(RandomInputStream file, int fileID, PageCache pageCache) {
 		this.file = file;
-		fileLength = file.length();
-		PAGE_SIZE = file.recommendedPageSize();
-		PAGE_MASK = PAGE_SIZE-1;
-		intBuffer = new int[PAGE_SIZE/4];
+		this.fileID = fileID;
+		this.pageCache = pageCache;
 	}
 
 	private void map() throws IOException, InterruptedException {
-		if (Thread.interrupted()) throw new InterruptedException("interrupted while doing disk io");
-
-		final int pageSize = (int) Math.min(fileLength - offset, PAGE_SIZE);
-		assert pageSize > 0;
-
-		file.seek(offset);
-		file.readIntArray(intBuffer, 0, pageSize / 4);
-		loaded = true;
+		page = pageCache.get(fileID, file, offset);
 	}
 
 	public void seek(long offset) throws IOException, InterruptedException {
@@ -39,20 +34,20 @@ final class FileCache {
 		} else {
 			localOffset = (int) (offset & PAGE_MASK);
 			this.offset = offset & ~PAGE_MASK;
-			loaded = false;
+			page = null;
 		}
 	}
 
 	public int readInt() throws IOException, InterruptedException {
-		if (!loaded) map();
+		if (null == page) map();
 		assert(0 == (localOffset & 3));
-		int res = intBuffer[localOffset/4];
+		int res = page.get(localOffset/4);
 		localOffset += 4;
 		if (localOffset >= PAGE_SIZE) {
 			assert(localOffset == PAGE_SIZE);
 			offset = offset + PAGE_SIZE;
 			localOffset = 0;
-			loaded = false;
+			page = null;
 		}
 		return res;
 	}
@@ -60,4 +55,4 @@ final class FileCache {
 	public long getOffset() {
 		return offset + localOffset;
 	}
-}
\ No newline at end of file
+}
@@ -3,30 +3,49 @@ package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
 import java.io.IOException;
 
 final class FileNCache {
-	public final int PAGE_SIZE;
-	public final int PAGE_MASK;
+	public static final int PAGE_SIZE = PageCache.PAGE_SIZE;
+	public static final int PAGE_MASK = PageCache.PAGE_MASK;
 
 	private long offset;
 	private int localOffset, slot = -1;
 	private final int slots;
 	private final RandomInputStream file;
-	private final long fileLength;
-	private final int[] intBuffer;
+	private final int fileID;
+	private final PageCache pageCache;
+	private final java.nio.IntBuffer[] pages; /** pages from the {@link #pageCache} for each slot */
 	private final long[] offsets;
 	private final int[] slotLRUNext, slotLRUPrev; // last entry is the cyclic head link
 
-	public FileNCache(RandomInputStream file, int slots) throws IOException {
+	/* open addressing (linear probing) index: page offset -> slot; empty entries have offset -1 */
+	private final long[] indexOffsets;
+	private final int[] indexSlots;
+	private final int indexMask;
+
+	/* statistics */
+	private long hits, misses, evictions;
+
+	public FileNCache(RandomInputStream file, int fileID, int slots) {
+		this(file, fileID, slots, PageCache.getInstance());
+	}
+
+	public FileNCache(RandomInputStream file, int fileID, int slots, PageCache pageCache) {
 		this.slots = slots;
 		this.file = file;
-		fileLength = file.length();
+		this.fileID = fileID;
+		this.pageCache = pageCache;
 
-		PAGE_SIZE = file.recommendedPageSize();
-		PAGE_MASK = PAGE_SIZE-1;
-
-		intBuffer = new int[slots*(PAGE_SIZE/4)];
+		pages = new java.nio.IntBuffer[slots];
 		offsets = new long[slots];
 		java.util.Arrays.fill(offsets, -1);
 
+		// keep load factor <= 0.5
+		int indexSize = 2;
+		while (indexSize < 2 * slots) indexSize <<= 1;
+		indexOffsets = new long[indexSize];
+		indexSlots = new int[indexSize];
+		indexMask = indexSize - 1;
+		java.util.Arrays.fill(indexOffsets, -1);
+
 		// init cyclic double linked list with last entry as cyclic head
 		slotLRUNext = new int[slots+1];
 		slotLRUPrev = new int[slots+1];
@@ -64,26 +83,69 @@ final class FileNCache {
 		slotLRUNext[slotLRUPrev[s]] = s;
 	}
 
+	private int indexHash(long offset) {
+		long h = (offset >>> PageCache.PAGE_SHIFT) * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & indexMask;
+	}
+
+	/** @return slot for page offset or -1 */
+	private int indexGet(long offset) {
+		for (int i = indexHash(offset);; i = (i + 1) & indexMask) {
+			final long o = indexOffsets[i];
+			if (o == offset) return indexSlots[i];
+			if (o == -1) return -1;
+		}
+	}
+
+	private void indexPut(long offset, int slot) {
+		int i = indexHash(offset);
+		while (indexOffsets[i] != -1) i = (i + 1) & indexMask;
+		indexOffsets[i] = offset;
+		indexSlots[i] = slot;
+	}
+
+	private void indexRemove(long offset) {
+		int i = indexHash(offset);
+		while (indexOffsets[i] != offset) {
+			if (indexOffsets[i] == -1) return;
+			i = (i + 1) & indexMask;
+		}
+		// backward shift deletion: move following entries of the probe sequence into the gap
+		for (int j = (i + 1) & indexMask; indexOffsets[j] != -1; j = (j + 1) & indexMask) {
+			final int home = indexHash(indexOffsets[j]);
+			// move entry j to i if its home isn't in the (cyclic) range (i, j]
+			if (((j - home) & indexMask) >= ((j - i) & indexMask)) {
+				indexOffsets[i] = indexOffsets[j];
+				indexSlots[i] = indexSlots[j];
+				i = j;
+			}
+		}
+		indexOffsets[i] = -1;
+	}
+
 	private void map() throws IOException, InterruptedException {
+		// on every page change, so a cancelled query stops even if all its pages are cached
 		if (Thread.interrupted()) throw new InterruptedException("interrupted while doing disk io");
 
-		for (slot = 0; slot < offsets.length; ++slot) {
-			if (offset == offsets[slot]) {
-				/* already mapped */
-				slotMarkLRU(slot);
-				return;
-			}
+		slot = indexGet(offset);
+		if (-1 != slot) {
+			/* already mapped */
+			++hits;
+			slotMarkLRU(slot);
+			return;
 		}
+		++misses;
 
 		slot = slotLRUPrev[slots]; // purge last entry
+		if (-1 != offsets[slot]) {
+			++evictions;
+			indexRemove(offsets[slot]);
+			offsets[slot] = -1; // in case loading fails
+		}
+		pages[slot] = pageCache.get(fileID, file, offset);
 		offsets[slot] = offset;
+		indexPut(offset, slot);
 		slotMarkLRU(slot);
-
-		int pageSize = (int) Math.min(fileLength - offset, PAGE_SIZE);
-		assert pageSize > 0;
-
-		file.seek(offset);
-		file.readIntArray(intBuffer, slot*(PAGE_SIZE/4), pageSize / 4);
 	}
 
 	public void seek(long offset) throws IOException {
@@ -100,7 +162,7 @@ final class FileNCache {
 	public int readInt() throws IOException, InterruptedException {
 		if (-1 == slot) map();
 		assert(0 == (localOffset & 3));
-		int res = intBuffer[(slot * (PAGE_SIZE/4)) + localOffset/4];
+		int res = pages[slot].get(localOffset/4);
 		localOffset += 4;
 		if (localOffset >= PAGE_SIZE) {
 			assert(localOffset == PAGE_SIZE);
@@ -112,7 +174,78 @@ final class FileNCache {
 		return res;
 	}
 
+	/**
+	 * Read a single byte (the ints in the file are big endian); unlike
+	 * {@link #readInt()} the offset doesn't need to be aligned.
+	 *
+	 * @return the byte as unsigned value
+	 */
+	public int readByte() throws IOException, InterruptedException {
+		if (-1 == slot) map();
+		int res = (pages[slot].get(localOffset >>> 2) >>> (24 - 8 * (localOffset & 3))) & 0xFF;
+		localOffset += 1;
+		if (localOffset >= PAGE_SIZE) {
+			offset = offset + PAGE_SIZE;
+			localOffset = 0;
+			slotUnmarkLRU(slot);
+			slot = -1;
+		}
+		return res;
+	}
+
+	/**
+	 * Read an unsigned varint: 7 bits per byte, least significant group first,
+	 * the high bit is set in all but the last byte.
+	 */
+	public int readVarint() throws IOException, InterruptedException {
+		int b = readByte();
+		int res = b & 0x7F;
+		for (int shift = 7; b >= 0x80; shift += 7) {
+			b = readByte();
+			res |= (b & 0x7F) << shift;
+		}
+		return res;
+	}
+
 	public long getOffset() {
 		return offset + localOffset;
 	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void resetStatistics() {
+		hits = misses = evictions = 0;
+	}
+
+	/**
+	 * Accumulates statistics of several {@link FileNCache} instances
+	 */
+	static final class Statistics {
+		long hits, misses, evictions;
+
+		void add(FileNCache cache) {
+			hits += cache.hits;
+			misses += cache.misses;
+			evictions += cache.evictions;
+		}
+
+		void reset() {
+			hits = misses = evictions = 0;
+		}
+
+		@Override
+		public String toString() {
+			return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.util.Log;
+
+/**
+ * Converts a version 1 graph file to the packed version 2 format (see {@link GraphFile}).
+ * <p>
+ * The node sections and the core edges are copied, the other edges and all
+ * edge details are packed with {@link PackedEdgeOutput}; the shortcut edges
+ * of edges without middle node are not stored (they are never used).
+ */
+public class GraphConverter {
+	static final int DEFAULT_EDGE_BLOCK_SIZE = 64;
+
+	/**
+	 * @param args version 1 graph file, output file and optional the number of edges per packed block
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("usage: GraphConverter <graph> <packed graph> [edges per block]");
+			return;
+		}
+		final int edgeBlockSize = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_EDGE_BLOCK_SIZE;
+		try {
+			final long startTime = System.currentTimeMillis();
+			final File source = new File(args[0]), dest = new File(args[1]);
+			convert(source, dest, edgeBlockSize);
+			Log.d("Offline TP", String.format("** Packed graph: %1$d -> %2$d bytes (%3$1.1f%%) in %4$dms",
+					source.length(), dest.length(), 100.0 * dest.length() / source.length(), System.currentTimeMillis() - startTime));
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+		}
+	}
+
+	/**
+	 * Write the version 1 graph source as version 2 graph to dest
+	 *
+	 * @param edgeBlockSize number of edges per packed block
+	 * @throws IOException
+	 */
+	public static void convert(File source, File dest, int edgeBlockSize) throws IOException {
+		if (edgeBlockSize <= 0) throw new IllegalArgumentException("edgeBlockSize must be positive");
+		final GraphFile graph = new GraphFile(source);
+		try {
+			if (1 != graph.version) throw new IOException(source + ": not a version 1 graph");
+			final int[] header = new int[13];
+			graph.file.readIntArray(0, header, 0, header.length);
+
+			// the edges of the core nodes are at the end and stay plain
+			int packedEdges = graph.edgeCount;
+			if (-1 != graph.coreBlock) {
+				final int[] firstCoreEdge = new int[1];
+				graph.file.readIntArray(graph.offsetNodeEdges + graph.coreBlock * graph.strideNodeEdgesBlock + 4, firstCoreEdge, 0, 1);
+				packedEdges = firstCoreEdge[0];
+			}
+
+			// first pass: sizes and indices of the packed sections
+			final PackedEdgeOutput edgesSize = new PackedEdgeOutput(null, edgeBlockSize);
+			final PackedEdgeOutput detailsSize = new PackedEdgeOutput(null, edgeBlockSize);
+			packEdges(graph, packedEdges, edgesSize);
+			packDetails(graph, detailsSize);
+			final int[] edgesIndex = edgesSize.finish(), detailsIndex = detailsSize.finish();
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dest), 64*1024));
+			try {
+				long pos = 0;
+				header[2] = 2;
+				pos = writeInts(out, pos, header);
+				pos = writeInts(out, pos, new int[] { edgeBlockSize, packedEdges, edgesIndex[edgesIndex.length - 1], detailsIndex[detailsIndex.length - 1] });
+				pos = pad(out, pos);
+
+				// node sections: same layout as in version 1
+				pos = copy(graph, graph.offsetNodeGeo, graph.offsetEdges - graph.offsetNodeGeo, out, pos);
+
+				pos = pad(out, writeInts(out, pos, edgesIndex));
+				final PackedEdgeOutput edges = new PackedEdgeOutput(out, edgeBlockSize);
+				packEdges(graph, packedEdges, edges);
+				pos = pad(out, pos + edges.size());
+				pos = pad(out, copy(graph, graph.offsetEdges + graph.strideEdge * packedEdges, graph.strideEdge * (graph.edgeCount - packedEdges), out, pos));
+
+				pos = pad(out, writeInts(out, pos, detailsIndex));
+				final PackedEdgeOutput details = new PackedEdgeOutput(out, edgeBlockSize);
+				packDetails(graph, details);
+				pos = pad(out, pos + details.size());
+
+				if (!java.util.Arrays.equals(edgesIndex, edges.finish()) || !java.util.Arrays.equals(detailsIndex, details.finish())) {
+					throw new IOException("packed sections changed while writing");
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			graph.close();
+		}
+	}
+
+	private static DataInputStream open(GraphFile graph, long offset) throws IOException {
+		final FileInputStream in = new FileInputStream(graph.getFile());
+		in.getChannel().position(offset);
+		return new DataInputStream(new BufferedInputStream(in, 64*1024));
+	}
+
+	private static void packEdges(GraphFile graph, int count, PackedEdgeOutput out) throws IOException {
+		final DataInputStream in = open(graph, graph.offsetEdges);
+		try {
+			for (int edge = 0; edge < count; ++edge) {
+				final int peer = in.readInt();
+				out.writeEdge(peer, in.readInt());
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void packDetails(GraphFile graph, PackedEdgeOutput out) throws IOException {
+		final DataInputStream in = open(graph, graph.offsetEdgesDetails);
+		try {
+			for (int edge = 0; edge < graph.edgeCount; ++edge) {
+				final int euclid = in.readInt(), shortcut1 = in.readInt(), shortcut2 = in.readInt();
+				out.writeDetails(euclid, shortcut1, shortcut2, in.readInt());
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long copy(GraphFile graph, long offset, long length, DataOutputStream out, long pos) throws IOException {
+		final DataInputStream in = open(graph, offset);
+		try {
+			final byte[] buf = new byte[64*1024];
+			for (long left = length; left > 0;) {
+				final int n = (int) Math.min(left, buf.length);
+				in.readFully(buf, 0, n);
+				out.write(buf, 0, n);
+				left -= n;
+			}
+		} finally {
+			in.close();
+		}
+		return pos + length;
+	}
+
+	private static long writeInts(DataOutputStream out, long pos, int[] values) throws IOException {
+		for (final int v: values) out.writeInt(v);
+		return pos + 4L * values.length;
+	}
+
+	/** fill with zeros up to the next 4k boundary */
+	private static long pad(DataOutputStream out, long pos) throws IOException {
+		final long end = GraphFile.align4k(pos);
+		for (; pos < end; ++pos) out.write(0);
+		return pos;
+	}
+}
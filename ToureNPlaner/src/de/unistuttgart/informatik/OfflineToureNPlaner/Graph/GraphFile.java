@@ -0,0 +1,287 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+import android.util.Log;
+
+/**
+ * An open graph file: the header and the stream, shared by all
+ * {@link GraphReader}s created with {@link GraphReader#GraphReader(GraphFile)}.
+ * <p>
+ * The header is immutable and the stream is only read with positional reads
+ * (through the {@link PageCache}), so any number of readers can run queries
+ * concurrently on one open file; each reader keeps its own cursors, caches and
+ * results and must only be used by one thread at a time.
+ * <p>
+ * Thread-safe; {@link #close()} must not be called while a reader is still
+ * in use.
+ * <p>
+ * Version 1 files store the edges (peer, distance) and edge details (euclid
+ * length, shortcut edges and middle node) as plain ints. Version 2 files pack
+ * both sections into blocks of {@link #edgeBlockSize} edges (see
+ * {@link PackedEdgeOutput}), with an index of the block offsets in front of
+ * each section; the core edges stay plain, so the core graph can still be
+ * mapped. The node sections are the same in both versions.
+ */
+public final class GraphFile implements java.io.Closeable {
+	static final boolean DEBUG = GraphReader.DEBUG;
+
+	/** number of ints in the header (version 1: only the first 13 are used) */
+	private static final int HEADER_INTS = 17;
+
+	RandomInputStream file;
+	final File graphFile;
+	/** identifies the file in the shared {@link PageCache} */
+	final int fileID;
+
+	/* header */
+	final int version;
+	final int baseLon, baseLat, cellWidth, cellHeight, gridWidth, gridHeight;
+	final int blockSize, blockCount;
+	final int coreBlock;
+	final int edgeCount;
+	/** version 2: number of edges per packed block */
+	final int edgeBlockSize;
+	/** edges with a lower id are packed (version 2: the non-core edges; version 1: none) */
+	final int packedEdgeCount;
+
+	/** offsetEdges: packed edges (version 2) or all edges (version 1); offsetRawEdges: plain edges from {@link #packedEdgeCount} on */
+	final long offsetNodeGeo, offsetNodeEdges, offsetEdges, offsetEdgesDetails;
+	/** version 2: indices of the packed sections (the byte offset of each block relative to the section, and the section end) */
+	final long offsetEdgesIndex, offsetEdgesDetailsIndex;
+	final long offsetRawEdges;
+	final long strideNodeGeoBlock, strideNodeEdgesBlock;
+	final long strideEdge = 8;
+	final long strideEdgeDetails = 16;
+
+	/** see {@link #openSpatialIndex()}; null if not opened */
+	private volatile SpatialIndex spatialIndex;
+
+	static long align4k(long offset) {
+		return (offset + 4095) & ~4095;
+	}
+
+	public GraphFile(File graphFile) throws IOException {
+		final java.io.RandomAccessFile rndAccFile;
+		this.graphFile = graphFile;
+		fileID = PageCache.fileID(graphFile);
+		try {
+			rndAccFile = new java.io.RandomAccessFile(graphFile, "r");
+		} catch (java.io.FileNotFoundException e) {
+			Log.e("Offline TP", graphFile.toString() + " not found");
+			throw e;
+		}
+		try {
+			file = new RandomInputStream.MappedFile(rndAccFile);
+		} catch (IOException e) {
+			// mapping can fail (for example if there is not enough address space); read through the file instead
+			Log.w("Offline TP", "mapping " + graphFile.toString() + " failed, falling back to normal reads", e);
+			file = new RandomInputStream.RandAccFile(rndAccFile, graphFile);
+		}
+		try {
+			// read header
+			final int[] header = new int[HEADER_INTS];
+			file.readIntArray(0, header, 0, HEADER_INTS);
+
+			// check magic+version
+			if (0x4348474F != header[0] || 0x66665450 != header[1]) throw new IOException("Bad file: wrong magic values in file header");
+			version = header[2];
+			if (1 != version && 2 != version) throw new IOException("Bad file: unknown version " + version);
+
+			// base grid
+			baseLon = header[3];
+			baseLat = header[4];
+			cellWidth = header[5];
+			cellHeight = header[6];
+			gridWidth = header[7];
+			gridHeight = header[8];
+
+			// counts+sizes
+			blockSize = header[9];
+			blockCount = header[10];
+			coreBlock = header[11];
+			edgeCount = header[12];
+
+			strideNodeGeoBlock = strideNodeEdgesBlock = (1+blockSize) * 8;
+			offsetNodeGeo = 4096;
+			offsetNodeEdges = align4k(offsetNodeGeo + blockCount*strideNodeGeoBlock);
+			final long endNodeEdges = offsetNodeEdges + blockCount*strideNodeEdgesBlock;
+			final long minLength;
+			if (1 == version) {
+				edgeBlockSize = 0;
+				packedEdgeCount = 0;
+				offsetEdgesIndex = offsetEdgesDetailsIndex = -1;
+				offsetEdges = offsetRawEdges = align4k(endNodeEdges);
+				offsetEdgesDetails = align4k(offsetEdges + edgeCount*strideEdge);
+				minLength = offsetEdgesDetails + edgeCount * strideEdgeDetails;
+			} else {
+				edgeBlockSize = header[13];
+				packedEdgeCount = header[14];
+				final int edgesBytes = header[15], detailsBytes = header[16];
+				if (edgeBlockSize <= 0 || packedEdgeCount < 0 || packedEdgeCount > edgeCount || edgesBytes < 0 || detailsBytes < 0) throw new IOException("Bad file: invalid packed edge sections");
+				offsetEdgesIndex = align4k(endNodeEdges);
+				offsetEdges = align4k(offsetEdgesIndex + 4L * (packedBlocks(packedEdgeCount) + 1));
+				offsetRawEdges = align4k(offsetEdges + edgesBytes);
+				offsetEdgesDetailsIndex = align4k(offsetRawEdges + (edgeCount - packedEdgeCount)*strideEdge);
+				offsetEdgesDetails = align4k(offsetEdgesDetailsIndex + 4L * (packedBlocks(edgeCount) + 1));
+				minLength = offsetEdgesDetails + detailsBytes;
+			}
+			if (DEBUG) Log.d("Offline TP", "-- graph: version " + version + ", offsets: " + offsetNodeGeo + " " + offsetNodeEdges + " " + offsetEdges + " " + offsetRawEdges + " " + offsetEdgesDetails + ", stride: " + strideNodeGeoBlock);
+			if (DEBUG) Log.d("Offline TP", "-- graph: blocksize: " + blockSize + " blocks: " + blockCount + " edges: " + edgeCount + " packed: " + packedEdgeCount);
+			if (DEBUG) Log.d("Offline TP", "-- graph: min file size: " + minLength + ", have: " + file.length());
+			// a truncated packed section would be decoded as garbage instead of failing to read
+			if (2 == version && file.length() < minLength) throw new IOException("Bad file: truncated (" + file.length() + " < " + minLength + " bytes)");
+		} catch (IOException e) {
+			if (DEBUG) Log.d("Offline TP", "reading graph header failed: " + e.getMessage());
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return number of packed blocks for edges {@code 0 .. edges-1}
+	 */
+	int packedBlocks(int edges) {
+		return (int) (((long) edges + edgeBlockSize - 1) / edgeBlockSize);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (file != null) file.close();
+		} finally {
+			file = null;
+		}
+	}
+
+	public File getFile() {
+		return graphFile;
+	}
+
+	/**
+	 * Open the {@link SpatialIndex} for the nearest node searches: map it from
+	 * its sidecar file, or build it from the node coordinates (and try to store
+	 * it in the sidecar file).
+	 *
+	 * @return the index
+	 * @throws IOException
+	 */
+	public SpatialIndex openSpatialIndex() throws IOException, InterruptedException {
+		return openSpatialIndex(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Same as {@link #openSpatialIndex()}, but only builds the index if the
+	 * arrays for it ({@link SpatialIndex#heapSize(int)}) fit into maxBuildHeapSize
+	 * bytes; mapping the sidecar file doesn't use the heap.
+	 *
+	 * @param maxBuildHeapSize heap the index may use while it is built
+	 * @return the index
+	 * @throws IOException if the index couldn't be mapped and not be built within the budget
+	 */
+	public synchronized SpatialIndex openSpatialIndex(long maxBuildHeapSize) throws IOException, InterruptedException {
+		if (null != spatialIndex) return spatialIndex;
+
+		final long startTime = System.currentTimeMillis();
+		final long stamp = GraphReader.graphStamp(graphFile);
+		SpatialIndex index = null;
+		try {
+			index = SpatialIndex.load(graphFile, stamp);
+		} catch (IOException e) {
+			Log.w("Offline TP", "loading spatial index failed, rebuilding it", e);
+		}
+		if (null != index) {
+			if (DEBUG) Log.d("Offline TP", "<- Mapped spatial index (" + index.size() + " nodes) in " + (System.currentTimeMillis() - startTime) + "ms");
+			spatialIndex = index;
+			return index;
+		}
+
+		// all blocks, in file order
+		final FileCache cache = new FileCache(file, fileID);
+		int nodes = 0;
+		for (int block = 0; block < blockCount; ++block) {
+			cache.seek(offsetNodeGeo + block * strideNodeGeoBlock + 4);
+			nodes += cache.readInt();
+		}
+		final long heapSize = SpatialIndex.heapSize(nodes);
+		if (heapSize > maxBuildHeapSize) {
+			throw new IOException("building spatial index needs " + (heapSize >> 10) + "kB, only " + (maxBuildHeapSize >> 10) + "kB available");
+		}
+		final int[] ids, lons, lats;
+		try {
+			ids = new int[nodes];
+			lons = new int[nodes];
+			lats = new int[nodes];
+		} catch (OutOfMemoryError e) {
+			throw new IOException("not enough memory for building spatial index (" + (heapSize >> 10) + "kB)");
+		}
+		int pos = 0;
+		for (int block = 0; block < blockCount; ++block) {
+			cache.seek(offsetNodeGeo + block * strideNodeGeoBlock + 4);
+			final int count = cache.readInt();
+			for (int ndx = 0; ndx < count; ++ndx, ++pos) {
+				ids[pos] = (block << 10) | ndx;
+				lons[pos] = cache.readInt();
+				lats[pos] = cache.readInt();
+			}
+		}
+		index = SpatialIndex.build(ids, lons, lats);
+		if (DEBUG) Log.d("Offline TP", "<- Built spatial index (" + nodes + " nodes) in " + (System.currentTimeMillis() - startTime) + "ms");
+
+		try {
+			index.save(graphFile, stamp);
+		} catch (IOException e) {
+			Log.w("Offline TP", "storing spatial index failed", e);
+		}
+		spatialIndex = index;
+		return index;
+	}
+
+	/**
+	 * @return the index opened by {@link #openSpatialIndex()}, or null
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	/**
+	 * Find the node closest to {@code point}
+	 *
+	 * @param point
+	 * @return position of the found node, or null if no node was found
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Position findNearest(Position point) throws IOException, InterruptedException {
+		final SpatialIndex index = spatialIndex;
+		if (null != index) {
+			final int found = index.nearest(point.longitudeE7(), point.latitudeE7());
+			return (-1 == found) ? null : Position.fromE7(index.lat(found), index.lon(found));
+		}
+		final GraphReader reader = new GraphReader(this);
+		if (-1 == reader.findPoint(point)) return null;
+		return Position.fromE7(reader.directGeo_lat, reader.directGeo_lon);
+	}
+
+	/**
+	 * Find the nodes closest to {@code points}
+	 *
+	 * @param points
+	 * @return positions of the found nodes in the order of points; null entries for points no node was found for
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @see GraphReader#findPoints(Position[])
+	 */
+	public Position[] findNearest(Position[] points) throws IOException, InterruptedException {
+		final GraphReader reader = new GraphReader(this);
+		final int[] nodeIDs = reader.findPoints(points);
+		final Position[] result = new Position[points.length];
+		for (int k = 0; k < points.length; ++k) {
+			if (-1 != nodeIDs[k]) result[k] = Position.fromE7(reader.points_coords[2*k], reader.points_coords[2*k+1]);
+		}
+		return result;
+	}
+}
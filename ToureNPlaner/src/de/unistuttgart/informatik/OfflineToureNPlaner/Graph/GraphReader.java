@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 
 import com.carrotsearch.hppc.IntArrayDeque;
+import com.carrotsearch.hppc.IntArrayList;
 import com.carrotsearch.hppc.IntOpenHashSet;
 import com.carrotsearch.hppc.cursors.IntCursor;
 
@@ -11,91 +12,146 @@ import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
 
 import android.util.Log;
 
+/**
+ * Reads a {@link GraphFile}: searches nodes, collects the upward graphs and
+ * expands paths. Results are stored in the public fields of the reader.
+ * <p>
+ * A reader is a cursor: it keeps its own caches and results, but shares the
+ * file, its header and the {@link PageCache} with all other readers of the
+ * same {@link GraphFile}, so one reader per thread can query the same open
+ * file concurrently. A reader must only be used by one thread at a time.
+ */
 final public class GraphReader implements java.io.Closeable {
 	static final boolean DEBUG = false;
 
+	/** number of {@link FileNCache} slots used if {@link #openNCache(int)} isn't called */
+	static final int DEFAULT_NCACHE_SLOTS = 4;
+
+	/** the shared file */
+	final GraphFile graph;
+	/** whether {@link #close()} closes {@link #graph} */
+	private final boolean ownsGraph;
 	RandomInputStream file;
+	final File graphFile;
+	/** identifies the file in the shared {@link PageCache} */
+	final int fileID;
 	FileNCache ncache;
+	/** accumulated statistics of the {@link NodeEdgesIterator} caches */
+	final FileNCache.Statistics edgesCacheStatistics = new FileNCache.Statistics();
 
-	/* header */
+	/* header (copied from the graph file) */
 	final int baseLon, baseLat, cellWidth, cellHeight, gridWidth, gridHeight;
 	final int blockSize, blockCount;
 	final int coreBlock;
 	final int edgeCount;
+	final boolean packed;
+	final int edgeBlockSize, packedEdgeCount;
 
 	final long offsetNodeGeo, offsetNodeEdges, offsetEdges, offsetEdgesDetails;
+	final long offsetEdgesIndex, offsetEdgesDetailsIndex, offsetRawEdges;
 	final long strideNodeGeoBlock, strideNodeEdgesBlock;
-	final long strideEdge = 8;
-	final long strideEdgeDetails = 16;
+	final long strideEdge;
+	final long strideEdgeDetails;
 
-	static long align4k(long offset) {
-		return (offset + 4095) & ~4095;
+	/**
+	 * Open a graph file only used by this reader
+	 */
+	public GraphReader(File graphFile) throws IOException {
+		this(new GraphFile(graphFile), true);
 	}
 
-	public GraphReader(File graphFile) throws IOException {
-		final java.io.RandomAccessFile rndAccFile;
-		try {
-			rndAccFile = new java.io.RandomAccessFile(graphFile, "r");
-			file = new RandomInputStream.RandAccFile(rndAccFile);
-		} catch (java.io.FileNotFoundException e) {
-			Log.e("Offline TP", graphFile.toString() + " not found");
-			throw e;
-		}
-		try {
-			// read header
-			// check magic+version
-			int magic1 = file.readInt();
-			int magic2 = file.readInt();
-
-			if (0x4348474F != magic1 || 0x66665450 != magic2) throw new IOException("Bad file: wrong magic values in file header");
-			final int version = file.readInt();
-			if (1 != version) throw new IOException("Bad file: unknown version " + version);
-
-			// base grid
-			baseLon = file.readInt();
-			baseLat = file.readInt();
-			cellWidth = file.readInt();
-			cellHeight = file.readInt();
-			gridWidth = file.readInt();
-			gridHeight = file.readInt();
-
-			// counts+sizes
-			blockSize = file.readInt();
-			blockCount = file.readInt();
-			coreBlock = file.readInt();
-			edgeCount = file.readInt();
-
-			strideNodeGeoBlock = strideNodeEdgesBlock = (1+blockSize) * 8;
-			offsetNodeGeo = 4096;
-			offsetNodeEdges = align4k(offsetNodeGeo + blockCount*strideNodeGeoBlock);
-			offsetEdges = align4k(offsetNodeEdges + blockCount*strideNodeEdgesBlock);
-			offsetEdgesDetails = align4k(offsetEdges + edgeCount*strideEdge);
-			if (DEBUG) Log.d("Offline TP", "-- graph: offsets: " + offsetNodeGeo + " " + offsetNodeEdges + " " + offsetEdges + " " + offsetEdgesDetails + ", stride: " + strideNodeGeoBlock);
-			if (DEBUG) Log.d("Offline TP", "-- graph: blocksize: " + blockSize + " blocks: " + blockCount + " edges: " + edgeCount);
-			if (DEBUG) Log.d("Offline TP", "-- graph: min file size: " + (offsetEdgesDetails + edgeCount * strideEdgeDetails) + ", have: " + file.length());
-		} catch (IOException e) {
-			if (DEBUG) Log.d("Offline TP", "reading graph header failed: " + e.getMessage());
-			close();
-			throw e;
-		}
+	/**
+	 * Create a reader for a shared graph file; closing the reader doesn't close the file.
+	 */
+	public GraphReader(GraphFile graph) {
+		this(graph, false);
+	}
+
+	private GraphReader(GraphFile graph, boolean ownsGraph) {
+		this.graph = graph;
+		this.ownsGraph = ownsGraph;
+		file = graph.file;
+		graphFile = graph.graphFile;
+		fileID = graph.fileID;
+
+		baseLon = graph.baseLon;
+		baseLat = graph.baseLat;
+		cellWidth = graph.cellWidth;
+		cellHeight = graph.cellHeight;
+		gridWidth = graph.gridWidth;
+		gridHeight = graph.gridHeight;
+		blockSize = graph.blockSize;
+		blockCount = graph.blockCount;
+		coreBlock = graph.coreBlock;
+		edgeCount = graph.edgeCount;
+		packed = graph.version >= 2;
+		edgeBlockSize = graph.edgeBlockSize;
+		packedEdgeCount = graph.packedEdgeCount;
+		offsetNodeGeo = graph.offsetNodeGeo;
+		offsetNodeEdges = graph.offsetNodeEdges;
+		offsetEdges = graph.offsetEdges;
+		offsetEdgesDetails = graph.offsetEdgesDetails;
+		offsetEdgesIndex = graph.offsetEdgesIndex;
+		offsetEdgesDetailsIndex = graph.offsetEdgesDetailsIndex;
+		offsetRawEdges = graph.offsetRawEdges;
+		strideNodeGeoBlock = graph.strideNodeGeoBlock;
+		strideNodeEdgesBlock = graph.strideNodeEdgesBlock;
+		strideEdge = graph.strideEdge;
+		strideEdgeDetails = graph.strideEdgeDetails;
+
+		ncache = new FileNCache(file, fileID, DEFAULT_NCACHE_SLOTS);
+		detailsCache = packed ? new FileNCache(file, fileID, DEFAULT_NCACHE_SLOTS) : null;
+	}
+
+	/**
+	 * @return the file read by this reader
+	 */
+	public GraphFile getGraphFile() {
+		return graph;
 	}
 
 	@Override
 	public void close() throws IOException {
 		try {
-			if (file != null) file.close();
+			if (ownsGraph) graph.close();
 		} finally {
 			file = null;
 			ncache = null;
+			detailsCache = null;
 		}
 	}
 
+	/**
+	 * Use a cache with more slots for direct reads; the slots only reference pages
+	 * in the shared {@link PageCache}.
+	 *
+	 * @param slots number of pages to keep referenced
+	 */
 	public void openNCache(int slots) throws IOException, InterruptedException {
-		ncache = new FileNCache(file, slots);
+		ncache = new FileNCache(file, fileID, slots);
 	}
 
+	/**
+	 * Go back to the default cache size for direct reads
+	 */
 	public void closeNCache() {
-		ncache = null;
+		ncache = new FileNCache(file, fileID, DEFAULT_NCACHE_SLOTS);
+	}
+
+	/**
+	 * @return description of the hits/misses/evictions of the caches used by this reader
+	 *         since the last {@link #resetCacheStatistics()}
+	 */
+	public String cacheStatistics() {
+		return "direct: hits: " + ncache.getHits() + ", misses: " + ncache.getMisses() + ", evictions: " + ncache.getEvictions()
+				+ "; edges: " + edgesCacheStatistics
+				+ ((null != shortcutCache) ? "; " + shortcutCache : "");
+	}
+
+	public void resetCacheStatistics() {
+		ncache.resetStatistics();
+		edgesCacheStatistics.reset();
+		if (null != shortcutCache) shortcutCache.resetStatistics();
 	}
 
 	public NestedGraph loadCoreGraph() throws IOException, InterruptedException {
@@ -106,7 +162,7 @@ final public class GraphReader implements java.io.Closeable {
 
 		final int coreNodes = blockSize*(blockCount - coreBlock);
 		int[] edgeOffsets = new int[coreNodes+1];
-		FileCache cache = new FileCache(file);
+		FileCache cache = new FileCache(file, fileID);
 
 		cache.seek(offsetNodeEdges + coreBlock * strideNodeEdgesBlock + 4);
 		final int firstEdge = cache.readInt();
@@ -126,15 +182,90 @@ final public class GraphReader implements java.io.Closeable {
 			edgeOffsets[coreNodes] = edgeCount - firstEdge;
 		}
 
+		// the core edges are never packed
+		assert firstEdge >= packedEdgeCount;
 		int[] edgeData = new int[(edgeCount - firstEdge) * 2];
-		file.seek(offsetEdges + strideEdge*firstEdge);
-		file.readIntArray(edgeData, 0, edgeData.length);
+		file.readIntArray(offsetRawEdges + strideEdge*(firstEdge - packedEdgeCount), edgeData, 0, edgeData.length);
 
 		if (DEBUG) Log.d("Offline TP", "<- Loaded " + (edgeCount - firstEdge) + " core edges in " + (System.currentTimeMillis() - startTime) + "ms");
 
 		return new NestedCompactCoreGraph(coreBlock, blockSize, firstEdge, edgeOffsets, edgeData);
 	}
 
+	/**
+	 * @return number of bytes {@link #loadCoreGraph()} needs on the heap
+	 */
+	public long coreGraphHeapSize() throws IOException, InterruptedException {
+		if (-1 == coreBlock) return 0;
+		final int coreNodes = blockSize*(blockCount - coreBlock);
+		ncache.seek(offsetNodeEdges + coreBlock * strideNodeEdgesBlock + 4);
+		final int firstEdge = ncache.readInt();
+		return 4L * (coreNodes + 1) + strideEdge * (edgeCount - firstEdge);
+	}
+
+	/**
+	 * Load core graph without copying it to the heap: the returned graph reads
+	 * the edges from the mapped file.
+	 *
+	 * @see #loadCoreGraph()
+	 */
+	public NestedGraph loadMappedCoreGraph() throws IOException, InterruptedException {
+		final long startTime = System.currentTimeMillis();
+
+		if (-1 == coreBlock) return null;
+		assert(coreBlock < blockCount);
+
+		final int coreBlocks = blockCount - coreBlock;
+		ncache.seek(offsetNodeEdges + coreBlock * strideNodeEdgesBlock + 4);
+		final int firstEdge = ncache.readInt();
+
+		java.nio.IntBuffer nodeEdges = file.mapIntBuffer(offsetNodeEdges + coreBlock * strideNodeEdgesBlock, (int) (coreBlocks * strideNodeEdgesBlock / 4));
+		assert firstEdge >= packedEdgeCount;
+		java.nio.IntBuffer edges = file.mapIntBuffer(offsetRawEdges + strideEdge*(firstEdge - packedEdgeCount), (edgeCount - firstEdge) * 2);
+
+		if (DEBUG) Log.d("Offline TP", "<- Mapped " + (edgeCount - firstEdge) + " core edges in " + (System.currentTimeMillis() - startTime) + "ms");
+
+		return new NestedMappedCoreGraph(coreBlock, blockSize, coreBlocks, firstEdge, nodeEdges, edges);
+	}
+
+	/**
+	 * value identifying the content of a graph file, so sidecar files (caches
+	 * stored next to the graph) for an older version of the graph aren't used
+	 */
+	public static long graphStamp(File graphFile) {
+		return graphFile.length() * 31 + graphFile.lastModified();
+	}
+
+	/**
+	 * Open the {@link SpatialIndex} of the graph file for {@link #findPoint(Position)}
+	 *
+	 * @return the index
+	 * @throws IOException
+	 * @see GraphFile#openSpatialIndex()
+	 */
+	public SpatialIndex openSpatialIndex() throws IOException, InterruptedException {
+		return graph.openSpatialIndex();
+	}
+
+	/**
+	 * Open the {@link SpatialIndex} of the graph file, building it only within a heap budget
+	 *
+	 * @param maxBuildHeapSize heap the index may use while it is built
+	 * @return the index
+	 * @throws IOException
+	 * @see GraphFile#openSpatialIndex(long)
+	 */
+	public SpatialIndex openSpatialIndex(long maxBuildHeapSize) throws IOException, InterruptedException {
+		return graph.openSpatialIndex(maxBuildHeapSize);
+	}
+
+	/**
+	 * @return the index opened by {@link #openSpatialIndex()}, or null
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return graph.getSpatialIndex();
+	}
+
 	/** result of {@link #directGeoLoad(int)} in degree*1E7 */
 	public int directGeo_lat, directGeo_lon;
 	/** load node with given id and store coords in {@link #directGeo_lat} and {@link #directGeo_lon} */
@@ -142,43 +273,74 @@ final public class GraphReader implements java.io.Closeable {
 		int block = nodeID >>> 10;
 		nodeID = (nodeID & 1023);
 		long offset = offsetNodeGeo + block * strideNodeGeoBlock + 8 * (nodeID + 1);
-		if (ncache != null) {
-			ncache.seek(offset);
-			directGeo_lon = ncache.readInt();
-			directGeo_lat = ncache.readInt();
-		} else {
-			file.seek(offset);
-			directGeo_lon = file.readInt();
-			directGeo_lat = file.readInt();
-		}
+		ncache.seek(offset);
+		directGeo_lon = ncache.readInt();
+		directGeo_lat = ncache.readInt();
 	}
 
 	public int directEdgeDetails_euclid;
 	public int directEdgeDetails_shortcut1;
 	public int directEdgeDetails_shortcut2;
 	public int directEdgeDetails_shortcutnode;
+
+	/* packed edge details: own cursor, as the records are decoded sequentially
+	 * from the start of a block; the id of the record at the cursor, -1 if unknown */
+	private FileNCache detailsCache;
+	private int detailsNext = -1;
+	private int detailsMiddle;
+
 	public void directEdgeDetailsLoad(int edge) throws IOException, InterruptedException {
+		if (packed) {
+			packedEdgeDetailsLoad(edge);
+			return;
+		}
 		long offset = offsetEdgesDetails + edge * strideEdgeDetails;
 		try {
-			if (ncache != null) {
-				ncache.seek(offset);
-				directEdgeDetails_euclid = ncache.readInt();
-				directEdgeDetails_shortcut1 = ncache.readInt();
-				directEdgeDetails_shortcut2 = ncache.readInt();
-				directEdgeDetails_shortcutnode = ncache.readInt();
-			} else {
-				file.seek(offset);
-				directEdgeDetails_euclid = file.readInt();
-				directEdgeDetails_shortcut1 = file.readInt();
-				directEdgeDetails_shortcut2 = file.readInt();
-				directEdgeDetails_shortcutnode = file.readInt();
-			}
+			ncache.seek(offset);
+			directEdgeDetails_euclid = ncache.readInt();
+			directEdgeDetails_shortcut1 = ncache.readInt();
+			directEdgeDetails_shortcut2 = ncache.readInt();
+			directEdgeDetails_shortcutnode = ncache.readInt();
 		} catch (IOException e) {
 			Log.e("GraphReader", "edge: " + edge + " offset: " + offset);
 			throw e;
 		}
 	}
 
+	/**
+	 * {@link #directEdgeDetailsLoad(int)} for version 2 files: continues from the
+	 * last loaded record if edge is in the same or the next block (as in the
+	 * sorted reads of {@link #expandShortcuts(IntArrayDeque, IntArrayDeque)}),
+	 * otherwise starts at the block of edge
+	 */
+	private void packedEdgeDetailsLoad(int edge) throws IOException, InterruptedException {
+		assert edge >= 0 && edge < edgeCount;
+		final FileNCache cache = detailsCache;
+		if (-1 == detailsNext || edge < detailsNext || edge - detailsNext >= edgeBlockSize) {
+			final int block = edge / edgeBlockSize;
+			ncache.seek(offsetEdgesDetailsIndex + 4L * block);
+			cache.seek(offsetEdgesDetails + ncache.readInt());
+			detailsNext = block * edgeBlockSize;
+		}
+		// reading may fail (interrupted), so the cursor is only valid again after the record was read
+		int next = detailsNext;
+		detailsNext = -1;
+		for (; next <= edge; ++next) {
+			if (0 == next % edgeBlockSize) detailsMiddle = 0;
+			directEdgeDetails_euclid = cache.readVarint();
+			final int middle = cache.readVarint();
+			if (0 == middle) {
+				directEdgeDetails_shortcut1 = directEdgeDetails_shortcut2 = directEdgeDetails_shortcutnode = -1;
+			} else {
+				detailsMiddle += PackedEdgeOutput.unzigzag(middle - 1);
+				directEdgeDetails_shortcutnode = detailsMiddle;
+				directEdgeDetails_shortcut1 = next + PackedEdgeOutput.unzigzag(cache.readVarint());
+				directEdgeDetails_shortcut2 = next + PackedEdgeOutput.unzigzag(cache.readVarint());
+			}
+		}
+		detailsNext = next;
+	}
+
 	/**
 	 * output debug helper to split nodeID into block and index within block
 	 * @param nodeID
@@ -197,7 +359,9 @@ final public class GraphReader implements java.io.Closeable {
 	/**
 	 * find NodeID closest to given point
 	 *
-	 * TODO: fix distance function (using longitude/latitude as euclidian distance now)
+	 * Uses the {@link #openSpatialIndex() spatial index} if it was opened; otherwise
+	 * searches the grid cells around the point (using longitude/latitude as
+	 * euclidian distance, so the result may differ from the index).
 	 *
 	 * stores coordinates of found point in directGeo_lat/directGeo_lon
 	 *
@@ -206,17 +370,87 @@ final public class GraphReader implements java.io.Closeable {
 	 * @throws IOException
 	 */
 	public int findPoint(Position point) throws IOException, InterruptedException {
+		return findPoint(point.longitudeE7(), point.latitudeE7(), null);
+	}
+
+	/** result of {@link #findPoints(Position[])}: latitude/longitude pairs of the found nodes in degree*1E7 */
+	public int[] points_coords;
+
+	/**
+	 * find the NodeIDs closest to the given points
+	 * <p>
+	 * The points are searched in the order of their grid cells (along a z-order
+	 * curve), so consecutive searches read mostly the same pages.
+	 * <p>
+	 * stores coordinates of found points in {@link #points_coords}
+	 *
+	 * @param points
+	 * @return NodeIDs (-1 if no node was found for a point) in the order of points
+	 * @throws IOException
+	 */
+	public int[] findPoints(Position[] points) throws IOException, InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		final int[] nodeIDs = new int[points.length];
+		points_coords = new int[2 * points.length];
+
+		final long[] order = new long[points.length];
+		for (int k = 0; k < points.length; ++k) {
+			final int gridx = clipInt(0, gridWidth-1, (points[k].longitudeE7() - baseLon)/cellWidth);
+			final int gridy = clipInt(0, gridHeight-1, (points[k].latitudeE7() - baseLat)/cellHeight);
+			order[k] = ((long) zOrder(gridx, gridy) << 32) | k;
+		}
+		java.util.Arrays.sort(order);
+
+		final NodeGeoIterator i = (null == graph.getSpatialIndex()) ? new NodeGeoIterator() : null;
+		for (final long o: order) {
+			final int k = (int) o;
+			nodeIDs[k] = findPoint(points[k].longitudeE7(), points[k].latitudeE7(), i);
+			points_coords[2*k] = directGeo_lat;
+			points_coords[2*k+1] = directGeo_lon;
+		}
+
+		if (DEBUG) Log.d("Offline TP", "<- find points: Searched " + points.length + " points in " + (System.currentTimeMillis() - startTime) + "ms");
+		return nodeIDs;
+	}
+
+	/** interleave the lower 15 bits of x and y */
+	private static int zOrder(int x, int y) {
+		int z = 0;
+		for (int bit = 0; bit < 15; ++bit) {
+			z |= ((x >>> bit) & 1) << (2*bit);
+			z |= ((y >>> bit) & 1) << (2*bit + 1);
+		}
+		return z;
+	}
+
+	/**
+	 * @param i iterator to search the grid cells with (its cache stays valid between searches); null to use a new one
+	 */
+	private int findPoint(int lon, int lat, NodeGeoIterator i) throws IOException, InterruptedException {
 		final long startTime = System.currentTimeMillis();
 		@SuppressWarnings("unused") // debug var
 		int tried_nodes = 0;
-		int lat = point.latitudeE7();
-		int lon = point.longitudeE7();
+
+		final SpatialIndex spatialIndex = graph.getSpatialIndex();
+		if (null != spatialIndex) {
+			final int found = spatialIndex.nearest(lon, lat);
+			if (-1 == found) return -1;
+			directGeo_lon = spatialIndex.lon(found);
+			directGeo_lat = spatialIndex.lat(found);
+			if (DEBUG) Log.d("Offline TP", "<- find point: Searched spatial index in " + (System.currentTimeMillis() - startTime) + "ms");
+			return spatialIndex.nodeID(found);
+		}
+
 		long minDist = Long.MAX_VALUE;
 		int nodeID = -1, lastNodeID = 0;
 		int nodeLat = 0, nodeLon = 0;
 		int gridx = clipInt(0, gridWidth-1, (lon - baseLon)/cellWidth);
 		int gridy = clipInt(0, gridHeight-1, (lat - baseLat)/cellHeight);
-		final NodeGeoIterator i = new NodeGeoIterator();
+		if (null == i) {
+			i = new NodeGeoIterator();
+		} else {
+			i.load(-1); // forget blocks visited in the last search
+		}
 
 		if (DEBUG) Log.d("Offline TP", "-> find point: lon=" + lon + " lat=" + lat + " in cell (" + gridx + "/" + gridy + ")");
 
@@ -263,7 +497,7 @@ final public class GraphReader implements java.io.Closeable {
 			}
 
 			for (int k = 0; tryBlocks[k] != -1; ++k) {
-				i.continue_with(base);
+				i.continue_with(tryBlocks[k]);
 				while (i.next()) {
 					++tried_nodes;
 					long diff_lat = lat - i.nodeLat, diff_lon = lon - i.nodeLon;
@@ -323,21 +557,53 @@ final public class GraphReader implements java.io.Closeable {
 				}
 			}
 		}
+		edgesCacheStatistics.add(i.cache);
 		if (DEBUG) Log.d("Offline TP", "<- found " + edges + (out ? " out" : "  in") + " edges from node " + source + " in " + (System.currentTimeMillis() - startTime) + "ms");
 	}
 
+	/** frontiers with fewer nodes are not prefetched */
+	static final int PREFETCH_MIN_NODES = 8;
+
+	/** runs the {@link EdgePrefetcher}s; null to disable prefetching */
+	private java.util.concurrent.Executor prefetchExecutor;
+
+	/**
+	 * Prefetch the pages of the BFS frontiers in {@link #createGraphWithoutCore(int, boolean)}
+	 * with executor (the prefetch is skipped if the executor rejects it). The
+	 * prefetch tasks must not be interrupted, as that would close the file.
+	 *
+	 * @param executor executor to run the prefetch tasks; null to disable prefetching
+	 */
+	public void setPrefetchExecutor(java.util.concurrent.Executor executor) {
+		prefetchExecutor = executor;
+	}
+
+	/**
+	 * @return the started prefetcher for the sorted frontier, or null
+	 */
+	private EdgePrefetcher startPrefetch(int[] frontier, boolean out) {
+		if (null == prefetchExecutor || frontier.length < PREFETCH_MIN_NODES) return null;
+		final EdgePrefetcher prefetcher = new EdgePrefetcher(graph, frontier, out);
+		try {
+			prefetchExecutor.execute(prefetcher);
+		} catch (java.util.concurrent.RejectedExecutionException e) {
+			return null;
+		}
+		return prefetcher;
+	}
+
 	/**
 	 * Find all (transitive) reachable (either outgoing or incoming) edges from source and
-	 * add them to graph
+	 * create a {@link NestedSimpleGraph.Builder packed} graph from them
 	 *
-	 * @param graph Graph to add edges to
 	 * @param source NodeID to start from
 	 * @param out true => outgoing edges; false => incoming edges
+	 * @return graph without parent
 	 * @throws IOException
 	 */
 	public NestedSimpleGraph createGraphWithoutCore(int source, boolean out) throws IOException, InterruptedException {
 		final long startTime = System.currentTimeMillis();
-		final NestedSimpleGraph graph = new NestedSimpleGraph();
+		final NestedSimpleGraph.Builder graph = new NestedSimpleGraph.Builder();
 		@SuppressWarnings("unused") // debug var
 		int edges = 0;
 		final NodeEdgesIterator i = new NodeEdgesIterator();
@@ -345,48 +611,38 @@ final public class GraphReader implements java.io.Closeable {
 		final IntArrayDeque todo = new IntArrayDeque();
 		if ((source >>> 10) < coreBlock) todo.addLast(source); // don't add edges from core nodes
 
-		if (out) {
-			while (!todo.isEmpty()) {
-				final int[] todoRun = todo.toArray();
-				java.util.Arrays.sort(todoRun);
-				todo.clear();
-
-				for (final int n: todoRun) {
-					if ((n >>> 10) >= coreBlock) continue; // skip edges from core nodes
-	
-					int nodeEdges = i.load(n, out);
-					edges += nodeEdges;
-					graph.prepareNode(n, nodeEdges);
-					while (i.next()) {
-						int peer = i.edgePeer;
-						graph.addEdge(n, peer, i.edgeDist, i.edgeID);
-	
-						// don't add core nodes; only add new nodes to the todo list
-						if ((peer >>> 10) < coreBlock && have.add(peer)) todo.addLast(peer);
-					}
-				}
-			}
-		} else {
-			while (!todo.isEmpty()) {
-				final int[] todoRun = todo.toArray();
-				java.util.Arrays.sort(todoRun);
-				todo.clear();
+		// collect the edges in one flat list; the packed graph is built from it at the end
+		while (!todo.isEmpty()) {
+			final int[] todoRun = todo.toArray();
+			java.util.Arrays.sort(todoRun);
+			todo.clear();
 
+			// load the pages of the frontier in the background while the first nodes are processed
+			final EdgePrefetcher prefetcher = startPrefetch(todoRun, out);
+			try {
 				for (final int n: todoRun) {
 					if ((n >>> 10) >= coreBlock) continue; // skip edges from core nodes
 					edges += i.load(n, out);
 					while (i.next()) {
 						int peer = i.edgePeer;
-						graph.addEdge(peer, n, i.edgeDist, i.edgeID);
-	
+
+						if (out) {
+							graph.addEdge(n, peer, i.edgeDist, i.edgeID);
+						} else {
+							graph.addEdge(peer, n, i.edgeDist, i.edgeID);
+						}
+
 						// don't add core nodes; only add new nodes to the todo list
 						if ((peer >>> 10) < coreBlock && have.add(peer)) todo.addLast(peer);
 					}
 				}
+			} finally {
+				if (null != prefetcher) prefetcher.cancel();
 			}
 		}
+		edgesCacheStatistics.add(i.cache);
 		if (DEBUG) Log.d("Offline TP", "<- found " + edges + (out ? " out" : "  in") + " edges from node " + source + " in " + (System.currentTimeMillis() - startTime) + "ms");
-		return graph;
+		return graph.build();
 	}
 
 	/** result of {@link #expandShortcuts(IntArrayDeque, IntArrayDeque)} */
@@ -394,9 +650,46 @@ final public class GraphReader implements java.io.Closeable {
 	/** result of {@link #expandShortcuts(IntArrayDeque, IntArrayDeque)} */
 	public int path_euclid_length;
 
+	/* expansion tree of expandShortcuts: per slot the edge id, the middle node
+	 * (-1: no shortcut, -2: cached shortcut) and the first of the two (consecutive)
+	 * child slots (cached shortcuts: index in expandCached), and the euclid length
+	 * (not for expanded shortcuts) */
+	private final IntArrayList expandEdge = new IntArrayList();
+	private final IntArrayList expandMiddle = new IntArrayList();
+	private final IntArrayList expandChild = new IntArrayList();
+	private final IntArrayList expandEuclid = new IntArrayList();
+	private final java.util.ArrayList<ShortcutCache.Entry> expandCached = new java.util.ArrayList<ShortcutCache.Entry>();
+	private final IntArrayList expandInterior = new IntArrayList();
+
+	/** cache of expanded shortcuts, null if not used */
+	private ShortcutCache shortcutCache;
+
+	/**
+	 * Use a cache for {@link #expandShortcuts(IntArrayDeque, IntArrayDeque)}: shortcuts
+	 * found in the cache aren't expanded again, and expanded shortcuts on the path
+	 * (before expansion) are added to it.
+	 *
+	 * @param cache cache (can be shared with other readers of the same graph), or null
+	 */
+	public void setShortcutCache(ShortcutCache cache) {
+		shortcutCache = cache;
+	}
+
+	public ShortcutCache getShortcutCache() {
+		return shortcutCache;
+	}
+
 	/**
 	 * traverse the given path, expanding shortcuts, storing the visited nodeIDs in {@link #path_nodes}.<br>
 	 * Also store the total euclid length of the path in {@link #path_euclid_length}
+	 * <p>
+	 * Shortcuts are expanded level by level: the details of all edges of a level
+	 * are read in edge id (and therefore file offset) order, so the edge details
+	 * are read in a single sweep per level instead of jumping through the file
+	 * in path order. Shortcuts found in the {@link #setShortcutCache(ShortcutCache) shortcut cache}
+	 * are not expanded again.
+	 * <p>
+	 * Both lists are consumed (empty afterwards).
 	 *
 	 * @param path_nodes NodeIDs on the path: <pre>n_0 .. n_k</pre>
 	 * @param path_edges EdgeIDs for the edges between the nodes: <pre>e_1 .. e_k</pre>
@@ -407,40 +700,113 @@ final public class GraphReader implements java.io.Closeable {
 		final int had_nodes = path_nodes.size();
 		this.path_nodes.clear();
 		path_euclid_length = 0;
+		@SuppressWarnings("unused") // debug var
+		int levels = 0, reads = 0;
+
+		final ShortcutCache cache = shortcutCache;
+		final IntArrayList edge = expandEdge, middle = expandMiddle, child = expandChild, euclid = expandEuclid;
+		final java.util.ArrayList<ShortcutCache.Entry> cached = expandCached;
+		edge.clear();
+		middle.clear();
+		child.clear();
+		euclid.clear();
+		cached.clear();
+
+		// the path edges are the roots of the expansion tree: slot i is the edge after n_i
+		IntArrayList level = new IntArrayList(path_edges.size());
+		IntArrayList nextLevel = new IntArrayList();
+		while (!path_edges.isEmpty()) {
+			level.add(edge.size());
+			edge.add(path_edges.removeFirst());
+			middle.add(-1);
+			child.add(-1);
+			euclid.add(0);
+		}
+		final int roots = edge.size();
+
+		while (!level.isEmpty()) {
+			++levels;
+			// sort slots by edge id, keeping the slot in the lower bits
+			final long[] order = new long[level.size()];
+			for (int i = 0; i < order.length; ++i) {
+				final int slot = level.get(i);
+				order[i] = ((long) edge.get(slot) << 32) | slot;
+			}
+			java.util.Arrays.sort(order);
+
+			nextLevel.clear();
+			int loaded = -1;
+			ShortcutCache.Entry entry = null;
+			for (final long o: order) {
+				final int slot = (int) o;
+				final int edgeID = (int) (o >>> 32);
+				if (edgeID != loaded) {
+					entry = (null == cache) ? null : cache.get(edgeID);
+					if (null == entry) {
+						directEdgeDetailsLoad(edgeID);
+						++reads;
+						if (null != cache && -1 != directEdgeDetails_shortcutnode) cache.miss();
+					}
+					loaded = edgeID;
+				}
+				if (null != entry) {
+					middle.set(slot, -2);
+					child.set(slot, cached.size());
+					euclid.set(slot, entry.euclid);
+					cached.add(entry);
+				} else if (-1 == directEdgeDetails_shortcutnode) {
+					euclid.set(slot, directEdgeDetails_euclid);
+				} else {
+					// shortcut: replace with two edges through the middle node
+					middle.set(slot, directEdgeDetails_shortcutnode);
+					child.set(slot, edge.size());
+					nextLevel.add(edge.size(), edge.size() + 1);
+					edge.add(directEdgeDetails_shortcut1, directEdgeDetails_shortcut2);
+					middle.add(-1, -1);
+					child.add(-1, -1);
+					euclid.add(0, 0);
+				}
+			}
 
-		// if (DEBUG) Log.d("Offline TP", "expandShortcuts: start node: " + sc_nodes.getFirst());
-		// start node is the start node - nothing to expand
-		this.path_nodes.addLast(path_nodes.removeFirst());
+			final IntArrayList swap = level;
+			level = nextLevel;
+			nextLevel = swap;
+		}
 
-		while (!path_nodes.isEmpty()) {
-			// remove edge; whether expanded or not, we don't need it in the list anymore
-			int edgeID = path_edges.removeFirst();
-			// only read the next node: if we need to expand the edge, we need to push another node before it
-			int targetID = path_nodes.getFirst();
-			// if (DEBUG) Log.d("Offline TP", "expandShortcuts: expanding edge: " + edgeID + " target node: " + nodeIDStr(targetID));
-
-			for (;;) {
-				directEdgeDetailsLoad(edgeID);
-				if (-1 == directEdgeDetails_shortcutnode) {
-					path_euclid_length += directEdgeDetails_euclid;
-					// now move the node to the final list
-					path_nodes.removeFirst();
-					this.path_nodes.addLast(targetID);
-					break;
+		// splice the expanded edges back into path order: walk each tree in order,
+		// entries < 0 on the stack mean "add the middle node of slot -entry-1"
+		final IntArrayDeque stack = new IntArrayDeque();
+		final IntArrayList interior = expandInterior;
+		this.path_nodes.addLast(path_nodes.removeFirst());
+		for (int root = 0; root < roots; ++root) {
+			interior.clear();
+			int rootEuclid = 0;
+			stack.addLast(root);
+			while (!stack.isEmpty()) {
+				final int entry = stack.removeLast();
+				if (entry < 0) {
+					interior.add(middle.get(-entry - 1));
+				} else if (-1 == middle.get(entry)) {
+					rootEuclid += euclid.get(entry);
+				} else if (-2 == middle.get(entry)) {
+					final ShortcutCache.Entry c = cached.get(child.get(entry));
+					for (final int node: c.nodes) interior.add(node);
+					rootEuclid += c.euclid;
 				} else {
-					// expanding shortcut
-					// if (DEBUG) Log.d("Offline TP", "expandShortcuts: shortcut edges: " + directEdgeDetails_shortcut1 + " " + directEdgeDetails_shortcut2 + " node: " + nodeIDStr(directEdgeDetails_shortcutnode));
-					// store second part of shortcut in the list
-					path_edges.addFirst(directEdgeDetails_shortcut2);
-					// handle first part in next round
-					targetID = directEdgeDetails_shortcutnode;
-					path_nodes.addFirst(targetID); // current target node needs to be first in the sc_nodes list
-					edgeID = directEdgeDetails_shortcut1;
+					final int first = child.get(entry);
+					stack.addLast(first + 1);
+					stack.addLast(-entry - 1);
+					stack.addLast(first);
 				}
 			}
+
+			for (int i = 0; i < interior.size(); ++i) this.path_nodes.addLast(interior.get(i));
+			this.path_nodes.addLast(path_nodes.removeFirst());
+			path_euclid_length += rootEuclid;
+			if (null != cache && middle.get(root) >= 0) cache.put(edge.get(root), interior.toArray(), rootEuclid);
 		}
 
-		if (DEBUG) Log.d("Offline TP", "<- expanded " + (this.path_nodes.size() - had_nodes) + " shortcuts in " + (System.currentTimeMillis() - startTime) + "ms");
+		if (DEBUG) Log.d("Offline TP", "<- expanded " + (this.path_nodes.size() - had_nodes) + " shortcuts in " + levels + " levels (" + reads + " reads) in " + (System.currentTimeMillis() - startTime) + "ms");
 	}
 
 	/**
@@ -480,7 +846,7 @@ final public class GraphReader implements java.io.Closeable {
 	 * </pre>
 	 */
 	final class NodeGeoIterator {
-		private FileCache cache = new FileCache(file);
+		private FileCache cache = new FileCache(file, fileID);
 
 		private int block; /** current block to search next item in */
 		private int nextBlock; /** (if item != 0): next block after current block */
@@ -589,7 +955,11 @@ final public class GraphReader implements java.io.Closeable {
 	 */
 	final class NodeEdgesIterator {
 		private int lastEdgeID; /** edge id to stop at */
-		private FileNCache cache = new FileNCache(file, 16);
+		private FileNCache cache = new FileNCache(file, fileID, 16);
+		/** whether the current edges are packed */
+		private boolean packedEdges;
+		/** packed edges: id of the record at the cache position, -1 if unknown; and the last peer in its block */
+		private int packedNext = -1, packedPeer;
 
 		/** contains the loaded edge information after {@link #next()} returned true */
 		public int edgePeer, edgeDist, edgeID;
@@ -631,23 +1001,51 @@ final public class GraphReader implements java.io.Closeable {
 				 * for each node we first have the index for outgoing edges, then incoming edges
 				 */
 				long head = offsetNodeEdges + (block * strideNodeEdgesBlock) + nodeID * 8 + (out ? 4 : 8);
-				int firstEdge;
-				if (ncache != null) {
-					ncache.seek(head);
-					firstEdge = ncache.readInt();
-					lastEdgeID = ncache.readInt();
-				} else {
-					file.seek(head);
-					firstEdge = file.readInt();
-					lastEdgeID = file.readInt();
-				}
+				ncache.seek(head);
+				final int firstEdge = ncache.readInt();
+				lastEdgeID = ncache.readInt();
 				edgeID = firstEdge - 1; /* incremented by next() to get the current edgeID */
-				if (firstEdge < lastEdgeID) cache.seek(offsetEdges + strideEdge*firstEdge);
 				assert(firstEdge <= lastEdgeID);
+				if (firstEdge < lastEdgeID) {
+					/* version 2: the edges of a node are either all packed or all plain (core nodes) */
+					assert firstEdge >= packedEdgeCount || lastEdgeID <= packedEdgeCount;
+					packedEdges = firstEdge < packedEdgeCount;
+					if (packedEdges) {
+						seekPacked(firstEdge);
+					} else {
+						cache.seek(offsetRawEdges + strideEdge*(firstEdge - packedEdgeCount));
+						packedNext = -1;
+					}
+				}
 				return lastEdgeID - firstEdge;
 			}
 		}
 
+		/**
+		 * Move to the packed record of edge; continues from the current record
+		 * if possible (the edges of consecutive nodes are consecutive)
+		 */
+		private void seekPacked(int edge) throws IOException, InterruptedException {
+			if (-1 == packedNext || edge < packedNext || edge - packedNext >= edgeBlockSize) {
+				final int block = edge / edgeBlockSize;
+				ncache.seek(offsetEdgesIndex + 4L * block);
+				cache.seek(offsetEdges + ncache.readInt());
+				packedNext = block * edgeBlockSize;
+			}
+			while (packedNext < edge) readPacked();
+		}
+
+		private void readPacked() throws IOException, InterruptedException {
+			final int next = packedNext;
+			// reading may fail (interrupted), so the cursor is only valid again after the record was read
+			packedNext = -1;
+			if (0 == next % edgeBlockSize) packedPeer = 0;
+			packedPeer += PackedEdgeOutput.unzigzag(cache.readVarint());
+			edgeDist = cache.readVarint();
+			edgePeer = packedPeer;
+			packedNext = next + 1;
+		}
+
 		/**
 		 * load next edge
 		 *
@@ -657,8 +1055,12 @@ final public class GraphReader implements java.io.Closeable {
 			int e = edgeID + 1;
 			if (e >= lastEdgeID) return false;
 			edgeID = e;
-			edgePeer = cache.readInt();
-			edgeDist = cache.readInt();
+			if (packedEdges) {
+				readPacked();
+			} else {
+				edgePeer = cache.readInt();
+				edgeDist = cache.readInt();
+			}
 			return true;
 		}
 	}
@@ -0,0 +1,295 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Writes a contracted graph from memory as version 1 {@link GraphFile}
+ * (use {@link GraphConverter} for the packed format).
+ * <p>
+ * Nodes are added with their coordinates and their contraction level, edges
+ * with their distance and euclid length; shortcuts are added from the two
+ * edges they replace. Each edge is stored with its lower node (the node with
+ * the lower level; nodes not in the core are always lower than core nodes):
+ * as outgoing edge of its source or as incoming edge of its target. Edges
+ * between core nodes are outgoing edges of their source.
+ * <p>
+ * The nodes are grouped into blocks by grid cell: cell i starts with block i,
+ * further blocks of the cell (and its core blocks) are linked to it. The core
+ * blocks are the last blocks of the file.
+ */
+public final class GraphWriter {
+	private final int blockSize, cellWidth, cellHeight;
+
+	/* nodes */
+	private final IntArrayList lons = new IntArrayList(), lats = new IntArrayList(), levels = new IntArrayList();
+	private final java.util.BitSet core = new java.util.BitSet();
+
+	/* edges; shortcut1/shortcut2 are -1 for plain edges */
+	private final IntArrayList edgeFrom = new IntArrayList(), edgeTo = new IntArrayList();
+	private final IntArrayList edgeDist = new IntArrayList(), edgeEuclid = new IntArrayList();
+	private final IntArrayList edgeShortcut1 = new IntArrayList(), edgeShortcut2 = new IntArrayList();
+
+	/** node ids in the written file, see {@link #getNodeID(int)} */
+	private int[] nodeIDs;
+
+	/**
+	 * @param blockSize  maximum number of nodes per block (at most 1024)
+	 * @param cellWidth  width of a grid cell in degree*1E7
+	 * @param cellHeight height of a grid cell in degree*1E7
+	 */
+	public GraphWriter(int blockSize, int cellWidth, int cellHeight) {
+		if (blockSize <= 0 || blockSize > 1024) throw new IllegalArgumentException("blockSize must be in 1..1024");
+		if (cellWidth <= 0 || cellHeight <= 0) throw new IllegalArgumentException("cell size must be positive");
+		this.blockSize = blockSize;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+	}
+
+	/**
+	 * @param lon    longitude in degree*1E7
+	 * @param lat    latitude in degree*1E7
+	 * @param level  contraction level: edges are stored with the node with the lower level
+	 * @param inCore whether the node is in the core
+	 * @return index of the node
+	 */
+	public int addNode(int lon, int lat, int level, boolean inCore) {
+		final int node = lons.size();
+		lons.add(lon);
+		lats.add(lat);
+		levels.add(level);
+		if (inCore) core.set(node);
+		return node;
+	}
+
+	/**
+	 * @return index of the edge
+	 */
+	public int addEdge(int from, int to, int dist, int euclid) {
+		return addEdge(from, to, dist, euclid, -1, -1);
+	}
+
+	/**
+	 * Add a shortcut for the path {@code first, second}; its distance and euclid
+	 * length are the sums of the two edges.
+	 *
+	 * @return index of the edge
+	 */
+	public int addShortcut(int first, int second) {
+		if (edgeTo.get(first) != edgeFrom.get(second)) throw new IllegalArgumentException("shortcut edges " + first + " and " + second + " are not connected");
+		return addEdge(edgeFrom.get(first), edgeTo.get(second), edgeDist.get(first) + edgeDist.get(second),
+				edgeEuclid.get(first) + edgeEuclid.get(second), first, second);
+	}
+
+	private int addEdge(int from, int to, int dist, int euclid, int shortcut1, int shortcut2) {
+		if (from < 0 || from >= lons.size() || to < 0 || to >= lons.size()) throw new IllegalArgumentException("unknown node in edge " + from + " -> " + to);
+		final int edge = edgeFrom.size();
+		edgeFrom.add(from);
+		edgeTo.add(to);
+		edgeDist.add(dist);
+		edgeEuclid.add(euclid);
+		edgeShortcut1.add(shortcut1);
+		edgeShortcut2.add(shortcut2);
+		return edge;
+	}
+
+	public int nodeCount() {
+		return lons.size();
+	}
+
+	public int edgeCount() {
+		return edgeFrom.size();
+	}
+
+	/**
+	 * @return id of the node in the file written last
+	 */
+	public int getNodeID(int node) {
+		return nodeIDs[node];
+	}
+
+	/** whether node a is stored below node b */
+	private boolean lower(int a, int b) {
+		if (core.get(a) != core.get(b)) return core.get(b);
+		final int la = levels.get(a), lb = levels.get(b);
+		return la < lb || (la == lb && a < b);
+	}
+
+	/**
+	 * Write the graph as version 1 file
+	 *
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		final int nodes = lons.size(), edges = edgeFrom.size();
+		if (core.isEmpty()) throw new IllegalStateException("the graph needs at least one core node");
+
+		// grid
+		int minLon = Integer.MAX_VALUE, minLat = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE, maxLat = Integer.MIN_VALUE;
+		for (int n = 0; n < nodes; ++n) {
+			minLon = Math.min(minLon, lons.get(n));
+			maxLon = Math.max(maxLon, lons.get(n));
+			minLat = Math.min(minLat, lats.get(n));
+			maxLat = Math.max(maxLat, lats.get(n));
+		}
+		final int gridWidth = (int) (((long) maxLon - minLon) / cellWidth) + 1;
+		final int gridHeight = (int) (((long) maxLat - minLat) / cellHeight) + 1;
+		final int cells = gridWidth * gridHeight;
+
+		// nodes per cell, split into the non-core and the core blocks
+		final IntArrayList[] cellNodes = new IntArrayList[cells], cellCore = new IntArrayList[cells];
+		for (int c = 0; c < cells; ++c) {
+			cellNodes[c] = new IntArrayList();
+			cellCore[c] = new IntArrayList();
+		}
+		for (int n = 0; n < nodes; ++n) {
+			final int c = (int) (((long) lats.get(n) - minLat) / cellHeight) * gridWidth + (int) (((long) lons.get(n) - minLon) / cellWidth);
+			(core.get(n) ? cellCore : cellNodes)[c].add(n);
+		}
+		final java.util.ArrayList<int[]> blocks = new java.util.ArrayList<int[]>();
+		final IntArrayList blockCell = new IntArrayList();
+		for (int c = 0; c < cells; ++c) {
+			blocks.add(slice(cellNodes[c], 0));
+			blockCell.add(c);
+		}
+		for (int c = 0; c < cells; ++c) {
+			for (int off = blockSize; off < cellNodes[c].size(); off += blockSize) {
+				blocks.add(slice(cellNodes[c], off));
+				blockCell.add(c);
+			}
+		}
+		final int coreBlock = blocks.size();
+		for (int c = 0; c < cells; ++c) {
+			for (int off = 0; off < cellCore[c].size(); off += blockSize) {
+				blocks.add(slice(cellCore[c], off));
+				blockCell.add(c);
+			}
+		}
+		final int blockCount = blocks.size();
+		if (blockCount > (1 << 21)) throw new IllegalStateException("too many blocks: " + blockCount);
+
+		final int[] nextBlock = new int[blockCount], tail = new int[cells];
+		java.util.Arrays.fill(nextBlock, -1);
+		for (int c = 0; c < cells; ++c) tail[c] = c;
+		for (int b = cells; b < blockCount; ++b) {
+			nextBlock[tail[blockCell.get(b)]] = b;
+			tail[blockCell.get(b)] = b;
+		}
+		nodeIDs = new int[nodes];
+		for (int b = 0; b < blockCount; ++b) {
+			final int[] block = blocks.get(b);
+			for (int i = 0; i < block.length; ++i) nodeIDs[block[i]] = (b << 10) | i;
+		}
+
+		// edge lists of the lower nodes, linked per node (built backwards, so in the order of adding)
+		final int[] outHead = new int[nodes], inHead = new int[nodes], nextEdge = new int[edges];
+		java.util.Arrays.fill(outHead, -1);
+		java.util.Arrays.fill(inHead, -1);
+		for (int e = edges - 1; e >= 0; --e) {
+			final int from = edgeFrom.get(e), to = edgeTo.get(e);
+			if ((core.get(from) && core.get(to)) || lower(from, to)) {
+				nextEdge[e] = outHead[from];
+				outHead[from] = e;
+			} else {
+				nextEdge[e] = inHead[to];
+				inHead[to] = e;
+			}
+		}
+
+		// edge ids in file order and the node edges blocks
+		final int[] fileEdgeID = new int[edges], order = new int[edges];
+		final int[][] nodeEdges = new int[blockCount][];
+		int edgeCount = 0;
+		for (int b = 0; b < blockCount; ++b) {
+			final int[] block = blocks.get(b);
+			final int[] head = new int[2 + 2 * blockSize];
+			for (int i = 0; i < blockSize; ++i) {
+				head[1 + 2*i] = edgeCount;
+				if (i < block.length) {
+					for (int e = outHead[block[i]]; -1 != e; e = nextEdge[e]) order[edgeCount++] = e;
+				}
+				head[2 + 2*i] = edgeCount;
+				if (i < block.length) {
+					for (int e = inHead[block[i]]; -1 != e; e = nextEdge[e]) order[edgeCount++] = e;
+				}
+			}
+			head[1 + 2*blockSize] = edgeCount;
+			nodeEdges[b] = head;
+		}
+		for (int id = 0; id < edges; ++id) fileEdgeID[order[id]] = id;
+
+		final long strideBlock = (1 + blockSize) * 8;
+		final long offsetNodeGeo = 4096;
+		final long offsetNodeEdges = GraphFile.align4k(offsetNodeGeo + blockCount * strideBlock);
+		final long offsetEdges = GraphFile.align4k(offsetNodeEdges + blockCount * strideBlock);
+		final long offsetEdgesDetails = GraphFile.align4k(offsetEdges + edges * 8L);
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64*1024));
+		try {
+			final int[] header = { 0x4348474F, 0x66665450, 1, minLon, minLat, cellWidth, cellHeight, gridWidth, gridHeight, blockSize, blockCount, coreBlock, edges };
+			for (final int v: header) out.writeInt(v);
+			long pos = pad(out, 4L * header.length, offsetNodeGeo);
+
+			for (int b = 0; b < blockCount; ++b) {
+				final int[] block = blocks.get(b);
+				out.writeInt(nextBlock[b]);
+				out.writeInt(block.length);
+				for (int i = 0; i < blockSize; ++i) {
+					out.writeInt(i < block.length ? lons.get(block[i]) : 0);
+					out.writeInt(i < block.length ? lats.get(block[i]) : 0);
+				}
+				pos += strideBlock;
+			}
+			pos = pad(out, pos, offsetNodeEdges);
+
+			for (int b = 0; b < blockCount; ++b) {
+				for (final int v: nodeEdges[b]) out.writeInt(v);
+				pos += strideBlock;
+			}
+			pos = pad(out, pos, offsetEdges);
+
+			for (final int e: order) {
+				final int from = edgeFrom.get(e), to = edgeTo.get(e);
+				final boolean stored = (core.get(from) && core.get(to)) || lower(from, to);
+				out.writeInt(nodeIDs[stored ? to : from]);
+				out.writeInt(edgeDist.get(e));
+			}
+			pos = pad(out, pos + edges * 8L, offsetEdgesDetails);
+
+			for (final int e: order) {
+				final int shortcut1 = edgeShortcut1.get(e), shortcut2 = edgeShortcut2.get(e);
+				out.writeInt(edgeEuclid.get(e));
+				if (-1 == shortcut1) {
+					out.writeInt(-1);
+					out.writeInt(-1);
+					out.writeInt(-1);
+				} else {
+					out.writeInt(fileEdgeID[shortcut1]);
+					out.writeInt(fileEdgeID[shortcut2]);
+					out.writeInt(nodeIDs[edgeTo.get(shortcut1)]);
+				}
+			}
+			pad(out, pos + edges * 16L, GraphFile.align4k(pos + edges * 16L));
+		} finally {
+			out.close();
+		}
+	}
+
+	/** up to blockSize nodes of list, starting at off */
+	private int[] slice(IntArrayList list, int off) {
+		final int[] block = new int[Math.max(0, Math.min(blockSize, list.size() - off))];
+		System.arraycopy(list.buffer, off, block, 0, block.length);
+		return block;
+	}
+
+	/** fill with zeros up to end */
+	private static long pad(DataOutputStream out, long pos, long end) throws IOException {
+		for (; pos < end; ++pos) out.write(0);
+		return pos;
+	}
+}
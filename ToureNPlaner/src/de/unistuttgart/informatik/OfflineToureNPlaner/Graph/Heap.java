@@ -23,10 +23,12 @@ import com.carrotsearch.hppc.ArraySizingStrategy;
 
 /**
  * provides heap structures for a minimum heap for ints
+ * <p>
+ * There is no decrease-key: as a {@link NodeQueue} each push adds a new entry.
  *
  * @author Stefan Bühler, Christoph Haag, Sascha Meusel, Niklas Schnelle, Peter Vollmer
  */
-public class Heap {
+public class Heap implements NodeQueue {
 	private static Logger log = Logger.getLogger("de.tourenplaner.algorithms");
 
 	/* Ternary heap structure.
@@ -220,6 +222,26 @@ public class Heap {
 		}
 	}
 
+	@Override
+	public final void push(int slot, int id, int dist) {
+		insert(id, dist);
+	}
+
+	@Override
+	public final boolean isIndexed() {
+		return false;
+	}
+
+	@Override
+	public final long memorySize() {
+		return 4L * heaparr.length;
+	}
+
+	@Override
+	public final void clear() {
+		resetHeap();
+	}
+
 	/**
 	 * resets heap
 	 */
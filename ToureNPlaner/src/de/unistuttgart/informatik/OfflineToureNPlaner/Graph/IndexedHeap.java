@@ -0,0 +1,163 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.util.Arrays;
+
+/**
+ * Minimum d-ary heap with decrease-key: each node has at most one entry, found
+ * through a slot -&gt; position array.
+ * <p>
+ * The position array isn't cleared; a position is only valid if the entry at
+ * that position belongs to the slot (like a sparse set), so {@link #clear()} is O(1).
+ */
+public final class IndexedHeap implements NodeQueue {
+	private static final int ARITY = 4;
+
+	/* heap entries */
+	private int[] ids;
+	private int[] dists;
+	private int[] slots;
+	private int size;
+
+	/** slot -> position in the heap arrays */
+	private int[] positions;
+
+	/**
+	 * @param initialCapacity number of entries (and slots) to reserve space for
+	 */
+	public IndexedHeap(int initialCapacity) {
+		initialCapacity = Math.max(16, initialCapacity);
+		ids = new int[initialCapacity];
+		dists = new int[initialCapacity];
+		slots = new int[initialCapacity];
+		positions = new int[initialCapacity];
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param slot
+	 * @return whether the node with the given slot is in the heap
+	 */
+	public boolean contains(int slot) {
+		if (slot >= positions.length) return false;
+		final int pos = positions[slot];
+		return pos < size && slots[pos] == slot;
+	}
+
+	@Override
+	public int peekMinId() {
+		assert size > 0;
+		return ids[0];
+	}
+
+	@Override
+	public int peekMinDist() {
+		assert size > 0;
+		return dists[0];
+	}
+
+	@Override
+	public void removeMin() {
+		assert size > 0;
+		--size;
+		if (size > 0) siftDown(0, ids[size], dists[size], slots[size]);
+	}
+
+	@Override
+	public void push(int slot, int id, int dist) {
+		if (contains(slot)) {
+			decreaseKey(slot, dist);
+			return;
+		}
+
+		if (size == ids.length) {
+			final int capacity = 2 * size;
+			ids = Arrays.copyOf(ids, capacity);
+			dists = Arrays.copyOf(dists, capacity);
+			slots = Arrays.copyOf(slots, capacity);
+		}
+		if (slot >= positions.length) positions = Arrays.copyOf(positions, Math.max(2 * positions.length, slot + 1));
+		siftUp(size++, id, dist, slot);
+	}
+
+	/**
+	 * Lower the distance of a node in the heap
+	 *
+	 * @param slot slot of a node {@link #contains(int) contained} in the heap
+	 * @param dist new distance; ignored if not smaller than the current one
+	 */
+	public void decreaseKey(int slot, int dist) {
+		assert contains(slot);
+		final int pos = positions[slot];
+		if (dist >= dists[pos]) return;
+		siftUp(pos, ids[pos], dist, slot);
+	}
+
+	/** move entry up from position pos (which is considered empty) */
+	private void siftUp(int pos, int id, int dist, int slot) {
+		while (pos > 0) {
+			final int parent = (pos - 1) / ARITY;
+			if (dists[parent] <= dist) break;
+			move(parent, pos);
+			pos = parent;
+		}
+		set(pos, id, dist, slot);
+	}
+
+	/** move entry down from position pos (which is considered empty) */
+	private void siftDown(int pos, int id, int dist, int slot) {
+		for (;;) {
+			final int firstChild = pos * ARITY + 1;
+			if (firstChild >= size) break;
+			final int lastChild = Math.min(firstChild + ARITY, size);
+
+			int minChild = firstChild;
+			for (int child = firstChild + 1; child < lastChild; ++child) {
+				if (dists[child] < dists[minChild]) minChild = child;
+			}
+			if (dists[minChild] >= dist) break;
+			move(minChild, pos);
+			pos = minChild;
+		}
+		set(pos, id, dist, slot);
+	}
+
+	private void move(int from, int to) {
+		ids[to] = ids[from];
+		dists[to] = dists[from];
+		slots[to] = slots[from];
+		positions[slots[to]] = to;
+	}
+
+	private void set(int pos, int id, int dist, int slot) {
+		ids[pos] = id;
+		dists[pos] = dist;
+		slots[pos] = slot;
+		positions[slot] = pos;
+	}
+
+	@Override
+	public boolean isIndexed() {
+		return true;
+	}
+
+	@Override
+	public long memorySize() {
+		return 4L * (3 * ids.length + positions.length);
+	}
+}
@@ -0,0 +1,87 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+import android.util.Log;
+
+/**
+ * Runs {@link IsochroneQuery}s from random points in the middle half of the
+ * graph's bounding box with the radius the app uses (see
+ * {@link de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineRoutingEngine#isochrone(Position, int)}).
+ * The graph should be about as dense as real roads (see
+ * {@link SyntheticGraphGenerator#SyntheticGraphGenerator(int, int, long, int, int)}).
+ */
+public class IsochroneBenchmark {
+	private static final int[] DEFAULT_MINUTES = { 10, 20, 30 };
+	private static final int SOURCES = 5;
+	/** seconds per unit of the edge distances, see {@link de.unistuttgart.informatik.OfflineToureNPlaner.Handler.OfflineRoutingEngine#travelTimeConstant} */
+	private static final double TRAVEL_TIME_CONSTANT = 0.02769230769230769230769230769230769;
+
+	/**
+	 * @param args graph file and optional the travel times in minutes
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("usage: IsochroneBenchmark <graph> [<minutes> ...]");
+			return;
+		}
+		int[] minutes = DEFAULT_MINUTES;
+		if (args.length > 1) {
+			minutes = new int[args.length - 1];
+			for (int k = 0; k < minutes.length; ++k) minutes[k] = Integer.parseInt(args[k + 1]);
+		}
+		try {
+			GraphReader reader = null;
+			try {
+				reader = new GraphReader(new File(args[0]));
+				reader.openNCache(16);
+				reader.openSpatialIndex();
+				final IsochroneQuery query = new IsochroneQuery(reader, reader.loadCoreGraph());
+
+				final Random random = new Random(42);
+				final Position[] points = new Position[SOURCES];
+				final long width = (long) reader.gridWidth * reader.cellWidth, height = (long) reader.gridHeight * reader.cellHeight;
+				for (int k = 0; k < SOURCES; ++k) {
+					points[k] = Position.fromE7((int) (reader.baseLat + (long) ((0.25 + random.nextDouble() / 2) * height)),
+							(int) (reader.baseLon + (long) ((0.25 + random.nextDouble() / 2) * width)));
+				}
+				final int[] sources = reader.findPoints(points);
+
+				for (final int m: minutes) {
+					final int seconds = 60 * m;
+					long totalTime = 0;
+					int queries = 0, failed = 0, reached = 0;
+					for (final int source: sources) {
+						if (-1 == source) continue;
+						++queries;
+						final long startTime = System.nanoTime();
+						try {
+							query.run(source, (int) (seconds / TRAVEL_TIME_CONSTANT), seconds * IsochroneQuery.MAX_SPEED);
+							reached += query.reached_nodes.size();
+						} catch (IOException e) {
+							Log.w("Offline TP", "isochrone failed: " + e.getMessage());
+							++failed;
+						}
+						totalTime += System.nanoTime() - startTime;
+					}
+					if (0 == queries) {
+						Log.e("Offline TP", "** Couldn't find nodes for the sources");
+						return;
+					}
+					Log.d("Offline TP", String.format("** %1$d min: %2$d queries (%3$d failed), %4$dms per query, %5$d nodes reached per query",
+							m, queries, failed, totalTime / 1000000 / queries, reached / Math.max(1, queries - failed)));
+				}
+				Log.d("Offline TP", "** reader caches: " + reader.cacheStatistics());
+			} finally {
+				if (reader != null) reader.close();
+			}
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+		} catch (InterruptedException e) {
+		}
+	}
+}
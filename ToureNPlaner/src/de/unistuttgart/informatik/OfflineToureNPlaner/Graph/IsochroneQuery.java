@@ -0,0 +1,383 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.util.Log;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Finds all nodes reachable from a source within a maximum path length.
+ * <p>
+ * The node ids of the graph file are not ordered by contraction level, so the
+ * downward edges can't be swept in level order (PHAST); instead the search is
+ * restricted to the nodes within a radius around the source (found with the
+ * {@link SpatialIndex}). A bounded Dijkstra runs on the upward graph of the
+ * source, the core and the incoming edges of the nodes in the radius (which
+ * are the downward edges of the contraction hierarchy), kept in compact arrays
+ * grouped by their upper node.
+ * <p>
+ * The search starts with a fraction of the maximum radius (which the caller
+ * derives from the maximum path length and the maximum speed) and grows the
+ * radius while a reached node lies close to its border or outside of it, so
+ * the work and the memory follow the area actually reached instead of the
+ * maximum radius. A shortest path leaving the final radius and coming back
+ * inside is not found (the node gets a longer path or isn't reached); only a
+ * search with the maximum radius is exact. See {@link #setMaxCandidates(int)}
+ * to limit the memory.
+ * <p>
+ * Not thread-safe; the instance can be reused.
+ */
+public final class IsochroneQuery {
+	static final boolean DEBUG = false;
+
+	/** length of one degree of latitude */
+	private static final double METERS_PER_DEGREE = 111320;
+
+	/** assumed maximum speed in m/s, to derive the maximum radius of a search from its maximum travel time */
+	public static final double MAX_SPEED = 150 / 3.6;
+
+	/** the first search uses this fraction of the maximum radius */
+	private static final double START_RADIUS_FRACTION = 0.25;
+	/** factor the radius grows by for the next search */
+	private static final double RADIUS_GROWTH = 1.5;
+	/** the radius is large enough if all reached nodes are within this fraction of it */
+	private static final double FRONTIER_FRACTION = 0.8;
+
+	/**
+	 * estimated heap used per node in the radius during {@link #run(int, int, double)}
+	 * (its entry in the sorted candidates, the start of its edges, the list the
+	 * spatial index search fills and the downward edges with three ints each;
+	 * about 69 bytes with five downward edges per node were measured on a
+	 * synthetic graph)
+	 */
+	public static final int CANDIDATE_HEAP_SIZE = 80;
+
+	private final GraphReader reader;
+	private final NestedGraph coreGraph;
+	private final DijkstraWorkspace workspace;
+	private int maxCandidates = Integer.MAX_VALUE;
+
+	/** nodes reached after {@link #run(int, int, double)}, in order of increasing distance */
+	public IntArrayList reached_nodes = new IntArrayList();
+	/** path lengths of {@link #reached_nodes} */
+	public IntArrayList reached_dists = new IntArrayList();
+	/** latitude/longitude pairs of {@link #reached_nodes} in degree*1E7 */
+	public IntArrayList reached_coords = new IntArrayList();
+
+	/** source of the last search, degree*1E7 */
+	private int sourceLat, sourceLon;
+
+	/* nodes in the current radius during run(): node id << 32 | index in the spatial index, sorted */
+	private long[] candidates;
+	/* candidates of block firstBlock+b start at blockStart[b] */
+	private int[] blockStart;
+	private int firstBlock;
+	/* downward edges by the position of their upper node in candidates: edges of k start at downFirst[k] */
+	private int[] downFirst;
+	/* (position of the lower node in candidates, dist, edge id) per downward edge */
+	private int[] downEdges;
+
+	/**
+	 * @param reader    reader with an {@link GraphReader#openSpatialIndex() opened spatial index}
+	 * @param coreGraph core graph loaded by reader
+	 */
+	public IsochroneQuery(GraphReader reader, NestedGraph coreGraph) {
+		this(reader, coreGraph, new DijkstraWorkspace());
+	}
+
+	/**
+	 * @param reader    reader with an {@link GraphReader#openSpatialIndex() opened spatial index}
+	 * @param coreGraph core graph loaded by reader
+	 * @param workspace storage for the search
+	 */
+	public IsochroneQuery(GraphReader reader, NestedGraph coreGraph, DijkstraWorkspace workspace) {
+		this.reader = reader;
+		this.coreGraph = coreGraph;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Limit the number of nodes in the radius: {@link #run(int, int, double)}
+	 * fails instead of reading the edges of more nodes.
+	 *
+	 * @param maxCandidates maximum number of nodes in the radius (see {@link #CANDIDATE_HEAP_SIZE})
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		this.maxCandidates = maxCandidates;
+	}
+
+	/**
+	 * Fill {@link #reached_nodes}, {@link #reached_dists} and {@link #reached_coords}
+	 *
+	 * @param source    node id
+	 * @param maxDist   maximum sum of the edge distances
+	 * @param maxRadius maximum euclid distance of the reachable nodes in meters
+	 * @throws IOException also if there are more nodes in the searched radius than allowed by {@link #setMaxCandidates(int)}
+	 * @throws InterruptedException
+	 */
+	public void run(int source, int maxDist, double maxRadius) throws IOException, InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		reached_nodes.clear();
+		reached_dists.clear();
+		reached_coords.clear();
+
+		final SpatialIndex index = reader.getSpatialIndex();
+		if (null == index) throw new IOException("isochrone needs the spatial index");
+
+		reader.directGeoLoad(source);
+		sourceLat = reader.directGeo_lat;
+		sourceLon = reader.directGeo_lon;
+
+		final NestedSimpleGraph upGraph = reader.createGraphWithoutCore(source, true);
+		upGraph.setParent(coreGraph);
+
+		try {
+			double radius = maxRadius * START_RADIUS_FRACTION;
+			int searches = 0;
+			for (;;) {
+				if (radius > maxRadius) radius = maxRadius;
+				++searches;
+				readCandidates(index, radius);
+				readDownwardEdges();
+				search(upGraph, source, maxDist);
+				if (radius == maxRadius || frontierInside(index, radius * FRONTIER_FRACTION)) break;
+				radius *= RADIUS_GROWTH;
+			}
+
+			// coordinates from the index (only nodes outside the radius have to be read)
+			reached_coords.resize(2 * reached_nodes.size());
+			for (int k = 0, count = reached_nodes.size(); k < count; ++k) {
+				final int node = reached_nodes.get(k);
+				final int pos = candidatePosition(node);
+				if (-1 != pos) {
+					final int c = (int) candidates[pos];
+					reached_coords.set(2*k, index.lat(c));
+					reached_coords.set(2*k+1, index.lon(c));
+				} else {
+					reader.directGeoLoad(node);
+					reached_coords.set(2*k, reader.directGeo_lat);
+					reached_coords.set(2*k+1, reader.directGeo_lon);
+				}
+			}
+
+			final long arraysSize = 8L * candidates.length + 4L * blockStart.length + 4L * downFirst.length + 4L * downEdges.length;
+			Log.d("Dijkstra", "<- reached " + reached_nodes.size() + " nodes, " + candidates.length + " in " + Math.round(radius / 1000) + "km radius ("
+					+ (downEdges.length / 3) + " downward edges, " + (arraysSize >> 10) + "kB, " + searches + " searches) in " + (System.currentTimeMillis() - startTime) + "ms");
+		} finally {
+			candidates = null;
+			blockStart = null;
+			downFirst = null;
+			downEdges = null;
+		}
+	}
+
+	/**
+	 * Fill {@link #candidates} with the nodes within radius of the source
+	 *
+	 * @param radius in meters
+	 */
+	private void readCandidates(SpatialIndex index, double radius) throws IOException {
+		// drop the arrays of the last search before the new ones are built
+		candidates = null;
+		blockStart = null;
+		downFirst = null;
+		downEdges = null;
+
+		final IntArrayList found = new IntArrayList();
+		if (!index.within(sourceLon, sourceLat, radius / METERS_PER_DEGREE * 1E7, found, maxCandidates)) {
+			throw new IOException("isochrone area too large: more than " + maxCandidates + " nodes within " + Math.round(radius / 1000) + "km");
+		}
+		final long[] sorted = new long[found.size()];
+		for (int k = 0; k < sorted.length; ++k) {
+			final int c = found.get(k);
+			sorted[k] = ((long) index.nodeID(c) << 32) | c;
+		}
+		// sorted by id, so the edges are read in file order
+		Arrays.sort(sorted);
+		candidates = sorted;
+
+		// the candidates are close to each other, so they are in few blocks
+		final int count = sorted.length;
+		firstBlock = (count > 0) ? (int) (sorted[0] >>> 32) >>> 10 : 0;
+		final int blocks = (count > 0) ? ((int) (sorted[count-1] >>> 32) >>> 10) - firstBlock + 1 : 0;
+		final int[] start = new int[blocks + 1];
+		for (int k = 0, b = 0; b <= blocks; ++b) {
+			while (k < count && ((int) (sorted[k] >>> 32) >>> 10) - firstBlock < b) ++k;
+			start[b] = k;
+		}
+		blockStart = start;
+	}
+
+	/**
+	 * @return position of node in {@link #candidates}, or -1 if it isn't in the radius
+	 */
+	private int candidatePosition(int node) {
+		final int b = (node >>> 10) - firstBlock;
+		if (b < 0 || b >= blockStart.length - 1) return -1;
+		final int end = blockStart[b+1];
+		// the entries of node are greater than this key, the entries of smaller nodes aren't
+		final int pos = -1 - Arrays.binarySearch(candidates, blockStart[b], end, ((long) node << 32) - 1);
+		return (pos < end && (int) (candidates[pos] >>> 32) == node) ? pos : -1;
+	}
+
+	/**
+	 * Read the incoming edges of the candidates whose upper node is a candidate
+	 * too into {@link #downFirst} and {@link #downEdges}: the edges are counted
+	 * in a first pass over the file, and read again into their place in a
+	 * second pass (the pages are still cached), so no temporary lists are needed.
+	 */
+	private void readDownwardEdges() throws IOException, InterruptedException {
+		final long[] candidates = this.candidates;
+		final int count = candidates.length;
+		final int[] first = new int[count + 1];
+		final GraphReader.NodeEdgesIterator i = reader.new NodeEdgesIterator();
+		for (int k = 0; k < count; ++k) {
+			final int node = (int) (candidates[k] >>> 32);
+			if ((node >>> 10) >= reader.coreBlock) continue; // edges between core nodes are in the core graph
+			i.load(node, false);
+			while (i.next()) {
+				final int upper = candidatePosition(i.edgePeer);
+				if (-1 != upper) ++first[upper];
+			}
+		}
+		// first[k]: end of the edges of k; decremented to their start while they are placed
+		for (int k = 1; k < count; ++k) first[k] += first[k-1];
+		final int edgeCount = (count > 0) ? first[count-1] : 0;
+		first[count] = edgeCount;
+
+		final int[] edges = new int[3 * edgeCount];
+		for (int k = 0; k < count; ++k) {
+			final int node = (int) (candidates[k] >>> 32);
+			if ((node >>> 10) >= reader.coreBlock) continue;
+			i.load(node, false);
+			while (i.next()) {
+				final int upper = candidatePosition(i.edgePeer);
+				if (-1 == upper) continue;
+				final int e = 3 * --first[upper];
+				edges[e] = k;
+				edges[e+1] = i.edgeDist;
+				edges[e+2] = i.edgeID;
+			}
+		}
+		downFirst = first;
+		downEdges = edges;
+	}
+
+	/**
+	 * Bounded Dijkstra on the upward graph of the source (with the core) and
+	 * the downward edges of the candidates; fills {@link #reached_nodes} and
+	 * {@link #reached_dists}
+	 */
+	private void search(NestedGraph upGraph, int source, int maxDist) throws InterruptedException {
+		if (Thread.interrupted()) throw new InterruptedException();
+		reached_nodes.clear();
+		reached_dists.clear();
+
+		final DijkstraWorkspace ws = workspace;
+		ws.reset();
+		final NodeQueue queue = ws.queue;
+		final int startSlot = ws.add(source);
+		ws.set(startSlot, 0, -1, -1);
+		queue.push(startSlot, source, 0);
+
+		final NestedGraphEdgeIterator iterator = ws.iterator;
+		final long[] candidates = this.candidates;
+		final int[] first = downFirst, edges = downEdges;
+		while (!queue.isEmpty()) {
+			final int nodeId = queue.peekMinId();
+			final int nodeDist = queue.peekMinDist();
+			queue.removeMin();
+			if (nodeDist > ws.dist(ws.slot(nodeId))) continue; // outdated entry of a lazy heap
+
+			reached_nodes.add(nodeId);
+			reached_dists.add(nodeDist);
+
+			iterator.load(upGraph, nodeId);
+			while (iterator.next()) {
+				final int nextDist = nodeDist + iterator.dist;
+				if (nextDist > maxDist) continue;
+				final int slot = ws.add(iterator.target);
+				if (nextDist < ws.dist(slot)) {
+					ws.set(slot, nextDist, nodeId, iterator.edgeid);
+					queue.push(slot, iterator.target, nextDist);
+				}
+			}
+
+			final int pos = candidatePosition(nodeId);
+			if (-1 == pos) continue;
+			for (int e = 3 * first[pos], end = 3 * first[pos+1]; e < end; e += 3) {
+				final int nextDist = nodeDist + edges[e+1];
+				if (nextDist > maxDist) continue;
+				final int target = (int) (candidates[edges[e]] >>> 32);
+				final int slot = ws.add(target);
+				if (nextDist < ws.dist(slot)) {
+					ws.set(slot, nextDist, nodeId, edges[e+2]);
+					queue.push(slot, target, nextDist);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param limit distance in meters
+	 * @return whether all reached nodes are candidates within limit of the source
+	 */
+	private boolean frontierInside(SpatialIndex index, double limit) {
+		final double scale = Math.cos(Math.toRadians(sourceLat * 1E-7));
+		final double maxDegrees = limit / METERS_PER_DEGREE * 1E7;
+		for (int k = 0, count = reached_nodes.size(); k < count; ++k) {
+			final int pos = candidatePosition(reached_nodes.get(k));
+			if (-1 == pos) return false;
+			final int c = (int) candidates[pos];
+			final double dLat = (double) index.lat(c) - sourceLat;
+			final double dLon = ((double) index.lon(c) - sourceLon) * scale;
+			if (dLat * dLat + dLon * dLon > maxDegrees * maxDegrees) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Approximate outline of the reached nodes: the source is the center of
+	 * {@code sectors} equal angular sectors, and the ring connects the nodes
+	 * farthest from the source in each sector (sectors without nodes are
+	 * skipped).
+	 * <p>
+	 * This is not a concave hull: the ring goes around the source in angular
+	 * order (it is star-shaped around the source), so it can dent in between
+	 * two sectors, but it covers unreached areas closer to the source than the
+	 * farthest node of their sector (for example a lake or a valley without
+	 * roads), and it can cut off reached nodes between two sectors.
+	 *
+	 * @param sectors number of sectors
+	 * @return closed ring of latitude/longitude pairs in degree*1E7 (the first point is repeated at the end); empty if nothing was reached
+	 */
+	public int[] starOutline(int sectors) {
+		final double scale = Math.cos(Math.toRadians(sourceLat * 1E-7));
+		final int[] farthest = new int[sectors];
+		final double[] farthestDist = new double[sectors];
+		Arrays.fill(farthest, -1);
+
+		final int[] coords = reached_coords.buffer;
+		for (int k = 0, count = reached_nodes.size(); k < count; ++k) {
+			final double dLat = (double) coords[2*k] - sourceLat;
+			final double dLon = ((double) coords[2*k+1] - sourceLon) * scale;
+			final double dist = dLat * dLat + dLon * dLon;
+			int sector = (int) ((Math.atan2(dLat, dLon) + Math.PI) / (2 * Math.PI) * sectors);
+			if (sector >= sectors) sector = sectors - 1;
+			if (dist >= farthestDist[sector]) {
+				farthestDist[sector] = dist;
+				farthest[sector] = k;
+			}
+		}
+
+		final IntArrayList ring = new IntArrayList(2 * sectors + 2);
+		for (final int k: farthest) {
+			if (-1 == k) continue;
+			ring.add(coords[2*k], coords[2*k+1]);
+		}
+		if (!ring.isEmpty()) ring.add(ring.get(0), ring.get(1));
+		return ring.toArray();
+	}
+}
@@ -0,0 +1,68 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+import android.util.Log;
+
+/**
+ * Compares {@link ManyToManyQuery} tables for 10, 50 and 100 random points
+ * with one {@link Dijkstra} query per pair.
+ */
+public class ManyToManyBenchmark {
+	private static final int[] SIZES = { 10, 50, 100 };
+
+	/**
+	 * @param args graph file, latitude and longitude (degree*1E6) of the center
+	 *   and radius (degree*1E6) of the area to pick the points in
+	 */
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.err.println("usage: ManyToManyBenchmark <graph> <latE6> <lonE6> <radiusE6>");
+			return;
+		}
+		final int lat = Integer.parseInt(args[1]), lon = Integer.parseInt(args[2]), radius = Integer.parseInt(args[3]);
+		final Random random = new Random(42);
+		try {
+			GraphReader reader = null;
+			try {
+				reader = new GraphReader(new File(args[0]));
+				reader.openNCache(16);
+				reader.openSpatialIndex();
+				final NestedGraph coreGraph = reader.loadCoreGraph();
+				final ManyToManyQuery table = new ManyToManyQuery(reader, coreGraph);
+
+				for (final int size: SIZES) {
+					final Position[] points = new Position[size];
+					for (int k = 0; k < size; ++k) {
+						points[k] = Position.fromE6(lat + random.nextInt(2 * radius + 1) - radius, lon + random.nextInt(2 * radius + 1) - radius);
+					}
+					final int[] nodes = reader.findPoints(points);
+
+					long startTime = System.currentTimeMillis();
+					final int[] dists = table.run(nodes, nodes);
+					final long tableTime = System.currentTimeMillis() - startTime;
+
+					startTime = System.currentTimeMillis();
+					int mismatches = 0;
+					for (int s = 0; s < size; ++s) {
+						for (int t = 0; t < size; ++t) {
+							if (Dijkstra.nestedPathLength(reader, coreGraph, nodes[s], nodes[t]) != dists[s * size + t]) ++mismatches;
+						}
+					}
+					final long pairTime = System.currentTimeMillis() - startTime;
+
+					Log.d("Offline TP", String.format("** %1$dx%1$d: table %2$dms, pairwise %3$dms, %4$d mismatches", size, tableTime, pairTime, mismatches));
+				}
+			} finally {
+				if (reader != null) reader.close();
+			}
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+		} catch (InterruptedException e) {
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.IOException;
+
+import android.util.Log;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+
+/**
+ * Calculates the shortest path lengths between many sources and many
+ * targets with buckets:
+ * <ul>
+ * <li>for each target a backward search on the reversed upward graph of the
+ * target (as built by {@link GraphReader#createGraphWithoutCore(int, boolean)})
+ * stores (target, distance) in the bucket of every node it settles; the
+ * search ends at the core nodes</li>
+ * <li>for each source a forward search on the upward graph of the source and
+ * the core scans the buckets of the nodes it settles</li>
+ * </ul>
+ * Every shortest path leaves the upward graph of its target at its highest
+ * node (or the last core node on it), where the forward search finds the bucket
+ * entry; so the results are the same as for {@link Dijkstra}.
+ * <p>
+ * Not thread-safe; the instance can be reused for several tables.
+ */
+public final class ManyToManyQuery {
+	static final boolean DEBUG = false;
+
+	/** path length for pairs without a path */
+	public static final int NO_PATH = -1;
+
+	private final GraphReader reader;
+	private final NestedGraph coreGraph;
+	private final DijkstraWorkspace workspace;
+
+	/** node => 1 + index of the first entry in {@link #bucketEntries} */
+	private final IntIntOpenHashMap bucketHeads = new IntIntOpenHashMap();
+	/** bucket entries (target index, distance, 1 + index of the next entry of the same node) */
+	private final IntArrayList bucketEntries = new IntArrayList();
+
+	/**
+	 * @param reader    reader to build the upward graphs with
+	 * @param coreGraph core graph loaded by reader
+	 */
+	public ManyToManyQuery(GraphReader reader, NestedGraph coreGraph) {
+		this(reader, coreGraph, new DijkstraWorkspace());
+	}
+
+	/**
+	 * @param reader    reader to build the upward graphs with
+	 * @param coreGraph core graph loaded by reader
+	 * @param workspace storage for the searches
+	 */
+	public ManyToManyQuery(GraphReader reader, NestedGraph coreGraph, DijkstraWorkspace workspace) {
+		this.reader = reader;
+		this.coreGraph = coreGraph;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Calculate the lengths of the shortest paths from each source to each target
+	 *
+	 * @param sources node ids (-1 entries have no path)
+	 * @param targets node ids (-1 entries have no path)
+	 * @return matrix (row per source) with the sums of the edge distances, or {@link #NO_PATH}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int[] run(int[] sources, int[] targets) throws IOException, InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		final int[] table = new int[sources.length * targets.length];
+		java.util.Arrays.fill(table, Integer.MAX_VALUE);
+
+		bucketHeads.clear();
+		bucketEntries.clear();
+		for (int t = 0; t < targets.length; ++t) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			if (-1 != targets[t]) fillBuckets(t, targets[t]);
+		}
+		if (DEBUG) Log.d("Dijkstra", "-- " + bucketEntries.size() / 3 + " bucket entries at " + bucketHeads.size() + " nodes");
+
+		for (int s = 0; s < sources.length; ++s) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			if (-1 != sources[s]) scanBuckets(sources[s], table, s * targets.length, targets.length);
+		}
+
+		for (int i = 0; i < table.length; ++i) {
+			if (Integer.MAX_VALUE == table[i]) table[i] = NO_PATH;
+		}
+
+		bucketHeads.clear();
+		bucketEntries.clear();
+		Log.d("Dijkstra", "<- " + sources.length + "x" + targets.length + " table in " + (System.currentTimeMillis() - startTime) + "ms");
+		return table;
+	}
+
+	/**
+	 * backward search from target; adds an entry to the buckets of all settled nodes
+	 */
+	private void fillBuckets(int t, int target) throws IOException, InterruptedException {
+		final NestedSimpleGraph graph = reader.createGraphWithoutCore(target, false).reversed();
+		final DijkstraWorkspace ws = workspace;
+		ws.reset();
+
+		final NodeQueue queue = ws.queue;
+		final int startSlot = ws.add(target);
+		ws.set(startSlot, 0, -1, -1);
+		queue.push(startSlot, target, 0);
+
+		final NestedGraphEdgeIterator iterator = ws.iterator;
+		while (!queue.isEmpty()) {
+			final int nodeId = queue.peekMinId();
+			final int nodeDist = queue.peekMinDist();
+			queue.removeMin();
+			if (nodeDist > ws.dist(ws.slot(nodeId))) continue; // outdated entry of a lazy heap
+
+			final int entry = bucketEntries.size();
+			bucketEntries.add(t, nodeDist);
+			bucketEntries.add(bucketHeads.containsKey(nodeId) ? bucketHeads.lget() : 0);
+			bucketHeads.put(nodeId, entry + 1);
+
+			iterator.load(graph, nodeId);
+			while (iterator.next()) {
+				final int nextDist = nodeDist + iterator.dist;
+				final int slot = ws.add(iterator.target);
+				if (nextDist < ws.dist(slot)) {
+					ws.set(slot, nextDist, nodeId, iterator.edgeid);
+					queue.push(slot, iterator.target, nextDist);
+				}
+			}
+		}
+	}
+
+	/**
+	 * forward search from source; updates the row of source with the bucket entries of all settled nodes
+	 */
+	private void scanBuckets(int source, int[] table, int row, int targets) throws IOException, InterruptedException {
+		final NestedSimpleGraph graph = reader.createGraphWithoutCore(source, true);
+		graph.setParent(coreGraph);
+		final DijkstraWorkspace ws = workspace;
+		ws.reset();
+
+		final NodeQueue queue = ws.queue;
+		final int startSlot = ws.add(source);
+		ws.set(startSlot, 0, -1, -1);
+		queue.push(startSlot, source, 0);
+
+		final int[] entries = bucketEntries.buffer;
+		// no target can get a shorter path once the settled distance reaches the longest path found so far
+		int bound = Integer.MAX_VALUE;
+		final NestedGraphEdgeIterator iterator = ws.iterator;
+		while (!queue.isEmpty()) {
+			final int nodeId = queue.peekMinId();
+			final int nodeDist = queue.peekMinDist();
+			queue.removeMin();
+			if (nodeDist >= bound) break;
+			if (nodeDist > ws.dist(ws.slot(nodeId))) continue; // outdated entry of a lazy heap
+
+			if (bucketHeads.containsKey(nodeId)) {
+				boolean improved = false;
+				for (int e = bucketHeads.lget(); 0 != e; e = entries[e+1]) {
+					final int cell = row + entries[e-1];
+					final int dist = nodeDist + entries[e];
+					if (dist < table[cell]) {
+						table[cell] = dist;
+						improved = true;
+					}
+				}
+				if (improved) {
+					bound = 0;
+					for (int t = row; t < row + targets; ++t) bound = Math.max(bound, table[t]);
+				}
+			}
+
+			iterator.load(graph, nodeId);
+			while (iterator.next()) {
+				final int nextDist = nodeDist + iterator.dist;
+				final int slot = ws.add(iterator.target);
+				if (nextDist < ws.dist(slot)) {
+					ws.set(slot, nextDist, nodeId, iterator.edgeid);
+					queue.push(slot, iterator.target, nextDist);
+				}
+			}
+		}
+	}
+}
@@ -1,31 +1,84 @@
 package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
 
 public final class NestedCompactCoreGraph extends NestedGraph {
-	private final int coreBlock;
-	private final int blockSize;
-	private final int firstEdgeID;
-	private final int[] edgesIndex;
-	private final int[] edgeDetails;
+	/* package-private for CompactQueryGraph */
+	final int coreBlock;
+	final int blockSize;
+	final int firstEdgeID;
+	/** first edge per core node (index: (block - coreBlock) * blockSize + node in block), followed by the end */
+	final int[] edgesIndex;
+	/** (target, dist) per edge */
+	final int[] edgeDetails;
+	/** edge ids if the edges aren't stored in edge id order (null: edge ids are consecutive starting at firstEdgeID) */
+	final int[] edgeIDs;
 
 	/**
 	 * Create graph without parent
 	 */
 	public NestedCompactCoreGraph(int coreBlock, int blockSize, int firstEdgeID, int[] edgesIndex, int[] edgeDetails) {
-		super();
+		this(coreBlock, blockSize, firstEdgeID, edgesIndex, edgeDetails, (NestedGraph) null);
+	}
+
+	public NestedCompactCoreGraph(int coreBlock, int blockSize, int firstEdgeID, int[] edgesIndex, int[] edgeDetails, NestedGraph parent) {
+		super(parent);
 		this.coreBlock = coreBlock;
 		this.blockSize = blockSize;
 		this.firstEdgeID = firstEdgeID;
 		this.edgesIndex = edgesIndex;
 		this.edgeDetails = edgeDetails;
+		this.edgeIDs = null;
 	}
 
-	public NestedCompactCoreGraph(int coreBlock, int blockSize, int firstEdgeID, int[] edgesIndex, int[] edgeDetails, NestedGraph parent) {
-		super(parent);
+	private NestedCompactCoreGraph(int coreBlock, int blockSize, int[] edgesIndex, int[] edgeDetails, int[] edgeIDs) {
+		super();
 		this.coreBlock = coreBlock;
 		this.blockSize = blockSize;
-		this.firstEdgeID = firstEdgeID;
+		this.firstEdgeID = 0;
 		this.edgesIndex = edgesIndex;
 		this.edgeDetails = edgeDetails;
+		this.edgeIDs = edgeIDs;
+	}
+
+	/**
+	 * @return number of bytes {@link #reversed()} needs on the heap
+	 */
+	public long reversedHeapSize() {
+		return 4L * edgesIndex.length + 6L * edgeDetails.length;
+	}
+
+	/**
+	 * Create the transposed core graph (without parent): for each core node it
+	 * lists the incoming edges, with the edge source as target. Edge ids and
+	 * distances are kept.
+	 */
+	public NestedCompactCoreGraph reversed() {
+		final int nodes = edgesIndex.length - 1;
+		final int edges = edgesIndex[nodes];
+		final int[] revIndex = new int[nodes+1];
+		final int[] revDetails = new int[2*edges];
+		final int[] revIDs = new int[edges];
+
+		// count incoming edges, then calculate list starts
+		for (int e = 0; e < edges; ++e) {
+			final int target = edgeDetails[2*e];
+			assert (target >>> 10) >= coreBlock : "core edge to non core node";
+			++revIndex[((target >>> 10) - coreBlock) * blockSize + (target & 1023) + 1];
+		}
+		for (int ndx = 0; ndx < nodes; ++ndx) revIndex[ndx+1] += revIndex[ndx];
+
+		final int[] fill = java.util.Arrays.copyOf(revIndex, nodes);
+		for (int ndx = 0; ndx < nodes; ++ndx) {
+			final int source = ((coreBlock + ndx / blockSize) << 10) | (ndx % blockSize);
+			for (int e = edgesIndex[ndx]; e < edgesIndex[ndx+1]; ++e) {
+				final int target = edgeDetails[2*e];
+				final int pos = fill[((target >>> 10) - coreBlock) * blockSize + (target & 1023)]++;
+				revDetails[2*pos] = source;
+				revDetails[2*pos+1] = edgeDetails[2*e+1];
+				revIDs[pos] = firstEdgeID + e;
+			}
+		}
+
+		return new NestedCompactCoreGraph(coreBlock, blockSize, revIndex, revDetails, revIDs);
 	}
 
 	@Override
@@ -48,7 +101,7 @@ public final class NestedCompactCoreGraph extends NestedGraph {
 		int edge = iterator.curEdge;
 		if (edge >= iterator.lastEdge) return false;
 
-		iterator.edgeid = firstEdgeID + (edge / 2);
+		iterator.edgeid = (null == edgeIDs) ? firstEdgeID + (edge / 2) : edgeIDs[edge / 2];
 		iterator.target = edgeDetails[edge++];
 		iterator.dist = edgeDetails[edge++];
 		iterator.curEdge = edge;
@@ -0,0 +1,65 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.nio.IntBuffer;
+
+/**
+ * Core graph reading the edges directly from the mapped graph file;
+ * same iteration contract as {@link NestedCompactCoreGraph}, but without
+ * copying the core edges to the heap.
+ */
+public final class NestedMappedCoreGraph extends NestedGraph {
+	private final int coreBlock;
+	private final int blockSize;
+	private final int coreBlocks;
+	private final int firstEdgeID;
+	/** "node edges" section of the core blocks: per block a reserved int, followed by (out, in) start indices per node and the end marker */
+	private final IntBuffer nodeEdges;
+	/** (peer, dist) for each core edge, starting with edge {@link #firstEdgeID} */
+	private final IntBuffer edges;
+	private final int nodeEdgesBlockStride;
+
+	/**
+	 * Create graph without parent
+	 */
+	public NestedMappedCoreGraph(int coreBlock, int blockSize, int coreBlocks, int firstEdgeID, IntBuffer nodeEdges, IntBuffer edges) {
+		super();
+		this.coreBlock = coreBlock;
+		this.blockSize = blockSize;
+		this.coreBlocks = coreBlocks;
+		this.firstEdgeID = firstEdgeID;
+		this.nodeEdges = nodeEdges;
+		this.edges = edges;
+		this.nodeEdgesBlockStride = 2 * (1 + blockSize);
+	}
+
+	@Override
+	boolean start(NestedGraphEdgeIterator iterator, int node) {
+		final int ndx = node & 1023;
+		if (ndx >= blockSize) return false;
+		final int block = (node >>> 10) - coreBlock;
+		if (block < 0 || block >= coreBlocks) return false;
+		// core nodes have no incoming edges, so the "in" start index marks the end of the outgoing edges
+		final int head = block * nodeEdgesBlockStride + 1 + 2 * ndx;
+		final int firstEdge = nodeEdges.get(head) - firstEdgeID;
+		final int lastEdge = nodeEdges.get(head + 1) - firstEdgeID;
+		if (firstEdge >= lastEdge) return false;
+
+		iterator.curEdge = firstEdge * 2;
+		iterator.lastEdge = lastEdge * 2;
+
+		return next(iterator);
+	}
+
+	@Override
+	boolean next(NestedGraphEdgeIterator iterator) {
+		int edge = iterator.curEdge;
+		if (edge >= iterator.lastEdge) return false;
+
+		iterator.edgeid = firstEdgeID + (edge / 2);
+		iterator.target = edges.get(edge++);
+		iterator.dist = edges.get(edge++);
+		iterator.curEdge = edge;
+
+		return true;
+	}
+}
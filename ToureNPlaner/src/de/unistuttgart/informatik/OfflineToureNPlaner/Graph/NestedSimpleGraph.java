@@ -1,17 +1,96 @@
 package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
 
 import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntOpenHashMap;
 import com.carrotsearch.hppc.IntObjectOpenHashMap;
 
+/**
+ * Graph storing the local edges either in one list per node (graphs created
+ * with a constructor, modified with {@link #addEdge(int, int, int, int)}), or
+ * packed into a single array (graphs created by a {@link Builder}; these can't
+ * be modified).
+ */
 public final class NestedSimpleGraph extends NestedGraph {
-	/** (local) outgoing edges for a node */
-	private final IntObjectOpenHashMap<IntArrayList> outEdges = new IntObjectOpenHashMap<IntArrayList>();
+	/** (local) outgoing edges for a node; null for packed graphs */
+	private final IntObjectOpenHashMap<IntArrayList> outEdges;
+
+	/* packed graphs: node -> row, (target, dist, edgeid) triples of row r start at packedOffsets[r] */
+	private final IntIntOpenHashMap packedRows;
+	private final int[] packedNodes;
+	private final int[] packedOffsets;
+	private final int[] packedEdges;
+
+	/**
+	 * Collects edges and creates a packed graph (without parent) from them; in
+	 * contrast to {@link NestedSimpleGraph#addEdge(int, int, int, int)} this
+	 * doesn't need an object per node.
+	 */
+	public static final class Builder {
+		private IntIntOpenHashMap rows = new IntIntOpenHashMap();
+		private final IntArrayList nodes = new IntArrayList();
+		private final IntArrayList counts = new IntArrayList();
+		/** (row, target, dist, edgeid) per edge */
+		private final IntArrayList edges = new IntArrayList();
+
+		public void addEdge(int source, int target, int dist, int edgeid) {
+			final int row;
+			if (rows.containsKey(source)) {
+				row = rows.lget();
+				++counts.buffer[row];
+			} else {
+				row = nodes.size();
+				rows.put(source, row);
+				nodes.add(source);
+				counts.add(1);
+			}
+			edges.add(row, target);
+			edges.add(dist, edgeid);
+		}
+
+		/**
+		 * @return number of edges added since the last {@link #build()}
+		 */
+		public int size() {
+			return edges.size() / 4;
+		}
+
+		/**
+		 * Create the packed graph from all edges added since the last build;
+		 * the edges of a node keep the order they were added in.
+		 */
+		public NestedSimpleGraph build() {
+			final int rowCount = nodes.size();
+			final int[] offsets = new int[rowCount + 1];
+			for (int r = 0; r < rowCount; ++r) offsets[r+1] = offsets[r] + 3 * counts.get(r);
+
+			final int[] data = new int[offsets[rowCount]];
+			final int[] fill = java.util.Arrays.copyOf(offsets, rowCount);
+			final int[] buffer = edges.buffer;
+			for (int i = 0, end = edges.size(); i < end; i += 4) {
+				int pos = fill[buffer[i]];
+				data[pos++] = buffer[i+1];
+				data[pos++] = buffer[i+2];
+				data[pos++] = buffer[i+3];
+				fill[buffer[i]] = pos;
+			}
+
+			final NestedSimpleGraph graph = new NestedSimpleGraph(rows, nodes.toArray(), offsets, data);
+			rows = new IntIntOpenHashMap(); // owned by the graph now
+			nodes.clear();
+			counts.clear();
+			edges.clear();
+			return graph;
+		}
+	}
 
 	/**
 	 * Create empty graph without parent
 	 */
 	public NestedSimpleGraph() {
 		super();
+		outEdges = new IntObjectOpenHashMap<IntArrayList>();
+		packedRows = null;
+		packedNodes = packedOffsets = packedEdges = null;
 	}
 
 	/**
@@ -21,9 +100,29 @@ public final class NestedSimpleGraph extends NestedGraph {
 	 */
 	public NestedSimpleGraph(NestedGraph parent) {
 		super(parent);
+		outEdges = new IntObjectOpenHashMap<IntArrayList>();
+		packedRows = null;
+		packedNodes = packedOffsets = packedEdges = null;
+	}
+
+	private NestedSimpleGraph(IntIntOpenHashMap rows, int[] nodes, int[] offsets, int[] edges) {
+		super();
+		outEdges = null;
+		packedRows = rows;
+		packedNodes = nodes;
+		packedOffsets = offsets;
+		packedEdges = edges;
+	}
+
+	/**
+	 * @return whether the graph was created by a {@link Builder} (and can't be modified)
+	 */
+	public boolean isPacked() {
+		return null == outEdges;
 	}
 
 	public void prepareNode(int source, int outgoing_edges) {
+		if (isPacked()) throw new IllegalStateException("packed graph can't be modified");
 		if (!outEdges.containsKey(source)) {
 			IntArrayList outAdd = new IntArrayList(outgoing_edges * 3);
 			outEdges.put(source, outAdd);
@@ -42,6 +141,7 @@ public final class NestedSimpleGraph extends NestedGraph {
 	 * @param edgeid
 	 */
 	public void addEdge(int source, int target, int dist, int edgeid) {
+		if (isPacked()) throw new IllegalStateException("packed graph can't be modified");
 		IntArrayList outAdd;
 		if (!outEdges.containsKey(source)) {
 			outAdd = new IntArrayList();
@@ -55,36 +155,78 @@ public final class NestedSimpleGraph extends NestedGraph {
 	}
 
 	/**
-	 * (package) internal method for the {@link NestedGraphEdgeIterator iterator} to
-	 * have access to the edges lists.
-	 * <p>
-	 * It doesn't use the parent graph - this is only about the local edges list.
+	 * Create a new packed graph (without parent) containing the local edges of
+	 * this graph in reverse direction; distances and edge ids are kept.
+	 */
+	public NestedSimpleGraph reversed() {
+		final Builder reverse = new Builder();
+		final NestedGraphEdgeIterator i = new NestedGraphEdgeIterator();
+		for (final int node: nodes()) {
+			for (boolean more = start(i, node); more; more = next(i)) {
+				reverse.addEdge(i.target, node, i.dist, i.edgeid);
+			}
+		}
+		return reverse.build();
+	}
+
+	/**
+	 * (package) internal method to list the nodes with local edges
 	 *
-	 * @param node the node to get the outgoing edges for
-	 * @return null if this graph has no edges for the node, or the edges list.
+	 * @return node ids (must not be modified)
 	 */
-	IntArrayList edges(int node) {
-		if(!outEdges.containsKey(node)){
-			return null;
-		} else {
-			return outEdges.lget();
+	int[] nodes() {
+		return isPacked() ? packedNodes : outEdges.keys().toArray();
+	}
+
+	/**
+	 * (package) internal method to count the local edges of a node; doesn't use
+	 * the parent graph.
+	 *
+	 * @return number of local outgoing edges of node
+	 */
+	int edgeCount(int node) {
+		if (isPacked()) {
+			if (!packedRows.containsKey(node)) return 0;
+			final int row = packedRows.lget();
+			return (packedOffsets[row+1] - packedOffsets[row]) / 3;
 		}
+		return outEdges.containsKey(node) ? outEdges.lget().size() / 3 : 0;
 	}
 
 	@Override
 	boolean start(NestedGraphEdgeIterator iterator, int node) {
-		if(!outEdges.containsKey(node)) return false;
+		if (isPacked()) {
+			if (!packedRows.containsKey(node)) return false;
+			final int row = packedRows.lget();
+			iterator.edges = null;
+			iterator.curEdge = packedOffsets[row];
+			iterator.lastEdge = packedOffsets[row+1];
+		} else {
+			if(!outEdges.containsKey(node)) return false;
 
-		iterator.edges = outEdges.lget();
-		iterator.curEdge = 0;
+			iterator.edges = outEdges.lget();
+			iterator.curEdge = 0;
+		}
 
 		return next(iterator);
 	}
 
 	@Override
 	boolean next(NestedGraphEdgeIterator iterator) {
-		final IntArrayList edges = iterator.edges;
 		int edge = iterator.curEdge;
+		if (isPacked()) {
+			if (edge >= iterator.lastEdge) return false;
+			final int[] edges = packedEdges;
+
+			iterator.target = edges[edge++];
+			iterator.dist = edges[edge++];
+			iterator.edgeid = edges[edge++];
+			iterator.curEdge = edge;
+
+			return true;
+		}
+
+		final IntArrayList edges = iterator.edges;
 		if (edge >= edges.size()) return false;
 
 		iterator.target = edges.get(edge++);
@@ -0,0 +1,56 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+/**
+ * Priority queue of nodes for shortest path searches, ordered by distance.
+ * <p>
+ * Nodes are identified by their node id and a dense index (the
+ * {@link DijkstraWorkspace} slot) used by indexed implementations to find the
+ * queue entry of a node.
+ *
+ * @see DijkstraWorkspace.QueueType
+ */
+public interface NodeQueue {
+	/**
+	 * remove all entries
+	 */
+	void clear();
+
+	boolean isEmpty();
+
+	/**
+	 * @return node id of the entry with the smallest distance
+	 */
+	int peekMinId();
+
+	/**
+	 * @return smallest distance in the queue
+	 */
+	int peekMinDist();
+
+	/**
+	 * remove the entry with the smallest distance
+	 */
+	void removeMin();
+
+	/**
+	 * Insert a node, or lower its distance if it is already queued.
+	 * <p>
+	 * Queues without decrease-key ({@link #isIndexed()} returns false) add
+	 * another entry instead; the caller has to skip outdated entries.
+	 *
+	 * @param slot dense index of the node
+	 * @param id   node id
+	 * @param dist new distance, not larger than the distance already queued for the node
+	 */
+	void push(int slot, int id, int dist);
+
+	/**
+	 * @return whether there is at most one entry per node (so there are no outdated entries)
+	 */
+	boolean isIndexed();
+
+	/**
+	 * @return size of the allocated arrays in bytes
+	 */
+	long memorySize();
+}
@@ -0,0 +1,111 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Writes a packed edge or edge details section of a version 2 {@link GraphFile}.
+ * <p>
+ * The edges are written in edge id order and grouped into blocks of
+ * {@code blockSize} edges; all values are (unsigned) varints, see
+ * {@link FileNCache#readVarint()}. The deltas are relative to the last
+ * value of the same block, so each block can be decoded on its own after
+ * looking up its offset in the {@link #finish() index}:
+ * <ul>
+ * <li>edge: zigzag delta of the peer node, distance</li>
+ * <li>details: euclid length, 0 if the edge isn't a shortcut, else 1 + zigzag
+ *   delta of the middle node, followed by the zigzag deltas of both shortcut
+ *   edges relative to the edge id</li>
+ * </ul>
+ */
+final class PackedEdgeOutput {
+	private final OutputStream out;
+	private final int blockSize;
+	private final IntArrayList index = new IntArrayList();
+	/** id of the next edge */
+	private int edge;
+	/** last peer/middle node in the current block */
+	private int last;
+	private long size;
+
+	/**
+	 * @param out       stream to write the section to; null to only calculate the index
+	 * @param blockSize number of edges per block
+	 */
+	PackedEdgeOutput(OutputStream out, int blockSize) {
+		this.out = out;
+		this.blockSize = blockSize;
+	}
+
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private void startEdge() throws IOException {
+		if (0 == edge % blockSize) {
+			if (size > Integer.MAX_VALUE) throw new IOException("packed edge section too large");
+			index.add((int) size);
+			last = 0;
+		}
+		++edge;
+	}
+
+	private void writeVarint(int value) throws IOException {
+		while (0 != (value & ~0x7F)) {
+			if (null != out) out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+			++size;
+		}
+		if (null != out) out.write(value);
+		++size;
+	}
+
+	void writeEdge(int peer, int dist) throws IOException {
+		startEdge();
+		writeVarint(zigzag(peer - last));
+		writeVarint(dist);
+		last = peer;
+	}
+
+	/**
+	 * @param shortcutnode middle node of a shortcut, -1 if the edge isn't a shortcut (the shortcut edges are not stored then)
+	 */
+	void writeDetails(int euclid, int shortcut1, int shortcut2, int shortcutnode) throws IOException {
+		final int id = edge;
+		startEdge();
+		writeVarint(euclid);
+		if (-1 == shortcutnode) {
+			writeVarint(0);
+		} else {
+			writeVarint(zigzag(shortcutnode - last) + 1);
+			writeVarint(zigzag(shortcut1 - id));
+			writeVarint(zigzag(shortcut2 - id));
+			last = shortcutnode;
+		}
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return the index: the offset of each block relative to the start of the section, followed by the section size
+	 * @throws IOException if the section is too large for the index
+	 */
+	int[] finish() throws IOException {
+		if (size > Integer.MAX_VALUE) throw new IOException("packed edge section too large");
+		final int[] result = new int[index.size() + 1];
+		System.arraycopy(index.buffer, 0, result, 0, index.size());
+		result[index.size()] = (int) size;
+		return result;
+	}
+}
@@ -0,0 +1,231 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+import com.carrotsearch.hppc.LongIntOpenHashMap;
+
+/**
+ * Process wide cache for pages of graph files, shared by all {@link FileCache} and
+ * {@link FileNCache} instances (and therefore all {@link GraphReader}s), so pages
+ * stay warm between queries.
+ * <p>
+ * Pages are identified by the file (see {@link #fileID(File)}) and the page offset
+ * within the file. The number of cached pages is limited by a memory budget; when
+ * the cache is full a page is evicted with the CLOCK algorithm.
+ * <p>
+ * Pages of {@link RandomInputStream#isMapped() mapped} files are not copied
+ * or cached: {@link #get(int, RandomInputStream, long)} returns a view of the
+ * mapping instead.
+ * <p>
+ * Returned pages must not be modified and must only be read with absolute
+ * gets; they are shared with other readers, and may still be used after they
+ * got evicted from the cache.
+ * <p>
+ * All methods are thread-safe.
+ */
+public final class PageCache {
+	public static final int PAGE_SIZE = 4096;
+	public static final int PAGE_MASK = PAGE_SIZE - 1;
+	public static final int PAGE_SHIFT = 12;
+
+	/** default memory budget: 4MB */
+	public static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+	private static final PageCache instance = new PageCache(DEFAULT_BUDGET);
+
+	/**
+	 * @return the process wide cache instance
+	 */
+	public static PageCache getInstance() {
+		return instance;
+	}
+
+	private static final HashMap<String, Integer> fileIDs = new HashMap<String, Integer>();
+
+	/**
+	 * Get a number identifying the content of a file; the same file gets the same
+	 * id as long as it isn't modified (a modified file gets a new id, so old pages
+	 * aren't returned anymore).
+	 *
+	 * @param file
+	 * @return id for the file
+	 * @throws IOException
+	 */
+	public static int fileID(File file) throws IOException {
+		final String key = file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+		synchronized (fileIDs) {
+			Integer id = fileIDs.get(key);
+			if (null == id) {
+				id = fileIDs.size();
+				fileIDs.put(key, id);
+			}
+			return id;
+		}
+	}
+
+	private long budget;
+
+	/* slot storage */
+	private int slots;
+	private long[] slotKeys; /** key of page in slot, -1 for empty slots */
+	private IntBuffer[] slotPages;
+	private boolean[] slotReferenced; /** CLOCK "referenced" bit */
+	private int clockHand;
+	private int usedSlots;
+
+	/** page key -> slot */
+	private final LongIntOpenHashMap index = new LongIntOpenHashMap();
+
+	private long hits, misses, evictions;
+	/** pages of mapped files handed out as views */
+	private long views;
+
+	/**
+	 * @param budget memory budget in bytes
+	 */
+	public PageCache(long budget) {
+		setMemoryBudget(budget);
+	}
+
+	/**
+	 * Set new memory budget; drops all cached pages.
+	 *
+	 * @param budget memory budget in bytes
+	 */
+	public synchronized void setMemoryBudget(long budget) {
+		this.budget = budget;
+		slots = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / PAGE_SIZE));
+		slotKeys = new long[slots];
+		java.util.Arrays.fill(slotKeys, -1);
+		slotPages = new IntBuffer[slots];
+		slotReferenced = new boolean[slots];
+		clockHand = 0;
+		usedSlots = 0;
+		index.clear();
+	}
+
+	/**
+	 * @return memory budget in bytes
+	 */
+	public synchronized long getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Drop all cached pages (keeps the memory budget and the statistics)
+	 */
+	public synchronized void clear() {
+		java.util.Arrays.fill(slotKeys, -1);
+		java.util.Arrays.fill(slotPages, null);
+		java.util.Arrays.fill(slotReferenced, false);
+		clockHand = 0;
+		usedSlots = 0;
+		index.clear();
+	}
+
+	private static long pageKey(int fileID, long offset) {
+		return (((long) fileID) << 40) | (offset >>> PAGE_SHIFT);
+	}
+
+	/**
+	 * Get the page starting at {@code offset}: a view of the mapping for
+	 * mapped files, else the cached copy (loaded from the file if it isn't
+	 * cached).
+	 * <p>
+	 * The last page of a file may be only partially filled with data; the remaining ints are 0.
+	 *
+	 * @param fileID   id of the file, see {@link #fileID(File)}
+	 * @param file     stream to load the page from (with a positional read, so the stream can be shared between threads)
+	 * @param offset   page offset, must be aligned to {@link #PAGE_SIZE}
+	 * @return page content as buffer of {@link #PAGE_SIZE}/4 ints (read it with absolute gets only)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public IntBuffer get(int fileID, RandomInputStream file, long offset) throws IOException, InterruptedException {
+		assert 0 == (offset & PAGE_MASK);
+		if (file.isMapped() && offset + PAGE_SIZE <= file.length()) {
+			// the partial last page is copied, so it can be padded with zeros
+			if (Thread.interrupted()) throw new InterruptedException("interrupted while reading the graph");
+			synchronized (this) {
+				++views;
+			}
+			return file.mapIntBuffer(offset, PAGE_SIZE / 4);
+		}
+		final long key = pageKey(fileID, offset);
+
+		synchronized (this) {
+			if (index.containsKey(key)) {
+				final int slot = index.lget();
+				slotReferenced[slot] = true;
+				++hits;
+				return slotPages[slot];
+			}
+			++misses;
+		}
+
+		if (Thread.interrupted()) throw new InterruptedException("interrupted while doing disk io");
+
+		// load without holding the lock; another thread might load the same page meanwhile
+		final int[] data = new int[PAGE_SIZE / 4];
+		final int pageSize = (int) Math.min(file.length() - offset, PAGE_SIZE);
+		assert pageSize > 0;
+		file.readIntArray(offset, data, 0, pageSize / 4);
+		final IntBuffer page = IntBuffer.wrap(data);
+
+		synchronized (this) {
+			if (index.containsKey(key)) return slotPages[index.lget()];
+
+			final int slot = findSlot();
+			slotKeys[slot] = key;
+			slotPages[slot] = page;
+			slotReferenced[slot] = true;
+			index.put(key, slot);
+			return page;
+		}
+	}
+
+	/** find a free slot or evict a page; must be called with the lock held */
+	private int findSlot() {
+		if (usedSlots < slots) return usedSlots++;
+
+		for (;;) {
+			final int slot = clockHand;
+			clockHand = (clockHand + 1 == slots) ? 0 : clockHand + 1;
+			if (slotReferenced[slot]) {
+				slotReferenced[slot] = false;
+			} else {
+				index.remove(slotKeys[slot]);
+				++evictions;
+				return slot;
+			}
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getViews() {
+		return views;
+	}
+
+	public synchronized void resetStatistics() {
+		hits = misses = evictions = views = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "PageCache(" + usedSlots + "/" + slots + " pages, hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", mapped: " + views + ")";
+	}
+}
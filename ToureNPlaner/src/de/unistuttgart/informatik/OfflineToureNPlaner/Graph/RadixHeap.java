@@ -0,0 +1,163 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.util.Arrays;
+
+/**
+ * Monotone priority queue for non negative int distances (radix heap): an
+ * entry is kept in the bucket given by the highest bit in which its distance
+ * differs from the last extracted minimum. Pushed distances must not be smaller
+ * than the last extracted minimum, which is always true for Dijkstra.
+ * <p>
+ * Supports decrease-key (an entry is moved to its new bucket), using a slot
+ * -&gt; (bucket, position) array validated like a sparse set, so {@link #clear()}
+ * is O(1).
+ */
+public final class RadixHeap implements NodeQueue {
+	private static final int BUCKETS = 33;
+
+	/* bucket entries */
+	private final int[][] bucketIds = new int[BUCKETS][];
+	private final int[][] bucketDists = new int[BUCKETS][];
+	private final int[][] bucketSlots = new int[BUCKETS][];
+	private final int[] bucketSizes = new int[BUCKETS];
+	private int size;
+	/** last extracted minimum */
+	private int last;
+
+	/* slot -> bucket, position in bucket */
+	private int[] slotBuckets;
+	private int[] slotPositions;
+
+	/**
+	 * @param initialCapacity number of slots to reserve space for
+	 */
+	public RadixHeap(int initialCapacity) {
+		initialCapacity = Math.max(16, initialCapacity);
+		for (int b = 0; b < BUCKETS; ++b) {
+			bucketIds[b] = new int[16];
+			bucketDists[b] = new int[16];
+			bucketSlots[b] = new int[16];
+		}
+		slotBuckets = new int[initialCapacity];
+		slotPositions = new int[initialCapacity];
+	}
+
+	private int bucket(int dist) {
+		return 32 - Integer.numberOfLeadingZeros(dist ^ last);
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(bucketSizes, 0);
+		size = 0;
+		last = 0;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+	/**
+	 * @param slot
+	 * @return whether the node with the given slot is in the queue
+	 */
+	public boolean contains(int slot) {
+		if (slot >= slotBuckets.length) return false;
+		final int b = slotBuckets[slot], pos = slotPositions[slot];
+		return pos < bucketSizes[b] && bucketSlots[b][pos] == slot;
+	}
+
+	/** make sure bucket 0 contains the minimum entries */
+	private void pull() {
+		assert size > 0;
+		if (bucketSizes[0] > 0) return;
+
+		int b = 1;
+		while (0 == bucketSizes[b]) ++b;
+
+		final int[] ids = bucketIds[b], dists = bucketDists[b], slots = bucketSlots[b];
+		final int count = bucketSizes[b];
+		int min = dists[0];
+		for (int i = 1; i < count; ++i) if (dists[i] < min) min = dists[i];
+		last = min;
+
+		// all entries move to smaller buckets
+		bucketSizes[b] = 0;
+		for (int i = 0; i < count; ++i) add(bucket(dists[i]), ids[i], dists[i], slots[i]);
+	}
+
+	@Override
+	public int peekMinId() {
+		pull();
+		return bucketIds[0][bucketSizes[0] - 1];
+	}
+
+	@Override
+	public int peekMinDist() {
+		pull();
+		return last;
+	}
+
+	@Override
+	public void removeMin() {
+		pull();
+		--bucketSizes[0];
+		--size;
+	}
+
+	@Override
+	public void push(int slot, int id, int dist) {
+		assert dist >= last : "radix heap needs monotone distances";
+		if (contains(slot)) {
+			final int b = slotBuckets[slot], pos = slotPositions[slot];
+			if (dist >= bucketDists[b][pos]) return;
+			remove(b, pos);
+		} else {
+			if (slot >= slotBuckets.length) {
+				final int capacity = Math.max(2 * slotBuckets.length, slot + 1);
+				slotBuckets = Arrays.copyOf(slotBuckets, capacity);
+				slotPositions = Arrays.copyOf(slotPositions, capacity);
+			}
+			++size;
+		}
+		add(bucket(dist), id, dist, slot);
+	}
+
+	private void add(int b, int id, int dist, int slot) {
+		int pos = bucketSizes[b]++;
+		if (pos == bucketIds[b].length) {
+			bucketIds[b] = Arrays.copyOf(bucketIds[b], 2 * pos);
+			bucketDists[b] = Arrays.copyOf(bucketDists[b], 2 * pos);
+			bucketSlots[b] = Arrays.copyOf(bucketSlots[b], 2 * pos);
+		}
+		bucketIds[b][pos] = id;
+		bucketDists[b][pos] = dist;
+		bucketSlots[b][pos] = slot;
+		slotBuckets[slot] = b;
+		slotPositions[slot] = pos;
+	}
+
+	/** remove entry by moving the last entry of the bucket to its position */
+	private void remove(int b, int pos) {
+		final int lastPos = --bucketSizes[b];
+		if (pos == lastPos) return;
+		bucketIds[b][pos] = bucketIds[b][lastPos];
+		bucketDists[b][pos] = bucketDists[b][lastPos];
+		final int slot = bucketSlots[b][lastPos];
+		bucketSlots[b][pos] = slot;
+		slotPositions[slot] = pos;
+	}
+
+	@Override
+	public boolean isIndexed() {
+		return true;
+	}
+
+	@Override
+	public long memorySize() {
+		long bytes = 4L * (slotBuckets.length + slotPositions.length);
+		for (int b = 0; b < BUCKETS; ++b) bytes += 12L * bucketIds[b].length;
+		return bytes;
+	}
+}
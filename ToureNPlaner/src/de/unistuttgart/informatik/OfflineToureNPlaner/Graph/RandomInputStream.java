@@ -12,17 +12,68 @@ public interface RandomInputStream extends Closeable {
 	int readInt() throws IOException;
 	void readIntArray(int[] buf, int off, int len) throws IOException;
 
+	/**
+	 * Read ints at an absolute position; doesn't use or change the current
+	 * position, so (unlike the other reads) it can be called from several
+	 * threads at the same time.
+	 *
+	 * @param position start in bytes, must be aligned to 4 bytes
+	 * @throws IOException
+	 */
+	void readIntArray(long position, int[] buf, int off, int len) throws IOException;
+
 	int recommendedPageSize();
 
+	/**
+	 * Map a region of the file as read-only {@link java.nio.IntBuffer} (big endian).
+	 * Doesn't change the current position.
+	 *
+	 * @param position start of the region in bytes, must be aligned to 4 bytes
+	 * @param count    number of ints in the region
+	 * @return buffer with the region as content
+	 * @throws IOException
+	 */
+	java.nio.IntBuffer mapIntBuffer(long position, int count) throws IOException;
+
+	/**
+	 * @return whether the whole file is mapped, so {@link #mapIntBuffer(long, int)}
+	 *   returns views of the existing mapping (without copying or reading anything)
+	 */
+	boolean isMapped();
+
+	/**
+	 * Reads through the file; the positional reads use the channel of the file.
+	 * <p>
+	 * Interrupting a thread while it reads closes the channel (and the file) for
+	 * all threads: the interrupted read fails, the file is reopened and the
+	 * positional reads of the other threads are repeated. The sequential reads
+	 * start at the beginning of the reopened file (they are not used on a
+	 * file shared between threads).
+	 */
 	public static class RandAccFile implements RandomInputStream {
-		private java.io.RandomAccessFile file;
+		private final java.io.File path;
+		private volatile java.io.RandomAccessFile file;
+		private volatile boolean closed = false;
 
-		RandAccFile(java.io.RandomAccessFile file) {
+		RandAccFile(java.io.RandomAccessFile file, java.io.File path) {
 			this.file = file;
+			this.path = path;
+		}
+
+		/**
+		 * Replace the file closed by an interrupted read (unless another thread already did)
+		 *
+		 * @param broken the file the read failed on
+		 * @throws java.nio.channels.ClosedChannelException if the stream was closed
+		 */
+		private synchronized void reopen(java.io.RandomAccessFile broken) throws IOException {
+			if (closed) throw new java.nio.channels.ClosedChannelException();
+			if (broken == file) file = new java.io.RandomAccessFile(path, "r");
 		}
 
 		@Override
 		public void close() throws IOException {
+			closed = true;
 			file.close();
 		}
 
@@ -53,25 +104,191 @@ public interface RandomInputStream extends Closeable {
 
 		@Override
 		public void readIntArray(int[] buf, int off, int len) throws IOException {
-			long offset = file.getFilePointer();
+			final long offset = file.getFilePointer();
+			readIntArray(offset, buf, off, len);
+			file.seek(offset + 4L * len);
+		}
+
+		@Override
+		public void readIntArray(long position, int[] buf, int off, int len) throws IOException {
 			final int BUFSIZE = 16*1024; // 64kb
 
-			final java.nio.channels.FileChannel channel = file.getChannel();
+			final java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(4 * Math.min(len, BUFSIZE)); // big endian
 			while (len > 0) {
-				int want = len > BUFSIZE ? BUFSIZE : len;
-				java.nio.MappedByteBuffer buffer = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, offset, want * 4);
-				buffer.order(java.nio.ByteOrder.BIG_ENDIAN);
+				final int want = len > BUFSIZE ? BUFSIZE : len;
+				readFully(buffer, 4 * want, position);
 				buffer.asIntBuffer().get(buf, off, want);
 				off += want;
 				len -= want;
-				offset += want * 4;
+				position += 4L * want;
+			}
+		}
+
+		/**
+		 * Fill the first {@code bytes} bytes of buffer from position and flip it
+		 */
+		private void readFully(java.nio.ByteBuffer buffer, int bytes, long position) throws IOException {
+			for (;;) {
+				final java.io.RandomAccessFile current = file;
+				// positional channel reads don't touch the file pointer and may run concurrently
+				final java.nio.channels.FileChannel channel = current.getChannel();
+				buffer.clear();
+				buffer.limit(bytes);
+				try {
+					while (buffer.hasRemaining()) {
+						if (channel.read(buffer, position + buffer.position()) < 0) throw new java.io.EOFException();
+					}
+					buffer.flip();
+					return;
+				} catch (java.nio.channels.ClosedByInterruptException e) {
+					// this thread was interrupted: the read fails, but the other readers must go on
+					reopen(current);
+					throw e;
+				} catch (java.nio.channels.ClosedChannelException e) {
+					// closed by an interrupted read of another thread; try again on the new file
+					reopen(current);
+				}
 			}
-			file.seek(offset);
 		}
 
 		@Override
 		public int recommendedPageSize() {
 			return 4096;
 		}
+
+		@Override
+		public java.nio.IntBuffer mapIntBuffer(long position, int count) throws IOException {
+			java.nio.MappedByteBuffer buffer = file.getChannel().map(java.nio.channels.FileChannel.MapMode.READ_ONLY, position, 4L * count);
+			buffer.order(java.nio.ByteOrder.BIG_ENDIAN);
+			return buffer.asIntBuffer();
+		}
+
+		@Override
+		public boolean isMapped() {
+			return false;
+		}
+	}
+
+	/**
+	 * Maps the complete file into memory once and serves all reads from
+	 * the mapped buffers; no syscalls are needed after opening.
+	 * <p>
+	 * Files larger than {@link #WINDOW_SIZE} are mapped in multiple
+	 * windows, as a single buffer can't address more than 2GB.
+	 * <p>
+	 * All reads have to be aligned to 4 bytes (the graph file only contains ints).
+	 */
+	public static class MappedFile implements RandomInputStream {
+		/** size of a mapped window in bytes; a power of two (and therefore a multiple of 4) */
+		static final long WINDOW_SIZE = 1L << 30;
+		static final int WINDOW_SHIFT = 30;
+
+		private java.io.RandomAccessFile file;
+		private java.nio.IntBuffer[] windows;
+		private final long length;
+		private long position = 0;
+
+		MappedFile(java.io.RandomAccessFile file) throws IOException {
+			this.file = file;
+			length = file.length();
+
+			final java.nio.channels.FileChannel channel = file.getChannel();
+			final int windowCount = (int) ((length + WINDOW_SIZE - 1) >>> WINDOW_SHIFT);
+			windows = new java.nio.IntBuffer[windowCount];
+			for (int w = 0; w < windowCount; ++w) {
+				final long start = ((long) w) << WINDOW_SHIFT;
+				final long size = Math.min(WINDOW_SIZE, length - start);
+				java.nio.MappedByteBuffer buffer = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, start, size);
+				buffer.order(java.nio.ByteOrder.BIG_ENDIAN);
+				windows[w] = buffer.asIntBuffer();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			// mapped buffers are released by the garbage collector
+			windows = null;
+			file.close();
+		}
+
+		@Override
+		public long length() throws IOException {
+			return length;
+		}
+
+		@Override
+		public long position() throws IOException {
+			return position;
+		}
+
+		@Override
+		public void seek(long position) throws IOException {
+			this.position = position;
+		}
+
+		@Override
+		public void skip(long offset) throws IOException {
+			position += offset;
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			assert 0 == (position & 3);
+			if (position + 4 > length) throw new java.io.EOFException();
+			final int res = windows[(int) (position >>> WINDOW_SHIFT)].get((int) ((position & (WINDOW_SIZE - 1)) >>> 2));
+			position += 4;
+			return res;
+		}
+
+		@Override
+		public void readIntArray(int[] buf, int off, int len) throws IOException {
+			readIntArray(position, buf, off, len);
+			position += 4L * len;
+		}
+
+		@Override
+		public void readIntArray(long position, int[] buf, int off, int len) throws IOException {
+			assert 0 == (position & 3);
+			if (position + 4L * len > length) throw new java.io.EOFException();
+			while (len > 0) {
+				// a duplicate has its own position; the mapping is shared
+				final java.nio.IntBuffer window = windows[(int) (position >>> WINDOW_SHIFT)].duplicate();
+				final int ndx = (int) ((position & (WINDOW_SIZE - 1)) >>> 2);
+				final int want = Math.min(len, window.limit() - ndx);
+				window.position(ndx);
+				window.get(buf, off, want);
+				off += want;
+				len -= want;
+				position += 4L * want;
+			}
+		}
+
+		@Override
+		public int recommendedPageSize() {
+			return 4096;
+		}
+
+		@Override
+		public java.nio.IntBuffer mapIntBuffer(long position, int count) throws IOException {
+			assert 0 == (position & 3);
+			final long end = position + 4L * count;
+			if (end > length) throw new java.io.EOFException();
+			if ((position >>> WINDOW_SHIFT) == ((end - 1) >>> WINDOW_SHIFT) || 0 == count) {
+				// region is within one window; share the existing mapping
+				final java.nio.IntBuffer window = windows[(int) (position >>> WINDOW_SHIFT)].duplicate();
+				final int ndx = (int) ((position & (WINDOW_SIZE - 1)) >>> 2);
+				window.limit(ndx + count);
+				window.position(ndx);
+				return window.slice();
+			}
+			java.nio.MappedByteBuffer buffer = file.getChannel().map(java.nio.channels.FileChannel.MapMode.READ_ONLY, position, 4L * count);
+			buffer.order(java.nio.ByteOrder.BIG_ENDIAN);
+			return buffer.asIntBuffer();
+		}
+
+		@Override
+		public boolean isMapped() {
+			return true;
+		}
 	}
 }
@@ -0,0 +1,235 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of expanded shortcuts: for a shortcut edge id the nodes between
+ * the shortcut's source and target, and the euclid length of the expanded path.
+ * Used by {@link GraphReader#expandShortcuts(com.carrotsearch.hppc.IntArrayDeque, com.carrotsearch.hppc.IntArrayDeque)}.
+ * <p>
+ * The size is limited by a memory budget (estimated); the least recently used
+ * entries are dropped when the budget is exceeded. The entries can be saved to
+ * and loaded from a file next to the graph, see {@link #sidecarFile(File)}.
+ * <p>
+ * All methods are thread-safe.
+ */
+public final class ShortcutCache {
+	/** default memory budget: 1MB */
+	public static final long DEFAULT_BUDGET = 1024 * 1024;
+
+	private static final int FILE_MAGIC = 0x53435554; // "SCUT"
+	private static final int FILE_VERSION = 1;
+
+	/** estimated heap usage per entry, without the nodes */
+	private static final int ENTRY_OVERHEAD = 80;
+
+	/** an expanded shortcut */
+	public static final class Entry {
+		/** nodes between source and target of the shortcut (must not be modified) */
+		public final int[] nodes;
+		/** euclid length of the expanded path */
+		public final int euclid;
+
+		Entry(int[] nodes, int euclid) {
+			this.nodes = nodes;
+			this.euclid = euclid;
+		}
+
+		long memorySize() {
+			return ENTRY_OVERHEAD + 4L * nodes.length;
+		}
+	}
+
+	private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(64, 0.75f, true);
+	private long budget;
+	private long size;
+
+	private long hits, misses, evictions;
+
+	/**
+	 * @param budget memory budget in bytes
+	 */
+	public ShortcutCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @param graphFile the graph file
+	 * @return file to store the cache for graphFile in
+	 */
+	public static File sidecarFile(File graphFile) {
+		return new File(graphFile.getPath() + ".shortcuts");
+	}
+
+	/**
+	 * Set new memory budget; drops the least recently used entries if needed.
+	 *
+	 * @param budget memory budget in bytes
+	 */
+	public synchronized void setMemoryBudget(long budget) {
+		this.budget = budget;
+		shrink();
+	}
+
+	public synchronized long getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Find an expanded shortcut and mark it as recently used. Only counts hits:
+	 * the caller only knows whether an edge is a shortcut after reading it, and
+	 * has to call {@link #miss()} in that case.
+	 *
+	 * @param edgeID
+	 * @return expanded shortcut or null
+	 */
+	public synchronized Entry get(int edgeID) {
+		final Entry entry = entries.get(edgeID);
+		if (null != entry) ++hits;
+		return entry;
+	}
+
+	/**
+	 * count a shortcut that had to be expanded from the graph file
+	 */
+	public synchronized void miss() {
+		++misses;
+	}
+
+	/**
+	 * @param edgeID shortcut edge id
+	 * @param nodes  nodes between source and target of the shortcut; the array is kept
+	 * @param euclid euclid length of the expanded path
+	 */
+	public synchronized void put(int edgeID, int[] nodes, int euclid) {
+		final Entry entry = new Entry(nodes, euclid);
+		if (entry.memorySize() > budget) return;
+		final Entry old = entries.put(edgeID, entry);
+		if (null != old) size -= old.memorySize();
+		size += entry.memorySize();
+		shrink();
+	}
+
+	private void shrink() {
+		final Iterator<Entry> it = entries.values().iterator();
+		while (size > budget && it.hasNext()) {
+			size -= it.next().memorySize();
+			it.remove();
+			++evictions;
+		}
+	}
+
+	/**
+	 * Drop all entries (keeps the memory budget and the statistics)
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Store all entries in the {@link #sidecarFile(File) sidecar file} of a graph
+	 *
+	 * @param graphFile the graph the cache was filled from
+	 * @throws IOException
+	 */
+	public synchronized void save(File graphFile) throws IOException {
+		final File file = sidecarFile(graphFile);
+		final File tmp = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(GraphReader.graphStamp(graphFile));
+			out.writeInt(entries.size());
+			// least recently used first, so loading restores the order
+			for (Map.Entry<Integer, Entry> e: entries.entrySet()) {
+				final Entry entry = e.getValue();
+				out.writeInt(e.getKey());
+				out.writeInt(entry.euclid);
+				out.writeInt(entry.nodes.length);
+				for (final int node: entry.nodes) out.writeInt(node);
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("couldn't write " + file);
+		}
+	}
+
+	/**
+	 * Add the entries from the {@link #sidecarFile(File) sidecar file} of a graph;
+	 * does nothing if the file doesn't exist or belongs to another version of the graph.
+	 *
+	 * @param graphFile the graph the cache is used for
+	 * @return whether the file was loaded
+	 * @throws IOException
+	 */
+	public synchronized boolean load(File graphFile) throws IOException {
+		final File file = sidecarFile(graphFile);
+		if (!file.exists()) return false;
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (FILE_MAGIC != in.readInt() || FILE_VERSION != in.readInt()) throw new IOException("Bad file: " + file);
+			if (GraphReader.graphStamp(graphFile) != in.readLong()) return false;
+			// remaining bytes after the header; the counts are checked against it, so a broken file can't allocate arbitrary arrays
+			long remaining = file.length() - 20;
+			int count = in.readInt();
+			if (count < 0 || 12L * count > remaining) throw new IOException("Bad file: " + file);
+			for (; count > 0; --count) {
+				final int edgeID = in.readInt();
+				final int euclid = in.readInt();
+				final int length = in.readInt();
+				remaining -= 12;
+				if (length < 0 || 4L * length > remaining) throw new IOException("Bad file: " + file);
+				remaining -= 4L * length;
+				final int[] nodes = new int[length];
+				for (int i = 0; i < nodes.length; ++i) nodes[i] = in.readInt();
+				put(edgeID, nodes, euclid);
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return fraction of looked up shortcuts found in the cache
+	 */
+	public synchronized double getHitRate() {
+		return (0 == hits + misses) ? 0 : (double) hits / (hits + misses);
+	}
+
+	public synchronized void resetStatistics() {
+		hits = misses = evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ShortcutCache(" + entries.size() + " shortcuts, " + (size >> 10) + "/" + (budget >> 10) + "kB, hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ")";
+	}
+}
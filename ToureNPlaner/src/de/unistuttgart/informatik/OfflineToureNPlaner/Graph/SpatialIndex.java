@@ -0,0 +1,335 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Static k-d tree over the coordinates of all nodes of a graph, for nearest
+ * node queries.
+ * <p>
+ * The tree is stored implicitly in three flat arrays (node id, longitude,
+ * latitude; degree*1E7): the node in the middle of a range splits the range,
+ * the nodes before it have a smaller or equal coordinate, the nodes after it a
+ * greater or equal coordinate; the split coordinate alternates between
+ * longitude (at the root) and latitude.
+ * <p>
+ * Distances are measured with the equirectangular projection at the latitude
+ * of the searched point (longitude differences are scaled by the cosine of
+ * the latitude), which is accurate enough for the distances between a point
+ * and its nearest node.
+ * <p>
+ * The tree is built once from the node geo section of the graph and stored in
+ * a sidecar file next to the graph (see {@link #sidecarFile(File)}), which is
+ * mapped instead of loaded on the next start.
+ * <p>
+ * Queries don't modify the index and can run concurrently.
+ */
+public final class SpatialIndex {
+	private static final int FILE_MAGIC = 0x4B445452; // "KDTR"
+	private static final int FILE_VERSION = 1;
+	/** header: magic, version, graph stamp (long), node count */
+	private static final int HEADER_INTS = 5;
+
+	/** maximum depth of the tree: the ranges are halved on each level */
+	private static final int MAX_DEPTH = 33;
+
+	private final int size;
+	private final IntBuffer ids, lons, lats;
+
+	private SpatialIndex(int size, IntBuffer ids, IntBuffer lons, IntBuffer lats) {
+		this.size = size;
+		this.ids = ids;
+		this.lons = lons;
+		this.lats = lats;
+	}
+
+	/**
+	 * @param graphFile the graph file
+	 * @return file to store the index for graphFile in
+	 */
+	public static File sidecarFile(File graphFile) {
+		return new File(graphFile.getPath() + ".kdtree");
+	}
+
+	/**
+	 * @param nodes number of nodes
+	 * @return bytes of heap {@link #build(int[], int[], int[])} needs for the arrays of an index with that many nodes
+	 */
+	public static long heapSize(int nodes) {
+		return 12L * nodes;
+	}
+
+	/**
+	 * Build the tree from the given nodes; the arrays are reordered and kept.
+	 *
+	 * @param ids  node ids
+	 * @param lons longitudes in degree*1E7
+	 * @param lats latitudes in degree*1E7
+	 */
+	public static SpatialIndex build(int[] ids, int[] lons, int[] lats) {
+		build(ids, lons, lats, 0, ids.length, true);
+		return new SpatialIndex(ids.length, IntBuffer.wrap(ids), IntBuffer.wrap(lons), IntBuffer.wrap(lats));
+	}
+
+	private static void build(int[] ids, int[] lons, int[] lats, int lo, int hi, boolean byLon) {
+		while (hi - lo > 1) {
+			final int mid = (lo + hi) >>> 1;
+			select(ids, lons, lats, byLon ? lons : lats, lo, hi, mid);
+			build(ids, lons, lats, lo, mid, !byLon);
+			lo = mid + 1;
+			byLon = !byLon;
+		}
+	}
+
+	/**
+	 * quickselect: reorder [lo, hi) so the node at k has the k-th smallest key,
+	 * with smaller or equal keys before it and greater or equal keys after it
+	 */
+	private static void select(int[] ids, int[] lons, int[] lats, int[] keys, int lo, int hi, int k) {
+		--hi; // inclusive from here
+		while (hi > lo) {
+			// median of three as pivot
+			final int m = (lo + hi) >>> 1;
+			if (keys[m] < keys[lo]) swap(ids, lons, lats, m, lo);
+			if (keys[hi] < keys[lo]) swap(ids, lons, lats, hi, lo);
+			if (keys[hi] < keys[m]) swap(ids, lons, lats, hi, m);
+			final int pivot = keys[m];
+
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (keys[i] < pivot) ++i;
+				while (keys[j] > pivot) --j;
+				if (i <= j) swap(ids, lons, lats, i++, j--);
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static void swap(int[] ids, int[] lons, int[] lats, int a, int b) {
+		int t = ids[a]; ids[a] = ids[b]; ids[b] = t;
+		t = lons[a]; lons[a] = lons[b]; lons[b] = t;
+		t = lats[a]; lats[a] = lats[b]; lats[b] = t;
+	}
+
+	/**
+	 * Map the index from the sidecar file of a graph
+	 *
+	 * @param graphFile   the graph the index is used for
+	 * @param graphStamp  value identifying the content of the graph
+	 * @return index, or null if there is no sidecar file or it belongs to another version of the graph
+	 * @throws IOException
+	 */
+	static SpatialIndex load(File graphFile, long graphStamp) throws IOException {
+		final File file = sidecarFile(graphFile);
+		if (!file.exists()) return null;
+		final java.io.RandomAccessFile rndAccFile = new java.io.RandomAccessFile(file, "r");
+		try {
+			if (rndAccFile.length() < 4 * HEADER_INTS) throw new IOException("Bad file: " + file);
+			if (FILE_MAGIC != rndAccFile.readInt() || FILE_VERSION != rndAccFile.readInt()) throw new IOException("Bad file: " + file);
+			if (graphStamp != rndAccFile.readLong()) return null;
+			final int size = rndAccFile.readInt();
+			if (rndAccFile.length() != 4L * (HEADER_INTS + 3L * size)) throw new IOException("Bad file: " + file);
+
+			// the mapping stays valid after the file is closed
+			final java.nio.MappedByteBuffer buffer = rndAccFile.getChannel().map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, rndAccFile.length());
+			buffer.order(java.nio.ByteOrder.BIG_ENDIAN);
+			final IntBuffer all = buffer.asIntBuffer();
+			return new SpatialIndex(size, slice(all, HEADER_INTS, size), slice(all, HEADER_INTS + size, size), slice(all, HEADER_INTS + 2 * size, size));
+		} finally {
+			rndAccFile.close();
+		}
+	}
+
+	private static IntBuffer slice(IntBuffer buffer, int position, int count) {
+		final IntBuffer dup = buffer.duplicate();
+		dup.position(position);
+		dup.limit(position + count);
+		return dup.slice();
+	}
+
+	/**
+	 * Store the index in the sidecar file of a graph
+	 *
+	 * @param graphFile   the graph the index was built for
+	 * @param graphStamp  value identifying the content of the graph
+	 * @throws IOException
+	 */
+	void save(File graphFile, long graphStamp) throws IOException {
+		final File file = sidecarFile(graphFile);
+		final File tmp = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(graphStamp);
+			out.writeInt(size);
+			for (int i = 0; i < size; ++i) out.writeInt(ids.get(i));
+			for (int i = 0; i < size; ++i) out.writeInt(lons.get(i));
+			for (int i = 0; i < size; ++i) out.writeInt(lats.get(i));
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("couldn't write " + file);
+		}
+	}
+
+	/**
+	 * @return number of nodes in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the node closest to a point
+	 *
+	 * @param lon longitude in degree*1E7
+	 * @param lat latitude in degree*1E7
+	 * @return index of the closest node (see {@link #nodeID(int)}, {@link #lon(int)}, {@link #lat(int)}), or -1 if the index is empty
+	 */
+	public int nearest(int lon, int lat) {
+		if (0 == size) return -1;
+		final double scale = Math.cos(Math.toRadians(lat * 1E-7));
+
+		// ranges still to search with a lower bound of the (squared) distance of their nodes
+		final int[] stackLo = new int[MAX_DEPTH], stackHi = new int[MAX_DEPTH];
+		final boolean[] stackByLon = new boolean[MAX_DEPTH];
+		final double[] stackBound = new double[MAX_DEPTH];
+		int sp = 0;
+		stackLo[0] = 0; stackHi[0] = size; stackByLon[0] = true; stackBound[0] = 0;
+		++sp;
+
+		int best = -1;
+		double bestDist = Double.POSITIVE_INFINITY;
+		while (sp > 0) {
+			--sp;
+			if (stackBound[sp] >= bestDist) continue;
+			int lo = stackLo[sp], hi = stackHi[sp];
+			boolean byLon = stackByLon[sp];
+
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				final double dLon = ((double) lons.get(mid) - lon) * scale;
+				final double dLat = (double) lats.get(mid) - lat;
+				final double dist = dLon * dLon + dLat * dLat;
+				if (dist < bestDist) {
+					bestDist = dist;
+					best = mid;
+				}
+
+				// continue on the side of the point; remember the other side if it can contain closer nodes
+				final double diff = byLon ? dLon : dLat;
+				final int farLo, farHi;
+				if (diff > 0) {
+					farLo = mid + 1; farHi = hi;
+					hi = mid;
+				} else {
+					farLo = lo; farHi = mid;
+					lo = mid + 1;
+				}
+				byLon = !byLon;
+				if (farLo < farHi && diff * diff < bestDist) {
+					stackLo[sp] = farLo; stackHi[sp] = farHi; stackByLon[sp] = byLon; stackBound[sp] = diff * diff;
+					++sp;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find all nodes within a distance of a point
+	 *
+	 * @param lon    longitude in degree*1E7
+	 * @param lat    latitude in degree*1E7
+	 * @param radius distance in degree*1E7 of latitude
+	 * @param result the indices of the found nodes are added to it
+	 */
+	public void within(int lon, int lat, double radius, IntArrayList result) {
+		within(lon, lat, radius, result, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Find all nodes within a distance of a point, but stop if there are more than maxCount
+	 *
+	 * @param lon      longitude in degree*1E7
+	 * @param lat      latitude in degree*1E7
+	 * @param radius   distance in degree*1E7 of latitude
+	 * @param result   the indices of the found nodes are added to it
+	 * @param maxCount maximum number of nodes to add
+	 * @return false if there are more than maxCount nodes within the distance (result is incomplete then)
+	 */
+	public boolean within(int lon, int lat, double radius, IntArrayList result, int maxCount) {
+		if (0 == size) return true;
+		int found = 0;
+		final double scale = Math.cos(Math.toRadians(lat * 1E-7));
+		final double radius2 = radius * radius;
+
+		final int[] stackLo = new int[MAX_DEPTH], stackHi = new int[MAX_DEPTH];
+		final boolean[] stackByLon = new boolean[MAX_DEPTH];
+		int sp = 0;
+		stackLo[0] = 0; stackHi[0] = size; stackByLon[0] = true;
+		++sp;
+
+		while (sp > 0) {
+			--sp;
+			int lo = stackLo[sp], hi = stackHi[sp];
+			boolean byLon = stackByLon[sp];
+
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				final double dLon = ((double) lons.get(mid) - lon) * scale;
+				final double dLat = (double) lats.get(mid) - lat;
+				if (dLon * dLon + dLat * dLat <= radius2) {
+					if (++found > maxCount) return false;
+					result.add(mid);
+				}
+
+				// continue on the side of the point; remember the other side if it intersects the circle
+				final double diff = byLon ? dLon : dLat;
+				final int farLo, farHi;
+				if (diff > 0) {
+					farLo = mid + 1; farHi = hi;
+					hi = mid;
+				} else {
+					farLo = lo; farHi = mid;
+					lo = mid + 1;
+				}
+				byLon = !byLon;
+				if (farLo < farHi && diff * diff <= radius2) {
+					stackLo[sp] = farLo; stackHi[sp] = farHi; stackByLon[sp] = byLon;
+					++sp;
+				}
+			}
+		}
+		return true;
+	}
+
+	public int nodeID(int index) {
+		return ids.get(index);
+	}
+
+	/** @return longitude in degree*1E7 */
+	public int lon(int index) {
+		return lons.get(index);
+	}
+
+	/** @return latitude in degree*1E7 */
+	public int lat(int index) {
+		return lats.get(index);
+	}
+}
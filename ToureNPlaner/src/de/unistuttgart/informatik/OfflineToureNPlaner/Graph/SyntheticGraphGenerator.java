@@ -0,0 +1,280 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
+
+import android.util.Log;
+
+/**
+ * Generates a reproducible road network for benchmarks and tests: a grid of
+ * roads (with some missing segments) plus random highways (faster, longer
+ * edges), contracted with a simple contraction hierarchy until only the
+ * core is left, and written with {@link GraphWriter}.
+ * <p>
+ * The nodes are placed around 48°N 9°E, by default 1.5km apart in longitude
+ * and 1.1km in latitude (with some jitter); distances are travel times
+ * derived from the euclid lengths. Real road networks are much denser (around
+ * 70 nodes/km², about 120m apart), see {@link #SyntheticGraphGenerator(int, int, long, int, int)}.
+ */
+public class SyntheticGraphGenerator {
+	static final int BASE_LON = 90000000, BASE_LAT = 480000000;
+	static final int STEP_LON = 150000, STEP_LAT = 100000;
+	static final int BLOCK_SIZE = 32;
+	/** grid nodes per cell (in each direction) */
+	static final int CELL_NODES = 4;
+	/** witness searches stop after settling this many nodes */
+	static final int WITNESS_SETTLE_LIMIT = 50;
+
+	private final int width, height, nodes;
+	/** distance of the grid nodes in degree*1E7 */
+	private final int stepLon, stepLat;
+	private final Random random;
+	private final int[] lons, lats;
+
+	/* edges; shortcut1 is -1 for plain edges */
+	private final IntArrayList edgeFrom = new IntArrayList(), edgeTo = new IntArrayList();
+	private final IntArrayList edgeDist = new IntArrayList(), edgeEuclid = new IntArrayList();
+	private final IntArrayList edgeShortcut1 = new IntArrayList(), edgeShortcut2 = new IntArrayList();
+
+	/* remaining graph during the contraction: peer -> edge */
+	private final IntIntOpenHashMap[] out, in;
+
+	/**
+	 * @param args width and height of the grid (in nodes), number of core
+	 *   nodes, random seed, output file and optional the file version (1 or 2)
+	 *   and the distance of the grid nodes in longitude and latitude (degree*1E7)
+	 */
+	public static void main(String[] args) {
+		if (args.length < 5 || 7 == args.length || args.length > 8) {
+			System.err.println("usage: SyntheticGraphGenerator <width> <height> <core nodes> <seed> <graph> [version [<stepLonE7> <stepLatE7>]]");
+			return;
+		}
+		final int width = Integer.parseInt(args[0]), height = Integer.parseInt(args[1]), coreSize = Integer.parseInt(args[2]);
+		final long seed = Long.parseLong(args[3]);
+		final File file = new File(args[4]);
+		final int version = (args.length > 5) ? Integer.parseInt(args[5]) : 1;
+		final int stepLon = (args.length > 6) ? Integer.parseInt(args[6]) : STEP_LON;
+		final int stepLat = (args.length > 7) ? Integer.parseInt(args[7]) : STEP_LAT;
+		try {
+			final long startTime = System.currentTimeMillis();
+			final SyntheticGraphGenerator generator = new SyntheticGraphGenerator(width, height, seed, stepLon, stepLat);
+			final GraphWriter writer = generator.contract(coreSize);
+			if (2 == version) {
+				final File plain = new File(file.getPath() + ".v1");
+				writer.write(plain);
+				GraphConverter.convert(plain, file, GraphConverter.DEFAULT_EDGE_BLOCK_SIZE);
+				plain.delete();
+			} else {
+				writer.write(file);
+			}
+			Log.d("Offline TP", "** Generated graph with " + writer.nodeCount() + " nodes, " + writer.edgeCount() + " edges ("
+					+ (writer.edgeCount() - generator.roads) + " shortcuts), " + file.length() + " bytes in " + (System.currentTimeMillis() - startTime) + "ms");
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+		}
+	}
+
+	/** number of plain edges */
+	private int roads;
+
+	/**
+	 * Create the uncontracted road network with the default node distances
+	 */
+	public SyntheticGraphGenerator(int width, int height, long seed) {
+		this(width, height, seed, STEP_LON, STEP_LAT);
+	}
+
+	/**
+	 * Create the uncontracted road network
+	 *
+	 * @param stepLon distance of the grid nodes in longitude, degree*1E7
+	 * @param stepLat distance of the grid nodes in latitude, degree*1E7
+	 */
+	public SyntheticGraphGenerator(int width, int height, long seed, int stepLon, int stepLat) {
+		if (width <= 0 || height <= 0) throw new IllegalArgumentException("empty grid");
+		if (stepLon < 4 || stepLat < 4) throw new IllegalArgumentException("grid nodes too close");
+		this.width = width;
+		this.height = height;
+		this.stepLon = stepLon;
+		this.stepLat = stepLat;
+		nodes = width * height;
+		random = new Random(seed);
+		lons = new int[nodes];
+		lats = new int[nodes];
+		out = new IntIntOpenHashMap[nodes];
+		in = new IntIntOpenHashMap[nodes];
+		for (int n = 0; n < nodes; ++n) {
+			lons[n] = BASE_LON + (n % width) * stepLon + random.nextInt(stepLon / 4);
+			lats[n] = BASE_LAT + (n / width) * stepLat + random.nextInt(stepLat / 4);
+			out[n] = new IntIntOpenHashMap();
+			in[n] = new IntIntOpenHashMap();
+		}
+
+		// roads: travel time 3-5 per meter
+		for (int n = 0; n < nodes; ++n) {
+			if (n % width + 1 < width && 0 != random.nextInt(10)) road(n, n + 1, 3 + random.nextInt(3));
+			if (n / width + 1 < height && 0 != random.nextInt(10)) road(n, n + width, 3 + random.nextInt(3));
+		}
+		// highways: travel time 2 per meter, up to a tenth of the grid size long
+		final int range = Math.max(2, Math.max(width, height) / 10);
+		for (int k = 0; k < nodes / 50; ++k) {
+			final int a = random.nextInt(nodes);
+			final int x = a % width + random.nextInt(2 * range + 1) - range, y = a / width + random.nextInt(2 * range + 1) - range;
+			if (x < 0 || x >= width || y < 0 || y >= height || a == y * width + x) continue;
+			road(a, y * width + x, 2);
+		}
+		roads = edgeFrom.size();
+	}
+
+	/** euclid length in meters (approximated for 48°N) */
+	private int euclid(int a, int b) {
+		final double dy = (lats[a] - lats[b]) * 0.0111, dx = (lons[a] - lons[b]) * 0.0111 * 0.67;
+		return (int) Math.sqrt(dx*dx + dy*dy) + 1;
+	}
+
+	private void road(int a, int b, int timePerMeter) {
+		final int euclid = euclid(a, b);
+		addEdge(a, b, euclid * timePerMeter, euclid, -1, -1);
+		addEdge(b, a, euclid * timePerMeter, euclid, -1, -1);
+	}
+
+	/**
+	 * Add an edge to the remaining graph; an existing edge between the nodes is
+	 * only replaced if the new one is shorter (it stays in the file)
+	 */
+	private void addEdge(int from, int to, int dist, int euclid, int shortcut1, int shortcut2) {
+		if (out[from].containsKey(to) && edgeDist.get(out[from].lget()) <= dist) return;
+		final int edge = edgeFrom.size();
+		edgeFrom.add(from);
+		edgeTo.add(to);
+		edgeDist.add(dist);
+		edgeEuclid.add(euclid);
+		edgeShortcut1.add(shortcut1);
+		edgeShortcut2.add(shortcut2);
+		out[from].put(to, edge);
+		in[to].put(from, edge);
+	}
+
+	/**
+	 * Contract the nodes (lowest edge difference first, updated lazily) until
+	 * coreSize nodes are left
+	 *
+	 * @return writer with the contracted graph
+	 */
+	public GraphWriter contract(int coreSize) {
+		if (coreSize <= 0 || coreSize > nodes) throw new IllegalArgumentException("core size must be in 1.." + nodes);
+		final long startTime = System.currentTimeMillis();
+		final int[] level = new int[nodes];
+		final boolean[] contracted = new boolean[nodes];
+		final int[] contractedNeighbours = new int[nodes];
+
+		// entries: priority (shifted to be positive) << 32 | node
+		final PriorityQueue<Long> queue = new PriorityQueue<Long>(nodes);
+		for (int n = 0; n < nodes; ++n) queue.add(queueEntry(priority(n, contractedNeighbours), n));
+
+		for (int next = 0; next < nodes - coreSize;) {
+			final long entry = queue.poll();
+			final int v = (int) entry;
+			final long updated = queueEntry(priority(v, contractedNeighbours), v);
+			if (!queue.isEmpty() && updated > queue.peek()) {
+				queue.add(updated);
+				continue;
+			}
+
+			contractNode(v, true);
+			contracted[v] = true;
+			level[v] = next++;
+			for (final IntIntCursor c: in[v]) {
+				out[c.key].remove(v);
+				++contractedNeighbours[c.key];
+			}
+			for (final IntIntCursor c: out[v]) {
+				in[c.key].remove(v);
+				++contractedNeighbours[c.key];
+			}
+			out[v].clear();
+			in[v].clear();
+		}
+		if (GraphReader.DEBUG) Log.d("Offline TP", "<- contracted " + (nodes - coreSize) + " nodes in " + (System.currentTimeMillis() - startTime) + "ms");
+
+		final GraphWriter writer = new GraphWriter(BLOCK_SIZE, CELL_NODES * stepLon, CELL_NODES * stepLat);
+		for (int n = 0; n < nodes; ++n) writer.addNode(lons[n], lats[n], contracted[n] ? level[n] : nodes, !contracted[n]);
+		for (int e = 0; e < edgeFrom.size(); ++e) {
+			if (-1 == edgeShortcut1.get(e)) {
+				writer.addEdge(edgeFrom.get(e), edgeTo.get(e), edgeDist.get(e), edgeEuclid.get(e));
+			} else {
+				writer.addShortcut(edgeShortcut1.get(e), edgeShortcut2.get(e));
+			}
+		}
+		return writer;
+	}
+
+	private static long queueEntry(int priority, int node) {
+		return ((long) (priority + (1 << 30)) << 32) | node;
+	}
+
+	/** edge difference plus number of contracted neighbours */
+	private int priority(int v, int[] contractedNeighbours) {
+		return contractNode(v, false) - in[v].size() - out[v].size() + contractedNeighbours[v];
+	}
+
+	/**
+	 * Find the shortcuts needed to contract v: one for each pair of neighbours
+	 * u -> v -> w without a shorter (or equal) witness path avoiding v
+	 *
+	 * @param add whether to add the shortcuts
+	 * @return number of needed shortcuts
+	 */
+	private int contractNode(int v, boolean add) {
+		int maxOut = 0;
+		for (final IntIntCursor c: out[v]) maxOut = Math.max(maxOut, edgeDist.get(c.value));
+
+		int shortcuts = 0;
+		final IntIntOpenHashMap dist = new IntIntOpenHashMap();
+		final PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		// copy: adding shortcuts changes the maps of the neighbours
+		final int[] inEdges = in[v].values().toArray();
+		final int[] outEdges = out[v].values().toArray();
+		for (final int inEdge: inEdges) {
+			final int u = edgeFrom.get(inEdge);
+			final int du = edgeDist.get(inEdge);
+
+			// witness search from u without v
+			final long limit = (long) du + maxOut;
+			dist.clear();
+			queue.clear();
+			dist.put(u, 0);
+			queue.add((long) u);
+			for (int settled = 0; !queue.isEmpty() && settled < WITNESS_SETTLE_LIMIT; ++settled) {
+				final long entry = queue.poll();
+				final int x = (int) entry, dx = (int) (entry >>> 32);
+				if (dx > dist.get(x)) continue;
+				if (dx > limit) break;
+				for (final IntIntCursor c: out[x]) {
+					if (c.key == v) continue;
+					final int d = dx + edgeDist.get(c.value);
+					if (!dist.containsKey(c.key) || d < dist.lget()) {
+						dist.put(c.key, d);
+						queue.add(((long) d << 32) | c.key);
+					}
+				}
+			}
+
+			for (final int outEdge: outEdges) {
+				final int w = edgeTo.get(outEdge);
+				if (w == u) continue;
+				final int d = du + edgeDist.get(outEdge);
+				if (dist.containsKey(w) && dist.lget() <= d) continue;
+				++shortcuts;
+				if (add) addEdge(u, w, d, edgeEuclid.get(inEdge) + edgeEuclid.get(outEdge), inEdge, outEdge);
+			}
+		}
+		return shortcuts;
+	}
+}
@@ -0,0 +1,84 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Part of an offline query that runs in a worker thread while the query
+ * thread does something else; see {@link #start(Executor)} and {@link #join()}.
+ * <p>
+ * Tasks are never interrupted: an interrupt would close the channels of the
+ * reader the task uses.
+ */
+abstract class BackgroundTask<T> implements Runnable {
+	private final CountDownLatch done = new CountDownLatch(1);
+	private T result;
+	private Throwable error;
+
+	abstract T call() throws IOException, InterruptedException;
+
+	@Override
+	public final void run() {
+		try {
+			result = call();
+		} catch (Throwable e) {
+			error = e;
+		} finally {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Run the task in executor; if executor is null or has no free thread the
+	 * task runs in the calling thread before this returns.
+	 *
+	 * @return this
+	 */
+	final BackgroundTask<T> start(Executor executor) {
+		if (null != executor) {
+			try {
+				executor.execute(this);
+				return this;
+			} catch (RejectedExecutionException e) {
+			}
+		}
+		run();
+		return this;
+	}
+
+	/**
+	 * Wait until the task is done; an interrupt while waiting is thrown as
+	 * {@link InterruptedException} after the task is done.
+	 *
+	 * @return result of the task
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	final T join() throws IOException, InterruptedException {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (null != error) rethrow(error);
+		if (interrupted) throw new InterruptedException();
+		return result;
+	}
+
+	/**
+	 * Throw an error caught in another thread in the calling thread
+	 */
+	static void rethrow(Throwable e) throws IOException, InterruptedException {
+		if (e instanceof IOException) throw (IOException) e;
+		if (e instanceof InterruptedException) throw (InterruptedException) e;
+		if (e instanceof RuntimeException) throw (RuntimeException) e;
+		if (e instanceof Error) throw (Error) e;
+		throw new RuntimeException(e);
+	}
+}
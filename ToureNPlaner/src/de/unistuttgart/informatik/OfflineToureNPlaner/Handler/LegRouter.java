@@ -0,0 +1,240 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import android.util.Log;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.BidirectionalCHQuery;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.CompactQueryGraph;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.Dijkstra;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.DijkstraWorkspace;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.GraphReader;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.NestedCompactCoreGraph;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.NestedGraph;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.NestedSimpleGraph;
+
+/**
+ * Calculates the legs of a route for the {@link OfflineRoutingEngine}: owns a
+ * reader, the query graphs and the search storage, and shares the read-only
+ * core graph with the other routers, so routers can run concurrently.
+ * <p>
+ * The upward graphs of the last few start and destination nodes are kept, so
+ * moving only one end of a leg rebuilds only the graph for that end. If both
+ * are missing, the graph of the destination is read with a second reader in a
+ * helper thread while the graph of the start is read.
+ * <p>
+ * The core graph can be set after the router is created (see {@link #setCore(NestedGraph, NestedCompactCoreGraph)}),
+ * so the upward graphs of the first leg can be read while the core graph is loaded.
+ * <p>
+ * Not thread-safe; a router calculates one leg at a time.
+ */
+final class LegRouter {
+	/** path of one leg */
+	static final class Leg {
+		/** latitude/longitude pairs in degree*1E7, see {@link GraphReader#way_coords} */
+		int[] way_coords;
+		/** euclid length */
+		int distance;
+		/** sum of the edge distances */
+		int length;
+	}
+
+	/** number of upward graphs kept per direction */
+	private static final int UPWARD_CACHE_SIZE = 8;
+
+	/** upward graph of a node, and the reversed graph for the backward search (built when needed) */
+	private static final class Upward {
+		final NestedSimpleGraph graph;
+		NestedSimpleGraph reversed;
+
+		Upward(NestedSimpleGraph graph) {
+			this.graph = graph;
+		}
+
+		NestedSimpleGraph reversed() {
+			if (null == reversed) reversed = graph.reversed();
+			return reversed;
+		}
+	}
+
+	/** least recently used upward graphs by node id */
+	private static final class UpwardCache extends LinkedHashMap<Integer, Upward> {
+		private static final long serialVersionUID = 1L;
+
+		UpwardCache() {
+			super(2 * UPWARD_CACHE_SIZE, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Upward> eldest) {
+			return size() > UPWARD_CACHE_SIZE;
+		}
+	}
+
+	final GraphReader reader;
+	/** reader for the upward graphs of the destinations; may be {@link #reader} */
+	final GraphReader inReader;
+	/** runs the helper task reading the destination's upward graph; null to read it in the calling thread */
+	private final Executor helpers;
+	private NestedGraph coreGraph;
+	/** query graph for {@link #coreGraph} if it is loaded to the heap; null otherwise */
+	private CompactQueryGraph forwardQueryGraph;
+	/** query graph for the transposed {@link #coreGraph}; null if the query runs unidirectional */
+	private CompactQueryGraph backwardQueryGraph;
+	/** search storage reused by all legs */
+	private final DijkstraWorkspace forwardWorkspace = new DijkstraWorkspace(), backwardWorkspace = new DijkstraWorkspace();
+	/** upward graphs of start nodes (outgoing edges) and destination nodes (incoming edges) */
+	private final UpwardCache outCache = new UpwardCache(), inCache = new UpwardCache();
+	private int upwardHits, upwardMisses;
+
+	/**
+	 * @param reader   reader to use; may only be used by this router while it calculates a leg
+	 * @param inReader reader for the upward graphs of the destinations (same rules as for reader); if it
+	 *                 is reader, the upward graphs are read one after the other
+	 * @param helpers  executor for the helper task; null to read the upward graphs one after the other
+	 */
+	LegRouter(GraphReader reader, GraphReader inReader, Executor helpers) {
+		this.reader = reader;
+		this.inReader = inReader;
+		this.helpers = (inReader != reader) ? helpers : null;
+	}
+
+	/**
+	 * Set the core graph; needed before {@link #route(int, int)}.
+	 *
+	 * @param coreGraph    core graph (shared)
+	 * @param reversedCore transposed core graph (shared) for the bidirectional query; null for unidirectional queries
+	 */
+	void setCore(NestedGraph coreGraph, NestedCompactCoreGraph reversedCore) {
+		if (coreGraph == this.coreGraph) return;
+		this.coreGraph = coreGraph;
+		if (coreGraph instanceof NestedCompactCoreGraph) {
+			forwardQueryGraph = new CompactQueryGraph((NestedCompactCoreGraph) coreGraph);
+			backwardQueryGraph = (null != reversedCore) ? new CompactQueryGraph(reversedCore) : null;
+		} else {
+			forwardQueryGraph = backwardQueryGraph = null;
+		}
+	}
+
+	/**
+	 * Calculate the shortest path between two graph nodes
+	 *
+	 * @return leg, or null if no path was found
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	Leg route(int start, int dest) throws IOException, InterruptedException {
+		Log.d("Offline TP", "** Search path from: " + start + " -> " + dest);
+
+		// Log.d("Offline TP", "-- Reading edges transitively from source and destination...");
+		prefetch(start, dest);
+		final Upward out = outCache.get(start);
+		NestedSimpleGraph outGraph = out.graph;
+		outGraph.setParent(coreGraph);
+
+		final Upward in = inCache.get(dest);
+		NestedSimpleGraph inGraph = in.graph;
+		inGraph.setParent(outGraph);
+
+		final IntArrayDeque path_nodes, path_edges;
+		final int path_length;
+		if (null != backwardQueryGraph) {
+			// the backward search runs on the same edges reversed
+			forwardQueryGraph.build(inGraph, outGraph);
+			backwardQueryGraph.build(forwardQueryGraph, out.reversed(), in.reversed());
+			Log.d("Offline TP", "-- query graphs built in " + (forwardQueryGraph.getBuildTime() + backwardQueryGraph.getBuildTime()) + "us");
+
+			// Log.d("Offline TP", "-- Search shortest path: running bidirectional search...");
+			BidirectionalCHQuery query = new BidirectionalCHQuery(forwardQueryGraph, backwardQueryGraph, forwardWorkspace, backwardWorkspace);
+			query.setStallOnDemand(reader);
+			if (!query.run(start, dest)) {
+				Log.e("Offline TP", "** Dijkstra didn't find a path");
+				return null;
+			}
+			path_nodes = query.path_nodes;
+			path_edges = query.path_edges;
+			path_length = query.path_length;
+		} else {
+			final Dijkstra dijkstra;
+			if (null != forwardQueryGraph) {
+				forwardQueryGraph.build(inGraph, outGraph);
+				Log.d("Offline TP", "-- query graph built in " + forwardQueryGraph.getBuildTime() + "us");
+				dijkstra = new Dijkstra(forwardQueryGraph, forwardWorkspace);
+			} else {
+				dijkstra = new Dijkstra(inGraph, forwardWorkspace);
+			}
+
+			// Log.d("Offline TP", "-- Search shortest path: running Dijkstra...");
+			if (!dijkstra.run(start, dest)) {
+				Log.e("Offline TP", "** Dijkstra didn't find a path");
+				return null;
+			}
+			path_nodes = dijkstra.path_nodes;
+			path_edges = dijkstra.path_edges;
+			path_length = dijkstra.path_length;
+		}
+
+		// Log.d("Offline TP", "-- Expanding shortcuts...");
+		reader.expandShortcuts(path_nodes, path_edges);
+
+		// Log.d("Offline TP", "-- Loading coords for path...");
+		reader.loadWayCoords();
+
+		final Leg leg = new Leg();
+		leg.way_coords = reader.way_coords;
+		leg.distance = reader.path_euclid_length;
+		leg.length = path_length;
+
+		Log.d("Offline TP", "** reader caches: " + reader.cacheStatistics());
+		reader.resetCacheStatistics();
+		if (inReader != reader) {
+			Log.d("Offline TP", "** destination reader caches: " + inReader.cacheStatistics());
+			inReader.resetCacheStatistics();
+		}
+		Log.d("Offline TP", "** search storage: " + forwardWorkspace + ", " + backwardWorkspace + ", upward graphs reused: " + upwardHits + "/" + (upwardHits + upwardMisses));
+		forwardWorkspace.resetStatistics();
+		backwardWorkspace.resetStatistics();
+		upwardHits = upwardMisses = 0;
+
+		return leg;
+	}
+
+	/**
+	 * Make sure the upward graphs of start and dest are in the caches; doesn't need the core graph.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	void prefetch(final int start, final int dest) throws IOException, InterruptedException {
+		final boolean haveOut = outCache.containsKey(start), haveIn = inCache.containsKey(dest);
+		if (haveOut) ++upwardHits; else ++upwardMisses;
+		if (haveIn) ++upwardHits; else ++upwardMisses;
+
+		if (!haveOut && !haveIn) {
+			final BackgroundTask<NestedSimpleGraph> in = new BackgroundTask<NestedSimpleGraph>() {
+				@Override
+				NestedSimpleGraph call() throws IOException, InterruptedException {
+					return inReader.createGraphWithoutCore(dest, false);
+				}
+			}.start(helpers);
+			final NestedSimpleGraph outGraph;
+			try {
+				outGraph = reader.createGraphWithoutCore(start, true);
+			} finally {
+				// the reader of the task must not be used by anybody else while it runs
+				in.join();
+			}
+			outCache.put(start, new Upward(outGraph));
+			inCache.put(dest, new Upward(in.join()));
+		} else if (!haveOut) {
+			outCache.put(start, new Upward(reader.createGraphWithoutCore(start, true)));
+		} else if (!haveIn) {
+			inCache.put(dest, new Upward(inReader.createGraphWithoutCore(dest, false)));
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.AlgorithmInfo;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
@@ -53,7 +54,7 @@ public class OfflineAlgorithmInfo implements AlgorithmInfo {
 
 	@Override
 	public int getMaxPoints() {
-		return 2;
+		return Integer.MAX_VALUE;
 	}
 
 	@Override
@@ -79,4 +80,18 @@ public class OfflineAlgorithmInfo implements AlgorithmInfo {
 		handler.execute();
 		return handler;
 	}
+
+	/**
+	 * Search the real nodes closest to the given locations in one background task
+	 *
+	 * @param listener  object to report results to (once per node, like {@link #executeNN(Observer, Session, Node)})
+	 * @param session   session
+	 * @param nodes     the locations to search for
+	 * @return one {@link AlgorithmRequestNN} per node
+	 */
+	public ArrayList<AlgorithmRequestNN> executeNN(Observer listener, Session session, List<Node> nodes) {
+		final OfflineBatchNNHandler handler = new OfflineBatchNNHandler(listener, nodes);
+		handler.execute();
+		return handler.getRequests();
+	}
 }
@@ -0,0 +1,131 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Result;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.ResultNode;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequestNN;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.Handler.AsyncHandler;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+/**
+ * Searches the nearest graph nodes for many nodes in one background task.
+ * <p>
+ * Each node gets its own {@link AlgorithmRequestNN} (see {@link #getRequests()}),
+ * which reports like an {@link OfflineNNHandler}: the request as caller and a
+ * {@link Result} with the found point. Requests of nodes without a graph node
+ * nearby report an error, so every request completes.
+ */
+public final class OfflineBatchNNHandler extends AsyncHandler {
+	private final ArrayList<Node> nodes;
+	private final ArrayList<NodeRequest> requests;
+
+	private final class NodeRequest implements AlgorithmRequestNN {
+		private final Node node;
+		private WeakReference<Observer> listener;
+		private boolean cancelled = false;
+
+		NodeRequest(Node node, Observer listener) {
+			this.node = node;
+			setListener(listener);
+		}
+
+		@Override
+		public Node getNode() {
+			return node;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (cancelled) return false;
+			cancelled = true;
+			// stop the search if nobody waits for it anymore
+			for (NodeRequest r: requests) {
+				if (!r.cancelled) return true;
+			}
+			OfflineBatchNNHandler.this.cancel(mayInterruptIfRunning);
+			return true;
+		}
+
+		@Override
+		public void setListener(Observer listener) {
+			this.listener = new WeakReference<Observer>(listener);
+		}
+
+		void report(Object object) {
+			if (object instanceof Exception) {
+				reportError(object);
+				return;
+			}
+			if (cancelled) return;
+			final Observer l = listener.get();
+			if (null != l) l.onCompleted(this, object);
+		}
+
+		void reportError(Object error) {
+			if (cancelled) return;
+			final Observer l = listener.get();
+			if (null != l) l.onError(this, error);
+		}
+	}
+
+	public OfflineBatchNNHandler(Observer listener, List<Node> nodes) {
+		super(listener);
+		this.nodes = new ArrayList<Node>(nodes);
+		requests = new ArrayList<NodeRequest>(nodes.size());
+		for (Node node: nodes) requests.add(new NodeRequest(node, listener));
+	}
+
+	/**
+	 * @return one request per node, in the order of the nodes
+	 */
+	public ArrayList<AlgorithmRequestNN> getRequests() {
+		return new ArrayList<AlgorithmRequestNN>(requests);
+	}
+
+	@Override
+	protected Object doInBackground(Void... arg0) {
+		final Position[] points = new Position[nodes.size()];
+		for (int k = 0; k < points.length; ++k) points[k] = Position.from(nodes.get(k).getGeoPoint());
+
+		try {
+			return OfflineRoutingEngine.getInstance().findNearest(points);
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+			return e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Will be run in UI thread; reports to the listeners of the node requests
+	 */
+	@Override
+	public void onPostExecute(Object object) {
+		if (null == object) return;
+		if (object instanceof Exception) {
+			for (NodeRequest r: requests) r.report(object);
+			return;
+		}
+
+		final Position[] found = (Position[]) object;
+		for (int k = 0; k < found.length; ++k) {
+			if (null == found[k]) {
+				// TODO translate
+				requests.get(k).reportError("No road found near " + nodes.get(k).getName());
+				continue;
+			}
+			final Result result = new Result();
+			result.getPoints().add(new ResultNode(found[k].toPoint()));
+			requests.get(k).report(result);
+		}
+	}
+}
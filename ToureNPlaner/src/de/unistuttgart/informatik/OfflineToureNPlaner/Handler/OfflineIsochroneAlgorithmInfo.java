@@ -0,0 +1,59 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.util.ArrayList;
+
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Constraints.ConstraintType;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Constraints.FloatConstraint;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequest;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.Session;
+
+/**
+ * Area reachable from one point within a travel time, see {@link OfflineIsochroneHandler}
+ */
+public class OfflineIsochroneAlgorithmInfo extends OfflineAlgorithmInfo {
+	/** id of the travel time constraint (minutes) */
+	public static final String MINUTES_CONSTRAINT = "minutes";
+	public static final float DEFAULT_MINUTES = 20;
+
+	final private ArrayList<ConstraintType> constraintTypes = new ArrayList<ConstraintType>();
+
+	public OfflineIsochroneAlgorithmInfo() {
+		// TODO translate
+		constraintTypes.add(new FloatConstraint("Travel time", "Maximum travel time in minutes", MINUTES_CONSTRAINT, 1, 60));
+	}
+
+	@Override
+	public String getName() {
+		// TODO translate
+		return "Offline Reachability";
+	}
+
+	@Override
+	public String getDescription() {
+		// TODO translate
+		return "Shows the area reachable within a travel time with offline graph data";
+	}
+
+	@Override
+	public int getMinPoints() {
+		return 1;
+	}
+
+	@Override
+	public int getMaxPoints() {
+		return 1;
+	}
+
+	@Override
+	public ArrayList<ConstraintType> getConstraintTypes() {
+		return constraintTypes;
+	}
+
+	@Override
+	public AlgorithmRequest execute(Observer listener, Session session) {
+		final OfflineIsochroneHandler handler = new OfflineIsochroneHandler(listener, session);
+		handler.execute();
+		return handler;
+	}
+}
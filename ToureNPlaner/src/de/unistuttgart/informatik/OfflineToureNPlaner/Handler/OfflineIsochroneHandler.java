@@ -0,0 +1,65 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.io.IOException;
+
+import android.util.Log;
+
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Result;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.ResultNode;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Constraints.Constraint;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequest;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.Handler.AsyncHandler;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+/**
+ * Finds the area reachable from the first node of the session within the
+ * time set in the {@link OfflineIsochroneAlgorithmInfo#MINUTES_CONSTRAINT} constraint;
+ * the result way is an approximate outline of the area (see
+ * {@link OfflineRoutingEngine#isochrone(Position, int)}), the result point the
+ * start node.
+ */
+public class OfflineIsochroneHandler extends AsyncHandler implements AlgorithmRequest {
+	private final Node node;
+	private final int seconds;
+
+	public OfflineIsochroneHandler(de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer listener, de.uni.stuttgart.informatik.ToureNPlaner.Net.Session session) {
+		super(listener);
+
+		node = session.getNodeModel().getNodeVector().get(0);
+
+		float minutes = OfflineIsochroneAlgorithmInfo.DEFAULT_MINUTES;
+		if (null != session.getConstraints()) for (Constraint c: session.getConstraints()) {
+			if (OfflineIsochroneAlgorithmInfo.MINUTES_CONSTRAINT.equals(c.getType().getId()) && c.getValue() instanceof Float) {
+				minutes = (Float) c.getValue();
+			}
+		}
+		seconds = Math.round(minutes * 60);
+	}
+
+	@Override
+	protected Object doInBackground(Void... arg0) {
+		try {
+			final OfflineRoutingEngine.Isochrone isochrone = OfflineRoutingEngine.getInstance().isochrone(Position.from(node.getGeoPoint()), seconds);
+			if (null == isochrone) return null;
+
+			final Result result = new Result();
+			result.getMisc().setTime(seconds);
+			final int[] ring = isochrone.outline;
+			final int[] way_coords = new int[ring.length];
+			for (int i = 0; i < way_coords.length; i += 2) {
+				way_coords[i] = ring[i+1] / 10;
+				way_coords[i+1] = ring[i] / 10;
+			}
+			result.setWay(new int[][] { way_coords });
+			result.getPoints().add(new ResultNode(isochrone.start.toPoint()));
+			return result;
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+			return e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+}
@@ -2,11 +2,7 @@ package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
 
 import java.io.IOException;
 
-import org.mapsforge.core.GeoPoint;
-
-import android.preference.PreferenceManager;
 import android.util.Log;
-import de.uni.stuttgart.informatik.ToureNPlaner.ToureNPlanerApplication;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.Result;
 import de.uni.stuttgart.informatik.ToureNPlaner.Data.ResultNode;
@@ -14,7 +10,6 @@ import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequestNN;
 import de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer;
 import de.uni.stuttgart.informatik.ToureNPlaner.Net.Handler.AsyncHandler;
 import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
-import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.GraphReader;
 
 public final class OfflineNNHandler extends AsyncHandler implements AlgorithmRequestNN {
 	private final Node node;
@@ -32,18 +27,13 @@ public final class OfflineNNHandler extends AsyncHandler implements AlgorithmReq
 	@Override
 	protected Object doInBackground(Void... arg0) {
 		Result result = null;
-		GraphReader reader = null;
-
-		final String graphLocation = PreferenceManager.getDefaultSharedPreferences(ToureNPlanerApplication.getContext()).getString("offline_ch_location", "");
 
 		try {
-			reader = new GraphReader(new java.io.File(graphLocation));
-			int nodeID = reader.findPoint(Position.from(node.getGeoPoint()));
-			if (-1 == nodeID) return null;
-			GeoPoint point = new GeoPoint(reader.directGeo_lat / 10, reader.directGeo_lon / 10);
+			Position point = OfflineRoutingEngine.getInstance().findNearest(Position.from(node.getGeoPoint()));
+			if (null == point) return null;
 
 			result = new Result();
-			ResultNode rnStart = new ResultNode(point);
+			ResultNode rnStart = new ResultNode(point.toPoint());
 			result.getPoints().add(rnStart);
 		} catch (IOException e) {
 			Log.e("Offline TP", "IOException", e);
@@ -51,11 +41,6 @@ public final class OfflineNNHandler extends AsyncHandler implements AlgorithmReq
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			return null;
-		} finally {
-			try {
-				if (null != reader) reader.close();
-			} catch (IOException e) {
-			}
 		}
 
 		return result;
@@ -0,0 +1,801 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.mapsforge.core.GeoPoint;
+
+import android.content.ComponentCallbacks2;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import de.uni.stuttgart.informatik.ToureNPlaner.ToureNPlanerApplication;
+import de.uni.stuttgart.informatik.ToureNPlaner.ClientSideCompute.ClientComputeHandler;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Result;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.ResultNode;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.GraphFile;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.GraphReader;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.IsochroneQuery;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.ManyToManyQuery;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.NestedCompactCoreGraph;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.NestedGraph;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.PageCache;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Graph.ShortcutCache;
+
+/**
+ * Keeps the offline graph open for the lifetime of the app: the {@link GraphReader},
+ * its caches and the loaded core graph are reused by all offline requests.
+ * <p>
+ * The graph is reopened when the "offline_ch_location" preference points to a
+ * different file, and memory is released in {@link #onTrimMemory(int)}.
+ * <p>
+ * Queries are expected to run in background threads. All readers are cursors
+ * on one shared {@link GraphFile}: nearest node searches and (after loading the
+ * core graph) isochrones only need the file and run concurrently with
+ * everything else, the other queries are serialized.
+ * The legs of a route with more than two points are calculated concurrently (see
+ * {@link #MAX_WORKERS}), each by a {@link LegRouter} with its own readers and
+ * search storage. On multi-core devices the independent I/O-bound parts of a
+ * query run in {@link BackgroundTask}s with a second reader: the upward graphs
+ * of start and destination are read at the same time, the grid cell search
+ * for the nodes is split, and on a cold start the core graph is loaded while
+ * the nodes and the upward graphs of the first leg are searched. A small
+ * separate pool prefetches the pages of the upward graph searches (see
+ * {@link GraphReader#setPrefetchExecutor(Executor)}).
+ */
+public final class OfflineRoutingEngine {
+	private static final OfflineRoutingEngine instance = new OfflineRoutingEngine();
+
+	public static OfflineRoutingEngine getInstance() {
+		return instance;
+	}
+
+	/**
+	 * The constant used to compute time traveled on an edge from it's
+	 * non euclidian distance value by time=getDist(edgeId)*travelTimeConstant
+	 * time is in seconds
+	 */
+	public static final double travelTimeConstant = 0.02769230769230769230769230769230769;
+
+	/** number of slots for the direct read cache of the reader */
+	private static final int READER_CACHE_SLOTS = 32;
+
+	/**
+	 * the core graph is mapped instead of loaded to the heap if it would need more than
+	 * this fraction of the maximum heap size; the reversed core graph for the
+	 * bidirectional query is only built if both together need less than twice
+	 * this fraction.
+	 */
+	private static final int CORE_HEAP_FRACTION = 8;
+
+	/**
+	 * the spatial index is only built (if there is no sidecar file to map it from) if
+	 * its arrays need less than this fraction of the maximum heap size; otherwise
+	 * the nearest node searches walk the grid cells of the graph.
+	 */
+	private static final int SPATIAL_INDEX_HEAP_FRACTION = 8;
+
+	/** maximum number of legs calculated at the same time (the query thread counts as one) */
+	private static final int MAX_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	/** maximum number of page prefetches running at the same time */
+	private static final int PREFETCH_THREADS = 2;
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/** threads helping the query thread to calculate legs; idle threads exit after a while */
+	private static final ExecutorService workers = new ThreadPoolExecutor(0, Math.max(1, MAX_WORKERS - 1), 30, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), daemonThreads("Offline TP worker"));
+
+	/** executor for {@link BackgroundTask}s (they run in the query thread if no worker is free); null if there is only one processor */
+	private static final Executor helpers = (MAX_WORKERS > 1) ? workers : null;
+
+	/**
+	 * executor for the best-effort page prefetches, with its own threads so a
+	 * prefetch never takes a worker from the legs or the {@link BackgroundTask}s;
+	 * rejects tasks while all its threads are busy (the prefetch is skipped
+	 * then). null if there is only one processor: the prefetches would only
+	 * compete with the query.
+	 */
+	private static final Executor prefetchers = (MAX_WORKERS > 1) ? new ThreadPoolExecutor(0, PREFETCH_THREADS, 30, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), daemonThreads("Offline TP prefetch")) : null;
+
+	/** writes the shortcut caches of {@link #saveShortcutCache(ShortcutCache, File)} one after another, off the calling (possibly UI) thread */
+	private static final Executor saver = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), daemonThreads("Offline TP save"));
+
+	/** number of directions the (star-shaped) outline of an isochrone is made of */
+	private static final int ISOCHRONE_SECTORS = 72;
+	/** an isochrone query may use this fraction of the maximum heap size for the nodes in its radius; larger areas fail */
+	private static final int ISOCHRONE_HEAP_FRACTION = 4;
+
+	/** held while a query runs (and while the state below is modified) */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** trim level requested while a query was running, applied after the query */
+	private int pendingTrimLevel = 0;
+	/**
+	 * read-locked by queries using only {@link #graph} (without {@link #lock});
+	 * write-locked (with {@link #lock} held) to change {@link #graph} and {@link #graphLocation}
+	 */
+	private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+	private String graphLocation = null;
+	private GraphFile graph = null;
+	private GraphReader reader = null;
+	/** second reader for the same graph, used by {@link BackgroundTask}s; null if there are no {@link #helpers} */
+	private GraphReader helperReader = null;
+	private NestedGraph coreGraph = null;
+	/** transposed {@link #coreGraph} for the bidirectional query; null if the query runs unidirectional */
+	private NestedCompactCoreGraph reversedCore = null;
+	/** expanded shortcuts of the open graph; stored next to the graph when the graph is closed */
+	private ShortcutCache shortcutCache = null;
+	/** points of the last route and the nodes found for them, see {@link #snap(Position[])} */
+	private Position[] lastPoints = new Position[0];
+	private int[] lastNodes = new int[0];
+	/** routers for the legs (the first uses {@link #reader}); dropped when memory is trimmed */
+	private final ArrayList<LegRouter> routers = new ArrayList<LegRouter>();
+
+	private OfflineRoutingEngine() {
+	}
+
+	private static String configuredGraphLocation() {
+		return PreferenceManager.getDefaultSharedPreferences(ToureNPlanerApplication.getContext()).getString("offline_ch_location", "");
+	}
+
+	/**
+	 * @return string identifying the configured graph file and its content (for
+	 *         caches of offline results)
+	 */
+	public static String graphIdentity() {
+		final File file = new File(configuredGraphLocation());
+		return file.getPath() + ":" + GraphReader.graphStamp(file);
+	}
+
+	/**
+	 * Make sure the configured graph is open; {@link #lock} must be held.
+	 */
+	private GraphReader open() throws IOException, InterruptedException {
+		final String location = configuredGraphLocation();
+		if (null != reader && location.equals(graphLocation)) return reader;
+
+		closeReader();
+		Log.d("Offline TP", "-- opening graph " + location);
+		final File graphFile = new File(location);
+		final GraphFile file = new GraphFile(graphFile);
+		fileLock.writeLock().lock();
+		try {
+			graph = file;
+		} finally {
+			fileLock.writeLock().unlock();
+		}
+		reader = newReader();
+		if (null != helpers) helperReader = newReader();
+		try {
+			reader.openSpatialIndex(Runtime.getRuntime().maxMemory() / SPATIAL_INDEX_HEAP_FRACTION);
+		} catch (IOException e) {
+			Log.w("Offline TP", "opening spatial index failed, searching grid cells", e);
+		}
+		shortcutCache = new ShortcutCache(ShortcutCache.DEFAULT_BUDGET);
+		try {
+			if (shortcutCache.load(graphFile)) Log.d("Offline TP", "-- loaded " + shortcutCache);
+		} catch (IOException e) {
+			Log.w("Offline TP", "loading shortcut cache failed", e);
+			shortcutCache.clear();
+		}
+		reader.setShortcutCache(shortcutCache);
+		fileLock.writeLock().lock();
+		try {
+			graphLocation = location;
+		} finally {
+			fileLock.writeLock().unlock();
+		}
+		return reader;
+	}
+
+	/**
+	 * @return new reader on {@link #graph} for a query or router
+	 */
+	private GraphReader newReader() throws IOException, InterruptedException {
+		final GraphReader reader = new GraphReader(graph);
+		reader.openNCache(READER_CACHE_SLOTS);
+		reader.setPrefetchExecutor(prefetchers);
+		return reader;
+	}
+
+	/**
+	 * Open the configured graph if needed, and read-lock it (the caller must
+	 * unlock {@link #fileLock}). Doesn't wait for running queries holding {@link #lock}
+	 * unless the graph has to be opened.
+	 */
+	private GraphFile acquireGraph() throws IOException, InterruptedException {
+		final String location = configuredGraphLocation();
+		for (;;) {
+			fileLock.readLock().lockInterruptibly();
+			if (null != graph && location.equals(graphLocation)) return graph;
+			fileLock.readLock().unlock();
+
+			lock.lockInterruptibly();
+			try {
+				open();
+			} finally {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Store a shortcut cache next to the graph in the background, so it
+	 * survives the app. The cache must not be used anymore afterwards.
+	 *
+	 * @param cache     the cache, null to store nothing
+	 * @param graphFile the graph the cache was filled from
+	 */
+	private static void saveShortcutCache(final ShortcutCache cache, final File graphFile) {
+		if (null == cache) return;
+		saver.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cache.save(graphFile);
+				} catch (IOException e) {
+					Log.w("Offline TP", "saving shortcut cache failed", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Apply trim requests received while the query was running and unlock {@link #lock}
+	 */
+	private void release() {
+		try {
+			final int level;
+			synchronized (this) {
+				level = pendingTrimLevel;
+				pendingTrimLevel = 0;
+			}
+			if (0 != level) trim(level);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeReader() {
+		if (null != graphLocation) saveShortcutCache(shortcutCache, new File(graphLocation));
+		shortcutCache = null;
+		lastPoints = new Position[0];
+		lastNodes = new int[0];
+		dropRouters();
+		coreGraph = null;
+		reversedCore = null;
+		// the readers are cursors; only the file has to be closed
+		reader = null;
+		helperReader = null;
+		// wait for the nearest node searches still using the file
+		fileLock.writeLock().lock();
+		try {
+			graphLocation = null;
+			if (null != graph) graph.close();
+		} catch (IOException e) {
+		} finally {
+			graph = null;
+			fileLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Load the core graph (if not loaded yet) and the reversed core graph.
+	 *
+	 * @param reader reader to load the graph with
+	 */
+	private NestedGraph loadCoreGraph(GraphReader reader) throws IOException, InterruptedException {
+		if (null != coreGraph) return coreGraph;
+
+		final long heapSize = reader.coreGraphHeapSize();
+		final long maxCoreHeapSize = Runtime.getRuntime().maxMemory() / CORE_HEAP_FRACTION;
+		if (heapSize > maxCoreHeapSize) {
+			Log.d("Offline TP", "-- core graph needs " + (heapSize >> 10) + "kB, mapping it");
+			try {
+				coreGraph = reader.loadMappedCoreGraph();
+				return coreGraph;
+			} catch (IOException e) {
+				Log.w("Offline TP", "mapping core graph failed, loading it", e);
+			}
+		}
+		coreGraph = reader.loadCoreGraph();
+		if (coreGraph instanceof NestedCompactCoreGraph) {
+			final NestedCompactCoreGraph compactCore = (NestedCompactCoreGraph) coreGraph;
+			if (heapSize + compactCore.reversedHeapSize() <= 2 * maxCoreHeapSize) {
+				reversedCore = compactCore.reversed();
+			} else {
+				Log.d("Offline TP", "-- not enough memory for the reversed core graph, using unidirectional search");
+			}
+		}
+		return coreGraph;
+	}
+
+	/**
+	 * Load the core graph in a {@link BackgroundTask} with its own reader.
+	 * Until the task is joined, {@link #coreGraph} and {@link #reversedCore}
+	 * must not be used.
+	 */
+	private BackgroundTask<NestedGraph> startCoreLoad() {
+		final GraphReader coreReader = new GraphReader(graph);
+		return new BackgroundTask<NestedGraph>() {
+			@Override
+			NestedGraph call() throws IOException, InterruptedException {
+				return loadCoreGraph(coreReader);
+			}
+		}.start(helpers);
+	}
+
+	/**
+	 * Make sure there are at least {@code count} routers; {@link #lock} must be held.
+	 */
+	private void createRouters(int count) throws IOException, InterruptedException {
+		while (routers.size() < count) {
+			final GraphReader routerReader, inReader;
+			if (routers.isEmpty()) {
+				routerReader = reader;
+				inReader = (null != helperReader) ? helperReader : reader;
+			} else {
+				routerReader = newReader();
+				routerReader.setShortcutCache(shortcutCache);
+				inReader = (null != helpers) ? newReader() : routerReader;
+			}
+			routers.add(new LegRouter(routerReader, inReader, helpers));
+		}
+	}
+
+	/** drop the routers (their readers are cursors on {@link #graph} and need not be closed) */
+	private void dropRouters() {
+		routers.clear();
+	}
+
+	/**
+	 * Release memory; called from the application.
+	 *
+	 * @param level see {@link ComponentCallbacks2}
+	 */
+	public void onTrimMemory(int level) {
+		if (level < ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) return;
+
+		ClientComputeHandler.trimMemory();
+
+		// don't block the UI thread while a query is running; let the query trim when it's done
+		if (lock.tryLock()) {
+			try {
+				trim(level);
+			} finally {
+				lock.unlock();
+			}
+		} else {
+			synchronized (this) {
+				pendingTrimLevel = Math.max(pendingTrimLevel, level);
+			}
+			// the pages are not needed by the running query, they are referenced by the readers
+			PageCache.getInstance().clear();
+		}
+	}
+
+	/** lock must be held */
+	private void trim(int level) {
+		Log.d("Offline TP", "-- trim memory, level " + level);
+		PageCache.getInstance().clear();
+		if (null != shortcutCache) {
+			// trim may run on the UI thread: store the filled cache in the background and continue with an empty one
+			final ShortcutCache filled = shortcutCache;
+			shortcutCache = new ShortcutCache(filled.getMemoryBudget());
+			reader.setShortcutCache(shortcutCache);
+			if (null != graphLocation) saveShortcutCache(filled, new File(graphLocation));
+		}
+		dropRouters();
+		coreGraph = null;
+		reversedCore = null;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) closeReader();
+	}
+
+	/**
+	 * Find the graph node closest to {@code point}
+	 *
+	 * @param point
+	 * @return position of the found node, or null if no node was found
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Position findNearest(Position point) throws IOException, InterruptedException {
+		final GraphFile graph = acquireGraph();
+		try {
+			return graph.findNearest(point);
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the graph nodes closest to {@code points}, sharing a reader's caches
+	 * between the searches
+	 *
+	 * @param points
+	 * @return positions of the found nodes in the order of points; null entries for points no node was found for
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @see GraphReader#findPoints(Position[])
+	 */
+	public Position[] findNearest(Position[] points) throws IOException, InterruptedException {
+		final GraphFile graph = acquireGraph();
+		try {
+			return graph.findNearest(points);
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Calculate the travel times between all graph nodes closest to {@code points}
+	 *
+	 * @param points
+	 * @return matrix (row per start point) with travel times in seconds (see {@link #travelTimeConstant}),
+	 *   or {@link ManyToManyQuery#NO_PATH} for pairs without a path
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @see ManyToManyQuery
+	 */
+	public int[] travelTimeTable(Position[] points) throws IOException, InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			final GraphReader reader = open();
+			final int[] nodes = reader.findPoints(points);
+			final int[] table = new ManyToManyQuery(reader, loadCoreGraph(reader)).run(nodes, nodes);
+			for (int i = 0; i < table.length; ++i) {
+				if (ManyToManyQuery.NO_PATH != table[i]) table[i] = (int) Math.round(table[i] * travelTimeConstant);
+			}
+			Log.d("Offline TP", "** reader caches: " + reader.cacheStatistics());
+			reader.resetCacheStatistics();
+			return table;
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Area reachable from a graph node, see {@link OfflineRoutingEngine#isochrone(Position, int)}
+	 */
+	public static final class Isochrone {
+		/** position of the start node */
+		public final Position start;
+		/** reached graph nodes, in order of increasing travel time (the start node first) */
+		public final int[] nodes;
+		/** travel times to {@link #nodes} in seconds */
+		public final int[] seconds;
+		/**
+		 * approximate outline of the area: closed ring of latitude/longitude
+		 * pairs in degree*1E7, see {@link IsochroneQuery#starOutline(int)}
+		 */
+		public final int[] outline;
+
+		Isochrone(Position start, int[] nodes, int[] seconds, int[] outline) {
+			this.start = start;
+			this.nodes = nodes;
+			this.seconds = seconds;
+			this.outline = outline;
+		}
+	}
+
+	/**
+	 * Find the area reachable from the graph node closest to {@code from}
+	 * <p>
+	 * The outline is an approximation (see {@link IsochroneQuery#starOutline(int)}):
+	 * star-shaped around the start, with {@link #ISOCHRONE_SECTORS} directions,
+	 * so it can include unreachable parts close to the start and exclude reached
+	 * nodes between two directions.
+	 * <p>
+	 * The query only holds {@link #lock} while the core graph is loaded, so
+	 * routes and nearest node searches aren't blocked while it runs.
+	 *
+	 * @param from
+	 * @param seconds maximum travel time
+	 * @return the reached nodes with their travel times and the outline of the area, or null if no node was found
+	 * @throws IOException also if the area is too large for the available memory
+	 * @throws InterruptedException
+	 * @see IsochroneQuery
+	 */
+	public Isochrone isochrone(Position from, int seconds) throws IOException, InterruptedException {
+		NestedGraph core;
+		GraphFile file;
+		for (;;) {
+			lock.lockInterruptibly();
+			try {
+				core = loadCoreGraph(open());
+				file = graph;
+			} finally {
+				release();
+			}
+			// the query only needs the file, which can't be closed while it is read-locked
+			fileLock.readLock().lockInterruptibly();
+			if (file == graph) break;
+			// closed (trimmed or another graph configured) in between
+			fileLock.readLock().unlock();
+		}
+		try {
+			final long startTime = System.currentTimeMillis();
+			final GraphReader reader = new GraphReader(file);
+			reader.openNCache(READER_CACHE_SLOTS);
+			final int start = reader.findPoint(from);
+			if (-1 == start) {
+				Log.e("Offline TP", "** Couldn't find node for start point");
+				return null;
+			}
+			final Position startPosition = Position.fromE7(reader.directGeo_lat, reader.directGeo_lon);
+			// the index is opened with the graph; building it here could exceed the memory open() allowed for it
+			if (null == reader.getSpatialIndex()) throw new IOException("isochrone needs the spatial index, which couldn't be opened");
+
+			final IsochroneQuery query = new IsochroneQuery(reader, core);
+			query.setMaxCandidates((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / ISOCHRONE_HEAP_FRACTION / IsochroneQuery.CANDIDATE_HEAP_SIZE));
+			query.run(start, (int) (seconds / travelTimeConstant), seconds * IsochroneQuery.MAX_SPEED);
+
+			final int[] nodes = query.reached_nodes.toArray();
+			final int[] times = new int[nodes.length];
+			for (int k = 0; k < times.length; ++k) times[k] = (int) Math.round(query.reached_dists.get(k) * travelTimeConstant);
+
+			Log.d("Offline TP", "** " + nodes.length + " nodes reachable in " + seconds + "s, completed in " + (System.currentTimeMillis() - startTime) + "ms, " + PageCache.getInstance());
+			Log.d("Offline TP", "** reader caches: " + reader.cacheStatistics());
+			return new Isochrone(startPosition, nodes, times, query.starOutline(ISOCHRONE_SECTORS));
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Calculate the shortest path between the graph nodes closest to {@code from} and {@code to}
+	 *
+	 * @param from
+	 * @param to
+	 * @return result containing the way, or null if no path was found
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Result route(Position from, Position to) throws IOException, InterruptedException {
+		return route(new Position[] { from, to });
+	}
+
+	/**
+	 * Calculate the shortest path through the graph nodes closest to {@code points}
+	 * (in the given order). The legs between two points are calculated concurrently.
+	 *
+	 * @param points at least two points
+	 * @return result containing one way per leg and one point per given point, or null if no path was found
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Result route(Position[] points) throws IOException, InterruptedException {
+		if (points.length < 2) throw new IllegalArgumentException("need at least two points");
+		lock.lockInterruptibly();
+		try {
+			final GraphReader reader = open();
+			final long startTime = System.currentTimeMillis();
+
+			// on a cold start the core graph is loaded while the nodes and the first leg's upward graphs are searched
+			final BackgroundTask<NestedGraph> coreLoad = (null == coreGraph && null != helpers) ? startCoreLoad() : null;
+			final int[] nodes;
+			try {
+				// Log.d("Offline TP", "-- Searching nodes...");
+				nodes = snap(points);
+				for (int k = 0; k < nodes.length; ++k) {
+					if (-1 == nodes[k]) {
+						Log.e("Offline TP", "** Couldn't find node for point " + k);
+						return null;
+					}
+				}
+				if (null != coreLoad) {
+					createRouters(1);
+					routers.get(0).prefetch(nodes[0], nodes[1]);
+				}
+			} finally {
+				if (null != coreLoad) coreLoad.join();
+			}
+
+			// Log.d("Offline TP", "-- Loading core graph...");
+			loadCoreGraph(reader);
+
+			final LegRouter.Leg[] legs = routeLegs(nodes);
+			if (null == legs) return null;
+
+			// --------------------------------------------------------------------------------
+			Result result = new Result();
+			final int[][] ways = new int[legs.length][];
+			int totalDistance = 0;
+			double totalTime = 0;
+			{
+				final int[] first = legs[0].way_coords;
+				result.getPoints().add(new ResultNode(new GeoPoint(first[0]/10, first[1]/10)));
+			}
+			for (int l = 0; l < legs.length; ++l) {
+				final int[] leg_coords = legs[l].way_coords;
+				final int[] way_coords = new int[leg_coords.length];
+				for (int i = 0; i < way_coords.length; i += 2) {
+					way_coords[i] = leg_coords[i+1] / 10;
+					way_coords[i+1] = leg_coords[i] / 10;
+				}
+				ways[l] = way_coords;
+
+				final double legTime = legs[l].length * travelTimeConstant;
+				totalDistance += legs[l].distance;
+				totalTime += legTime;
+				final int len = leg_coords.length;
+				result.getPoints().add(new ResultNode(-1, new GeoPoint(leg_coords[len-2]/10, leg_coords[len-1]/10), "", "",
+						new HashMap<String, String>(), legs[l].distance, legTime));
+			}
+			result.setWay(ways);
+			result.getMisc().setDistance(totalDistance);
+			result.getMisc().setTime((float) totalTime);
+			// --------------------------------------------------------------------------------
+
+			Log.d("Offline TP", "** " + legs.length + " legs completed in " + (System.currentTimeMillis() - startTime) + "ms, " + PageCache.getInstance());
+			return result;
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Find the graph nodes closest to points; nodes found for the points of
+	 * the last route are reused (when a single point is dragged only that point
+	 * is searched). {@link #lock} must be held.
+	 *
+	 * @return node ids, -1 for points no node was found for
+	 */
+	private int[] snap(Position[] points) throws IOException, InterruptedException {
+		final int[] nodes = new int[points.length];
+		final int[] missing = new int[points.length];
+		int missingCount = 0;
+		for (int k = 0; k < points.length; ++k) {
+			nodes[k] = -1;
+			for (int l = 0; l < lastPoints.length; ++l) {
+				if (Position.equals(points[k], lastPoints[l])) {
+					nodes[k] = lastNodes[l];
+					break;
+				}
+			}
+			if (-1 == nodes[k]) missing[missingCount++] = k;
+		}
+
+		if (missingCount > 0) {
+			final Position[] search = new Position[missingCount];
+			for (int m = 0; m < missingCount; ++m) search[m] = points[missing[m]];
+			final int[] found;
+			if (null == reader.getSpatialIndex() && null != helperReader && missingCount >= 2) {
+				// searching the grid cells reads the graph file: the helper reader searches the second half
+				final int half = missingCount / 2;
+				final Position[] first = new Position[half], second = new Position[missingCount - half];
+				System.arraycopy(search, 0, first, 0, first.length);
+				System.arraycopy(search, half, second, 0, second.length);
+				final BackgroundTask<int[]> task = new BackgroundTask<int[]>() {
+					@Override
+					int[] call() throws IOException, InterruptedException {
+						return helperReader.findPoints(second);
+					}
+				}.start(helpers);
+				final int[] firstFound;
+				try {
+					firstFound = reader.findPoints(first);
+				} finally {
+					task.join();
+				}
+				found = new int[missingCount];
+				System.arraycopy(firstFound, 0, found, 0, half);
+				System.arraycopy(task.join(), 0, found, half, missingCount - half);
+			} else {
+				found = reader.findPoints(search);
+			}
+			for (int m = 0; m < missingCount; ++m) nodes[missing[m]] = found[m];
+		}
+
+		lastPoints = points.clone();
+		lastNodes = nodes.clone();
+		return nodes;
+	}
+
+	/**
+	 * Calculate the legs between consecutive nodes; the query thread and up to
+	 * {@link #MAX_WORKERS}-1 worker threads take the next open leg until all
+	 * legs are done. {@link #lock} must be held.
+	 *
+	 * @param nodes graph nodes
+	 * @return legs, or null if a leg has no path
+	 */
+	private LegRouter.Leg[] routeLegs(final int[] nodes) throws IOException, InterruptedException {
+		final LegRouter.Leg[] legs = new LegRouter.Leg[nodes.length - 1];
+		final int threads = Math.min(MAX_WORKERS, legs.length);
+		createRouters(threads);
+		for (LegRouter router: routers) router.setCore(coreGraph, reversedCore);
+
+		final AtomicInteger nextLeg = new AtomicInteger(0);
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final Throwable[] errors = new Throwable[threads];
+
+		final class LegTask implements Runnable {
+			private final int thread;
+
+			LegTask(int thread) {
+				this.thread = thread;
+			}
+
+			@Override
+			public void run() {
+				final LegRouter router = routers.get(thread);
+				try {
+					int l;
+					while (!stop.get() && (l = nextLeg.getAndIncrement()) < legs.length) {
+						legs[l] = router.route(nodes[l], nodes[l+1]);
+						// no need to calculate the other legs without a path for this one
+						if (null == legs[l]) stop.set(true);
+					}
+				} catch (Throwable e) {
+					errors[thread] = e;
+					stop.set(true);
+				} finally {
+					done.countDown();
+				}
+			}
+		}
+
+		for (int t = 1; t < threads; ++t) {
+			try {
+				workers.execute(new LegTask(t));
+			} catch (RejectedExecutionException e) {
+				// the query thread does the work
+				done.countDown();
+			}
+		}
+		new LegTask(0).run();
+
+		// the routers must not be touched by anybody else while a worker still runs;
+		// workers are not interrupted, they stop after their current leg
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+				stop.set(true);
+			}
+		}
+		if (interrupted) throw new InterruptedException();
+
+		for (Throwable e: errors) {
+			if (null != e) BackgroundTask.rethrow(e);
+		}
+		for (LegRouter.Leg leg: legs) {
+			if (null == leg) return null;
+		}
+		return legs;
+	}
+}
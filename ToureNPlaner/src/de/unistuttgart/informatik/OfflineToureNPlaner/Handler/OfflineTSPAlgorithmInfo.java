@@ -0,0 +1,45 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequest;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.Session;
+
+/**
+ * Offline version of the server's "tsp" algorithm, see {@link OfflineTSPHandler}
+ */
+public class OfflineTSPAlgorithmInfo extends OfflineAlgorithmInfo {
+	private final boolean sourceIsTarget;
+
+	/**
+	 * @param sourceIsTarget whether the tour returns to the first point
+	 */
+	public OfflineTSPAlgorithmInfo(boolean sourceIsTarget) {
+		this.sourceIsTarget = sourceIsTarget;
+	}
+
+	@Override
+	public String getName() {
+		// TODO translate
+		return sourceIsTarget ? "Offline Round Trip" : "Offline Tour";
+	}
+
+	@Override
+	public String getDescription() {
+		// TODO translate
+		return sourceIsTarget
+				? "Calculates a short round trip through all points, back to the first one, with offline graph data"
+				: "Calculates a short tour through all points from the first to the last one with offline graph data";
+	}
+
+	@Override
+	public boolean sourceIsTarget() {
+		return sourceIsTarget;
+	}
+
+	@Override
+	public AlgorithmRequest execute(Observer listener, Session session) {
+		final OfflineTSPHandler handler = new OfflineTSPHandler(listener, session, sourceIsTarget);
+		handler.execute();
+		return handler;
+	}
+}
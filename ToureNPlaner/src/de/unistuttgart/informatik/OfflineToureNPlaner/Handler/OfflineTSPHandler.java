@@ -0,0 +1,79 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.util.Log;
+
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Node;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.Result;
+import de.uni.stuttgart.informatik.ToureNPlaner.Data.ResultNode;
+import de.uni.stuttgart.informatik.ToureNPlaner.Handler.AlgorithmRequest;
+import de.uni.stuttgart.informatik.ToureNPlaner.Net.Handler.AsyncHandler;
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+/**
+ * Visits the nodes of the session in a short order: the travel times between
+ * all nodes are calculated with {@link OfflineRoutingEngine#travelTimeTable(Position[])},
+ * the order is found with a {@link TourOptimizer}, and the route through the
+ * reordered nodes is the result. The result points carry the ids and names
+ * of the nodes.
+ */
+public class OfflineTSPHandler extends AsyncHandler implements AlgorithmRequest {
+	/** time spent to improve the order */
+	private static final long OPTIMIZE_BUDGET_NANOS = 300 * 1000 * 1000L;
+
+	private final ArrayList<Node> nodes;
+	private final boolean sourceIsTarget;
+
+	/**
+	 * @param sourceIsTarget whether the tour returns to the first node; otherwise it ends at the last node
+	 */
+	public OfflineTSPHandler(de.uni.stuttgart.informatik.ToureNPlaner.Handler.Observer listener, de.uni.stuttgart.informatik.ToureNPlaner.Net.Session session, boolean sourceIsTarget) {
+		super(listener);
+
+		nodes = new ArrayList<Node>(session.getNodeModel().getNodeVector());
+		this.sourceIsTarget = sourceIsTarget;
+	}
+
+	@Override
+	protected Object doInBackground(Void... arg0) {
+		try {
+			final OfflineRoutingEngine engine = OfflineRoutingEngine.getInstance();
+			final int n = nodes.size();
+			final Position[] points = new Position[n];
+			for (int k = 0; k < n; ++k) points[k] = Position.from(nodes.get(k).getGeoPoint());
+
+			final long startTime = System.currentTimeMillis();
+			final int[] table = engine.travelTimeTable(points);
+			final long tableTime = System.currentTimeMillis() - startTime;
+
+			final TourOptimizer optimizer = new TourOptimizer();
+			final int[] order = optimizer.optimize(table, n, sourceIsTarget, OPTIMIZE_BUDGET_NANOS);
+			Log.d("Offline TP", "** tour through " + n + " points: table " + tableTime + "ms, optimized in " + (System.currentTimeMillis() - startTime - tableTime) + "ms with " + optimizer.getMoves() + " moves, " + optimizer.tourCost() + "s");
+
+			final int stops = sourceIsTarget ? n + 1 : n;
+			final Position[] tour = new Position[stops];
+			for (int k = 0; k < stops; ++k) tour[k] = points[order[k % n]];
+			if (Thread.interrupted()) throw new InterruptedException();
+
+			final Result route = engine.route(tour);
+			if (null == route) return null;
+
+			// label the points with the nodes they were found for
+			final ArrayList<ResultNode> resultPoints = route.getPoints();
+			for (int k = 0; k < resultPoints.size(); ++k) {
+				final ResultNode p = resultPoints.get(k);
+				final Node node = nodes.get(order[k % n]);
+				resultPoints.set(k, new ResultNode(node.getId(), p.getGeoPoint(), node.getName(), node.getShortName(), p.getMisc(), p.getDistToPrev(), p.getTimeToPrev()));
+			}
+			return route;
+		} catch (IOException e) {
+			Log.e("Offline TP", "IOException", e);
+			return e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+}
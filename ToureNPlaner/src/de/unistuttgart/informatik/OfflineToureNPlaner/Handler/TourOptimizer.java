@@ -0,0 +1,210 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+/**
+ * Finds a short order to visit points, given the (possibly asymmetric)
+ * travel times between them: nearest insertion builds a tour, which is then
+ * improved with 2-opt (reverse a segment) and Or-opt (move a segment of up to
+ * three points) until no move helps or the time budget is used up.
+ * <p>
+ * The first point is always the start; the tour either returns to it (round
+ * trip) or ends at the last point.
+ * <p>
+ * All storage is allocated by {@link #optimize(int[], int, boolean, long)}
+ * before the optimisation starts; the instance can be reused.
+ */
+public final class TourOptimizer {
+	/** cost used for pairs without a path; large, but sums of them don't overflow */
+	private static final long NO_PATH_COST = 1L << 40;
+
+	private int n;
+	private int[] table;
+
+	/** the tour: positions 0 and {@link #length}-1 are fixed */
+	private int[] tour;
+	private int length;
+
+	/** cost of the tour up to position i forward, and of the reversed tour up to position i */
+	private long[] forwardPrefix, backwardPrefix;
+
+	/** nearest insertion: whether a point is in the tour, and its cheapest connection to the tour */
+	private boolean[] inTour;
+	private long[] connect;
+
+	private long deadline;
+	private int twoOptMoves, orOptMoves;
+
+	private long cost(int from, int to) {
+		final int c = table[from * n + to];
+		return (c < 0) ? NO_PATH_COST : c;
+	}
+
+	/**
+	 * @param table      travel times (row per start point), negative for pairs without a path
+	 * @param n          number of points
+	 * @param roundTrip  whether the tour returns to the first point; otherwise it ends at the last point
+	 * @param budgetNanos maximum time to spend improving the tour
+	 * @return the points in the order to visit them (starting with 0; for a round trip 0 is not repeated at the end)
+	 */
+	public int[] optimize(int[] table, int n, boolean roundTrip, long budgetNanos) {
+		this.table = table;
+		this.n = n;
+		deadline = System.nanoTime() + budgetNanos;
+		twoOptMoves = orOptMoves = 0;
+
+		length = roundTrip ? n + 1 : n;
+		if (null == tour || tour.length < n + 1) {
+			tour = new int[n + 1];
+			forwardPrefix = new long[n + 1];
+			backwardPrefix = new long[n + 1];
+			inTour = new boolean[n];
+			connect = new long[n];
+		}
+
+		if (n <= 2 || (!roundTrip && n <= 3)) {
+			// nothing to choose
+			for (int i = 0; i < n; ++i) tour[i] = i;
+			if (roundTrip) tour[n] = 0;
+		} else {
+			insertNearest(roundTrip);
+			while (System.nanoTime() < deadline) {
+				updatePrefix();
+				if (twoOpt()) continue;
+				if (orOpt()) continue;
+				break;
+			}
+		}
+
+		final int[] order = new int[n];
+		System.arraycopy(tour, 0, order, 0, n);
+		return order;
+	}
+
+	/**
+	 * @return number of applied improving moves in the last {@link #optimize(int[], int, boolean, long)} call
+	 */
+	public int getMoves() {
+		return twoOptMoves + orOptMoves;
+	}
+
+	/**
+	 * @return total cost of the current tour
+	 */
+	public long tourCost() {
+		long sum = 0;
+		for (int i = 0; i + 1 < length; ++i) sum += cost(tour[i], tour[i+1]);
+		return sum;
+	}
+
+	/**
+	 * build the initial tour: add the point closest to the tour at the position where it costs least
+	 */
+	private void insertNearest(boolean roundTrip) {
+		final int last = roundTrip ? 0 : n - 1;
+		java.util.Arrays.fill(inTour, 0, n, false);
+		tour[0] = 0;
+		tour[1] = last;
+		int size = 2;
+		inTour[0] = inTour[last] = true;
+		for (int p = 0; p < n; ++p) connect[p] = Math.min(Math.min(cost(0, p), cost(p, 0)), Math.min(cost(last, p), cost(p, last)));
+
+		while (size < length) {
+			int next = -1;
+			for (int p = 0; p < n; ++p) {
+				if (!inTour[p] && (-1 == next || connect[p] < connect[next])) next = p;
+			}
+
+			int bestPos = 1;
+			long bestDelta = Long.MAX_VALUE;
+			for (int i = 1; i < size; ++i) {
+				final long delta = cost(tour[i-1], next) + cost(next, tour[i]) - cost(tour[i-1], tour[i]);
+				if (delta < bestDelta) {
+					bestDelta = delta;
+					bestPos = i;
+				}
+			}
+			System.arraycopy(tour, bestPos, tour, bestPos + 1, size - bestPos);
+			tour[bestPos] = next;
+			++size;
+			inTour[next] = true;
+			for (int p = 0; p < n; ++p) connect[p] = Math.min(connect[p], Math.min(cost(next, p), cost(p, next)));
+		}
+	}
+
+	private void updatePrefix() {
+		forwardPrefix[0] = backwardPrefix[0] = 0;
+		for (int i = 1; i < length; ++i) {
+			forwardPrefix[i] = forwardPrefix[i-1] + cost(tour[i-1], tour[i]);
+			backwardPrefix[i] = backwardPrefix[i-1] + cost(tour[i], tour[i-1]);
+		}
+	}
+
+	/**
+	 * reverse the segment [i, j] of the tour if that makes it shorter
+	 *
+	 * @return whether the tour was changed
+	 */
+	private boolean twoOpt() {
+		final int[] t = tour;
+		for (int i = 1; i < length - 2; ++i) {
+			for (int j = i + 1; j < length - 1; ++j) {
+				final long before = cost(t[i-1], t[i]) + (forwardPrefix[j] - forwardPrefix[i]) + cost(t[j], t[j+1]);
+				final long after = cost(t[i-1], t[j]) + (backwardPrefix[j] - backwardPrefix[i]) + cost(t[i], t[j+1]);
+				if (after < before) {
+					reverse(i, j);
+					++twoOptMoves;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * move a segment of 1 to 3 points [i, i+len) between two other neighbours if that makes the tour shorter
+	 *
+	 * @return whether the tour was changed
+	 */
+	private boolean orOpt() {
+		final int[] t = tour;
+		for (int len = 1; len <= 3; ++len) {
+			for (int i = 1; i + len < length; ++i) {
+				final int first = t[i], last = t[i+len-1];
+				final int prev = t[i-1], next = t[i+len];
+				final long removeGain = cost(prev, first) + cost(last, next) - cost(prev, next);
+				// insert between t[p] and t[p+1], outside the segment
+				for (int p = 0; p < length - 1; ++p) {
+					if (p >= i - 1 && p < i + len) continue;
+					final long insertCost = cost(t[p], first) + cost(last, t[p+1]) - cost(t[p], t[p+1]);
+					if (insertCost < removeGain) {
+						if (p < i) {
+							// segment moves backwards: rotate [p+1, i+len) so the segment comes first
+							rotate(p + 1, i, i + len);
+						} else {
+							// segment moves forwards: rotate [i, p+1) so the segment comes last
+							rotate(i, i + len, p + 1);
+						}
+						++orOptMoves;
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void reverse(int i, int j) {
+		final int[] t = tour;
+		while (i < j) {
+			final int x = t[i]; t[i] = t[j]; t[j] = x;
+			++i;
+			--j;
+		}
+	}
+
+	/** move [middle, end) in front of [begin, middle) */
+	private void rotate(int begin, int middle, int end) {
+		reverse(begin, middle - 1);
+		reverse(middle, end - 1);
+		reverse(begin, end - 1);
+	}
+}
@@ -0,0 +1,69 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.util.Random;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the route query benchmarked by {@link CommandLine} against a
+ * {@link Dijkstra} on the nested graphs, on a synthetic graph.
+ */
+public class CommandLineTest extends TestCase {
+	private static final int ROUTES = 100;
+
+	private SyntheticGraph graph;
+	private GraphReader reader;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		graph = new SyntheticGraph(30, 30, 3, 40);
+		reader = graph.reader;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.delete();
+		super.tearDown();
+	}
+
+	public void testBidirectionalQuery() throws Exception {
+		checkRoutes(reader.loadCoreGraph());
+	}
+
+	public void testMappedCore() throws Exception {
+		checkRoutes(reader.loadMappedCoreGraph());
+	}
+
+	public void testRandomPointsInGraph() throws Exception {
+		final Position[] points = CommandLine.randomPoints(reader, 20, new Random(1));
+		for (final int node: reader.findPoints(points)) assertTrue(-1 != node);
+	}
+
+	private void checkRoutes(NestedGraph coreGraph) throws Exception {
+		final CommandLine.Router router = new CommandLine.Router(reader, coreGraph);
+		final Random random = new Random(9);
+		int found = 0;
+		for (int k = 0; k < ROUTES; ++k) {
+			final int start = graph.randomNode(random);
+			final int dest = graph.randomNode(random);
+
+			final Dijkstra dijkstra = Dijkstra.nested(reader, coreGraph, start, dest);
+			if (null == dijkstra) {
+				assertEquals("no path " + start + " -> " + dest, -1, router.route(start, dest));
+				continue;
+			}
+			++found;
+			reader.expandShortcuts(dijkstra.path_nodes, dijkstra.path_edges);
+			final int euclid = reader.path_euclid_length;
+
+			assertEquals("length " + start + " -> " + dest, dijkstra.path_length, router.route(start, dest));
+			assertEquals("euclid length " + start + " -> " + dest, euclid, reader.path_euclid_length);
+			assertEquals(start, reader.path_nodes.getFirst());
+			assertEquals(dest, reader.path_nodes.getLast());
+		}
+		assertTrue(found > ROUTES / 2);
+	}
+}
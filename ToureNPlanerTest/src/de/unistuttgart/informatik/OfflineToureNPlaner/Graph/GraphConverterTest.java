@@ -0,0 +1,137 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes a synthetic graph as version 1 file, converts it to version 2 and
+ * checks that both files are read the same way.
+ */
+public class GraphConverterTest extends TestCase {
+	private static final int ROUTES = 50;
+
+	private SyntheticGraph graph;
+	private GraphWriter writer;
+	private File plain, packed;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		graph = new SyntheticGraph(12, 10, 7, 20);
+		writer = graph.writer;
+		plain = graph.file;
+		packed = File.createTempFile("graph", ".ch2");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.delete();
+		packed.delete();
+		super.tearDown();
+	}
+
+	public void testDefaultBlockSize() throws Exception {
+		checkRoundTrip(GraphConverter.DEFAULT_EDGE_BLOCK_SIZE);
+	}
+
+	public void testSingleEdgeBlocks() throws Exception {
+		checkRoundTrip(1);
+	}
+
+	public void testPartialLastBlock() throws Exception {
+		int edgeBlockSize = 7;
+		while (0 == writer.edgeCount() % edgeBlockSize) ++edgeBlockSize;
+		checkRoundTrip(edgeBlockSize);
+	}
+
+	public void testSingleBlock() throws Exception {
+		checkRoundTrip(writer.edgeCount() + 1);
+	}
+
+	private void checkRoundTrip(int edgeBlockSize) throws Exception {
+		GraphConverter.convert(plain, packed, edgeBlockSize);
+		final GraphReader v1 = new GraphReader(plain), v2 = new GraphReader(packed);
+		try {
+			assertEquals(1, v1.graph.version);
+			assertEquals(2, v2.graph.version);
+			assertEquals(edgeBlockSize, v2.edgeBlockSize);
+			assertTrue(v2.packedEdgeCount > 0);
+			assertEquals(v1.edgeCount, v2.edgeCount);
+
+			checkNodeEdges(v1, v2);
+			checkEdgeDetails(v1, v2);
+			checkRoutes(v1, v2);
+		} finally {
+			v1.close();
+			v2.close();
+		}
+	}
+
+	private void checkNodeEdges(GraphReader v1, GraphReader v2) throws Exception {
+		final GraphReader.NodeEdgesIterator i1 = v1.new NodeEdgesIterator(), i2 = v2.new NodeEdgesIterator();
+		for (int n = 0; n < writer.nodeCount(); ++n) {
+			final int node = writer.getNodeID(n);
+			for (int out = 0; out < 2; ++out) {
+				assertEquals("edge count of node " + node, i1.load(node, 1 == out), i2.load(node, 1 == out));
+				while (i1.next()) {
+					assertTrue(i2.next());
+					assertEquals(i1.edgeID, i2.edgeID);
+					assertEquals("peer of edge " + i1.edgeID, i1.edgePeer, i2.edgePeer);
+					assertEquals("dist of edge " + i1.edgeID, i1.edgeDist, i2.edgeDist);
+				}
+				assertFalse(i2.next());
+			}
+		}
+	}
+
+	private void checkEdgeDetails(GraphReader v1, GraphReader v2) throws Exception {
+		// backwards (each block is decoded again) and forwards
+		for (int e = v1.edgeCount - 1; e >= 0; --e) checkEdgeDetails(v1, v2, e);
+		for (int e = 0; e < v1.edgeCount; ++e) checkEdgeDetails(v1, v2, e);
+	}
+
+	private static void checkEdgeDetails(GraphReader v1, GraphReader v2, int edge) throws Exception {
+		v1.directEdgeDetailsLoad(edge);
+		v2.directEdgeDetailsLoad(edge);
+		assertEquals("euclid of edge " + edge, v1.directEdgeDetails_euclid, v2.directEdgeDetails_euclid);
+		assertEquals("middle node of edge " + edge, v1.directEdgeDetails_shortcutnode, v2.directEdgeDetails_shortcutnode);
+		// the shortcut edges of edges without middle node aren't stored in version 2
+		if (-1 != v1.directEdgeDetails_shortcutnode) {
+			assertEquals(v1.directEdgeDetails_shortcut1, v2.directEdgeDetails_shortcut1);
+			assertEquals(v1.directEdgeDetails_shortcut2, v2.directEdgeDetails_shortcut2);
+		}
+	}
+
+	private void checkRoutes(GraphReader v1, GraphReader v2) throws Exception {
+		final NestedGraph core1 = v1.loadCoreGraph(), core2 = v2.loadCoreGraph();
+		final Random random = new Random(11);
+		for (int k = 0; k < ROUTES; ++k) {
+			final int start = graph.randomNode(random);
+			final int dest = graph.randomNode(random);
+			final int[] way1 = route(v1, core1, start, dest), way2 = route(v2, core2, start, dest);
+			assertEquals("length " + start + " -> " + dest, way1[0], way2[0]);
+			assertEquals("euclid length " + start + " -> " + dest, v1.path_euclid_length, v2.path_euclid_length);
+			assertTrue("path " + start + " -> " + dest, Arrays.equals(way1, way2));
+		}
+	}
+
+	/**
+	 * @return length of the shortest path followed by the nodes of the expanded path; {-1} if there is no path
+	 */
+	private static int[] route(GraphReader reader, NestedGraph core, int start, int dest) throws Exception {
+		final Dijkstra dijkstra = Dijkstra.nested(reader, core, start, dest);
+		if (null == dijkstra) return new int[] { -1 };
+
+		reader.expandShortcuts(dijkstra.path_nodes, dijkstra.path_edges);
+		final IntArrayDeque path = reader.path_nodes;
+		final int[] result = new int[1 + path.size()];
+		result[0] = dijkstra.path_length;
+		System.arraycopy(path.toArray(), 0, result, 1, path.size());
+		return result;
+	}
+}
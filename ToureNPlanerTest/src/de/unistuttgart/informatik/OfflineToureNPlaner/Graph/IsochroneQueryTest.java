@@ -0,0 +1,94 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.IOException;
+import java.util.Random;
+
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the nodes and path lengths found by {@link IsochroneQuery} against
+ * one {@link Dijkstra} on the nested graphs per node, on a synthetic graph.
+ */
+public class IsochroneQueryTest extends TestCase {
+	/** the roads of the synthetic graph need at least 2 units per meter (see {@link SyntheticGraphGenerator}) */
+	private static final double METERS_PER_UNIT = 0.5;
+
+	private SyntheticGraph graph;
+	private GraphReader reader;
+	private NestedGraph coreGraph;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		graph = new SyntheticGraph(30, 30, 6, 40);
+		reader = graph.reader;
+		reader.openSpatialIndex();
+		coreGraph = reader.loadCoreGraph();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.delete();
+		super.tearDown();
+	}
+
+	public void testSmallArea() throws Exception {
+		checkIsochrone(new Random(31), 30000);
+	}
+
+	public void testLargeArea() throws Exception {
+		// larger than the graph
+		checkIsochrone(new Random(32), 300000);
+	}
+
+	public void testTooManyCandidates() throws Exception {
+		final IsochroneQuery query = new IsochroneQuery(reader, coreGraph);
+		query.setMaxCandidates(10);
+		try {
+			query.run(graph.node(0), 300000, 300000 * METERS_PER_UNIT);
+			fail("searched more nodes than allowed");
+		} catch (IOException e) {
+			// expected
+		}
+		// the instance can be used again
+		query.setMaxCandidates(Integer.MAX_VALUE);
+		query.run(graph.node(0), 30000, 30000 * METERS_PER_UNIT);
+		assertTrue(query.reached_nodes.size() > 1);
+	}
+
+	private void checkIsochrone(Random random, int maxDist) throws Exception {
+		final IsochroneQuery query = new IsochroneQuery(reader, coreGraph);
+		for (int k = 0; k < 3; ++k) {
+			final int source = graph.randomNode(random);
+			query.run(source, maxDist, maxDist * METERS_PER_UNIT);
+
+			final int reached = query.reached_nodes.size();
+			assertEquals(2 * reached, query.reached_coords.size());
+			final IntIntOpenHashMap dists = new IntIntOpenHashMap();
+			for (int n = 0; n < reached; ++n) {
+				final int node = query.reached_nodes.get(n), dist = query.reached_dists.get(n);
+				if (n > 0) assertTrue(dist >= query.reached_dists.get(n - 1));
+				assertTrue(dist <= maxDist);
+				assertFalse("reached twice: " + node, dists.containsKey(node));
+				dists.put(node, dist);
+
+				reader.directGeoLoad(node);
+				assertEquals(reader.directGeo_lat, query.reached_coords.get(2 * n));
+				assertEquals(reader.directGeo_lon, query.reached_coords.get(2 * n + 1));
+			}
+
+			for (int n = 0; n < graph.nodeCount(); ++n) {
+				final int node = graph.node(n);
+				final int expected = Dijkstra.nestedPathLength(reader, coreGraph, source, node);
+				if (-1 == expected || expected > maxDist) {
+					assertFalse("too far: " + source + " -> " + node, dists.containsKey(node));
+				} else {
+					assertTrue("not reached: " + source + " -> " + node, dists.containsKey(node));
+					assertEquals("length " + source + " -> " + node, expected, dists.lget());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the {@link ManyToManyQuery} tables against one {@link Dijkstra} on
+ * the nested graphs per pair, on a synthetic graph.
+ */
+public class ManyToManyQueryTest extends TestCase {
+	private static final int POINTS = 25;
+
+	private SyntheticGraph graph;
+	private GraphReader reader;
+	private NestedGraph coreGraph;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		graph = new SyntheticGraph(30, 30, 4, 40);
+		reader = graph.reader;
+		coreGraph = reader.loadCoreGraph();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.delete();
+		super.tearDown();
+	}
+
+	public void testSquareTable() throws Exception {
+		final int[] nodes = randomNodes(new Random(21), POINTS);
+		checkTable(new ManyToManyQuery(reader, coreGraph), nodes, nodes);
+	}
+
+	public void testRectangularTable() throws Exception {
+		final Random random = new Random(22);
+		checkTable(new ManyToManyQuery(reader, coreGraph), randomNodes(random, 7), randomNodes(random, POINTS));
+	}
+
+	public void testReuse() throws Exception {
+		final ManyToManyQuery query = new ManyToManyQuery(reader, coreGraph);
+		final Random random = new Random(23);
+		for (int k = 0; k < 3; ++k) {
+			final int[] nodes = randomNodes(random, 10);
+			checkTable(query, nodes, nodes);
+		}
+	}
+
+	public void testOnlyMissingNodes() throws Exception {
+		final int[] table = new ManyToManyQuery(reader, coreGraph).run(new int[] { -1, -1 }, new int[] { -1 });
+		assertEquals(2, table.length);
+		for (final int dist: table) assertEquals(ManyToManyQuery.NO_PATH, dist);
+	}
+
+	/**
+	 * @return random graph nodes, with some -1 entries and a repeated node
+	 */
+	private int[] randomNodes(Random random, int count) {
+		final int[] nodes = new int[count];
+		for (int k = 0; k < count; ++k) {
+			nodes[k] = (0 == random.nextInt(8)) ? -1 : graph.randomNode(random);
+		}
+		nodes[0] = -1;
+		if (count > 2) nodes[count - 1] = nodes[1];
+		return nodes;
+	}
+
+	private void checkTable(ManyToManyQuery query, int[] sources, int[] targets) throws Exception {
+		final int[] table = query.run(sources, targets);
+		assertEquals(sources.length * targets.length, table.length);
+		int paths = 0;
+		for (int s = 0; s < sources.length; ++s) {
+			for (int t = 0; t < targets.length; ++t) {
+				final int expected = Dijkstra.nestedPathLength(reader, coreGraph, sources[s], targets[t]);
+				assertEquals(sources[s] + " -> " + targets[t], expected, table[s * targets.length + t]);
+				if (ManyToManyQuery.NO_PATH != expected) ++paths;
+			}
+		}
+		assertTrue(paths > 0);
+	}
+}
@@ -0,0 +1,135 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Feeds random insert/decrease/pop sequences to all {@link DijkstraWorkspace.QueueType}s
+ * and compares the popped distances with a reference queue (a {@link TreeSet}
+ * of the queued entries).
+ * <p>
+ * The sequences are monotone like in a Dijkstra search (no distance below
+ * the last popped one), as {@link RadixHeap} requires.
+ */
+public class NodeQueueTest extends TestCase {
+	private static final int NODES = 2000;
+	private static final int OPERATIONS = 20000;
+
+	public void testLazyHeap() {
+		checkQueue(DijkstraWorkspace.QueueType.LAZY_HEAP);
+	}
+
+	public void testIndexedHeap() {
+		checkQueue(DijkstraWorkspace.QueueType.INDEXED_HEAP);
+	}
+
+	public void testRadixHeap() {
+		checkQueue(DijkstraWorkspace.QueueType.RADIX_HEAP);
+	}
+
+	public void testAllTypesCovered() {
+		assertEquals(3, DijkstraWorkspace.QueueType.values().length);
+	}
+
+	private static void checkQueue(DijkstraWorkspace.QueueType type) {
+		// small initial capacity: the queues have to grow
+		final NodeQueue queue = new DijkstraWorkspace(16, type).queue;
+		for (int seed = 0; seed < 5; ++seed) {
+			queue.clear();
+			checkSequence(queue, new Random(seed), 0 == seed % 2 ? 10 : 1000000);
+		}
+	}
+
+	/** node id of a slot: differs from the slot, so mixing them up fails */
+	private static int id(int slot) {
+		return 3 * slot + 7;
+	}
+
+	/**
+	 * @param maxStep maximum distance added to the last popped distance;
+	 *   small values give many equal distances
+	 */
+	private static void checkSequence(NodeQueue queue, Random random, int maxStep) {
+		// per slot: queued distance (-1: never queued) and whether it was popped
+		final int[] dist = new int[NODES];
+		final boolean[] popped = new boolean[NODES];
+		Arrays.fill(dist, -1);
+		// reference entries: dist << 32 | slot, one per queued node
+		final TreeSet<Long> reference = new TreeSet<Long>();
+		int lastMin = 0, pops = 0;
+
+		for (int op = 0; op < OPERATIONS; ++op) {
+			final int slot = random.nextInt(NODES);
+			final int kind = random.nextInt(3);
+			if (0 == kind && -1 == dist[slot]) {
+				// insert
+				final int d = lastMin + random.nextInt(maxStep);
+				dist[slot] = d;
+				queue.push(slot, id(slot), d);
+				reference.add(entry(d, slot));
+			} else if (1 == kind && -1 != dist[slot] && !popped[slot] && dist[slot] > lastMin) {
+				// decrease
+				final int d = lastMin + random.nextInt(dist[slot] - lastMin);
+				reference.remove(entry(dist[slot], slot));
+				dist[slot] = d;
+				queue.push(slot, id(slot), d);
+				reference.add(entry(d, slot));
+			} else if (2 == kind) {
+				// pushes must not go below the last popped distance, even after the queue was empty
+				final int min = pop(queue, reference, dist, popped, lastMin);
+				if (-1 != min) {
+					lastMin = min;
+					++pops;
+				}
+			}
+		}
+		// drain
+		for (int min; -1 != (min = pop(queue, reference, dist, popped, lastMin)); ++pops) lastMin = min;
+		assertTrue(pops > 0);
+	}
+
+	private static long entry(int dist, int slot) {
+		return ((long) dist << 32) | slot;
+	}
+
+	/**
+	 * Pop the minimum from both queues and compare
+	 *
+	 * @return popped distance, or -1 if both queues are empty
+	 */
+	private static int pop(NodeQueue queue, TreeSet<Long> reference, int[] dist, boolean[] popped, int lastMin) {
+		if (!queue.isIndexed()) {
+			// skip outdated entries like the searches do
+			while (!queue.isEmpty()) {
+				final int slot = slotOf(queue.peekMinId());
+				if (!popped[slot] && dist[slot] == queue.peekMinDist()) break;
+				queue.removeMin();
+			}
+		}
+
+		if (reference.isEmpty()) {
+			assertTrue("queue should be empty", queue.isEmpty());
+			return -1;
+		}
+		assertFalse("queue shouldn't be empty", queue.isEmpty());
+		final int expected = (int) (reference.first() >>> 32);
+		assertEquals("popped distance", expected, queue.peekMinDist());
+		assertTrue("popped distance below the last one", expected >= lastMin);
+
+		// equal distances may come in any order: the popped node only has to be queued with that distance
+		final int slot = slotOf(queue.peekMinId());
+		assertFalse("node " + slot + " popped twice", popped[slot]);
+		assertTrue("node " + slot + " not queued with distance " + expected, reference.remove(entry(expected, slot)));
+		queue.removeMin();
+		popped[slot] = true;
+		return expected;
+	}
+
+	private static int slotOf(int id) {
+		assertEquals("unknown node id " + id, 0, (id - 7) % 3);
+		return (id - 7) / 3;
+	}
+}
@@ -0,0 +1,152 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+import de.unistuttgart.informatik.OfflineToureNPlaner.Data.Position;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks {@link SpatialIndex#nearest(int, int)} and
+ * {@link SpatialIndex#within(int, int, double, IntArrayList)} against a scan
+ * over all nodes of a synthetic graph, and the nearest node search of
+ * {@link GraphReader} with an opened index.
+ */
+public class SpatialIndexTest extends TestCase {
+	private static final int POINTS = 200;
+
+	private SyntheticGraph graph;
+	private File graphFile;
+	private GraphReader reader;
+	/* all nodes of the graph */
+	private int[] ids, lons, lats;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		graph = new SyntheticGraph(30, 30, 5, 40);
+		graphFile = graph.file;
+		reader = graph.reader;
+
+		final int nodes = graph.nodeCount();
+		ids = new int[nodes];
+		lons = new int[nodes];
+		lats = new int[nodes];
+		for (int k = 0; k < nodes; ++k) {
+			ids[k] = graph.node(k);
+			reader.directGeoLoad(ids[k]);
+			lons[k] = reader.directGeo_lon;
+			lats[k] = reader.directGeo_lat;
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.delete();
+		super.tearDown();
+	}
+
+	public void testNearest() throws Exception {
+		final SpatialIndex index = reader.openSpatialIndex();
+		assertEquals(ids.length, index.size());
+		final Random random = new Random(11);
+		for (int k = 0; k < POINTS; ++k) {
+			final int lon = randomLon(random), lat = randomLat(random);
+			final int found = index.nearest(lon, lat);
+			assertTrue(-1 != found);
+
+			final double scale = Math.cos(Math.toRadians(lat * 1E-7));
+			double minDist = Double.POSITIVE_INFINITY;
+			for (int n = 0; n < ids.length; ++n) minDist = Math.min(minDist, dist(lons[n], lats[n], lon, lat, scale));
+			assertEquals("nearest to " + lon + "/" + lat, minDist, dist(index.lon(found), index.lat(found), lon, lat, scale));
+		}
+	}
+
+	public void testWithin() throws Exception {
+		final SpatialIndex index = reader.openSpatialIndex();
+		final Random random = new Random(12);
+		final IntArrayList found = new IntArrayList();
+		for (int k = 0; k < POINTS; ++k) {
+			final int lon = randomLon(random), lat = randomLat(random);
+			final double radius = random.nextInt(5 * SyntheticGraphGenerator.STEP_LAT);
+			found.clear();
+			index.within(lon, lat, radius, found);
+			final int[] foundIDs = new int[found.size()];
+			for (int n = 0; n < found.size(); ++n) foundIDs[n] = index.nodeID(found.get(n));
+			Arrays.sort(foundIDs);
+
+			final double scale = Math.cos(Math.toRadians(lat * 1E-7));
+			final IntArrayList expected = new IntArrayList();
+			for (int n = 0; n < ids.length; ++n) {
+				if (dist(lons[n], lats[n], lon, lat, scale) <= radius * radius) expected.add(ids[n]);
+			}
+			final int[] expectedIDs = expected.toArray();
+			Arrays.sort(expectedIDs);
+			assertTrue("within " + radius + " of " + lon + "/" + lat, Arrays.equals(expectedIDs, foundIDs));
+		}
+	}
+
+	public void testFindPointsUsesIndex() throws Exception {
+		final SpatialIndex index = reader.openSpatialIndex();
+		final Random random = new Random(13);
+		final Position[] points = new Position[POINTS];
+		for (int k = 0; k < POINTS; ++k) points[k] = Position.fromE7(randomLat(random), randomLon(random));
+		final int[] nodes = reader.findPoints(points);
+		for (int k = 0; k < POINTS; ++k) {
+			assertEquals(index.nodeID(index.nearest(points[k].longitudeE7(), points[k].latitudeE7())), nodes[k]);
+		}
+	}
+
+	public void testSidecarFile() throws Exception {
+		final SpatialIndex built = reader.openSpatialIndex();
+		assertTrue(SpatialIndex.sidecarFile(graphFile).exists());
+
+		// mapping the sidecar file needs no heap budget
+		final GraphReader other = new GraphReader(graphFile);
+		try {
+			final SpatialIndex mapped = other.openSpatialIndex(0);
+			assertEquals(built.size(), mapped.size());
+			for (int k = 0; k < built.size(); ++k) {
+				assertEquals(built.nodeID(k), mapped.nodeID(k));
+				assertEquals(built.lon(k), mapped.lon(k));
+				assertEquals(built.lat(k), mapped.lat(k));
+			}
+		} finally {
+			other.close();
+		}
+	}
+
+	public void testBuildBudget() throws Exception {
+		try {
+			reader.openSpatialIndex(SpatialIndex.heapSize(ids.length) - 1);
+			fail("index built beyond its heap budget");
+		} catch (IOException e) {
+			// expected
+		}
+		assertNull(reader.getSpatialIndex());
+		// grid cell search still works
+		assertTrue(-1 != reader.findPoint(Position.fromE7(lats[0], lons[0])));
+
+		assertNotNull(reader.openSpatialIndex(SpatialIndex.heapSize(ids.length)));
+	}
+
+	private static double dist(int nodeLon, int nodeLat, int lon, int lat, double scale) {
+		final double dLon = ((double) nodeLon - lon) * scale;
+		final double dLat = (double) nodeLat - lat;
+		return dLon * dLon + dLat * dLat;
+	}
+
+	/** a bit beyond the grid on each side, so points outside the graph are searched too */
+	private static int randomLon(Random random) {
+		return SyntheticGraphGenerator.BASE_LON - 2 * SyntheticGraphGenerator.STEP_LON + random.nextInt(34 * SyntheticGraphGenerator.STEP_LON);
+	}
+
+	private static int randomLat(Random random) {
+		return SyntheticGraphGenerator.BASE_LAT - 2 * SyntheticGraphGenerator.STEP_LAT + random.nextInt(34 * SyntheticGraphGenerator.STEP_LAT);
+	}
+}
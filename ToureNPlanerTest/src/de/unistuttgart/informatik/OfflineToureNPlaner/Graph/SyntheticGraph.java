@@ -0,0 +1,54 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test fixture: a graph from {@link SyntheticGraphGenerator} in a temporary
+ * file and a reader on it.
+ */
+final class SyntheticGraph {
+	final GraphWriter writer;
+	final File file;
+	final GraphReader reader;
+
+	/**
+	 * @see SyntheticGraphGenerator#SyntheticGraphGenerator(int, int, long)
+	 * @see SyntheticGraphGenerator#contract(int)
+	 */
+	SyntheticGraph(int width, int height, long seed, int coreSize) throws IOException {
+		writer = new SyntheticGraphGenerator(width, height, seed).contract(coreSize);
+		file = File.createTempFile("graph", ".ch");
+		writer.write(file);
+		reader = new GraphReader(file);
+	}
+
+	int nodeCount() {
+		return writer.nodeCount();
+	}
+
+	/**
+	 * @param index 0 .. {@link #nodeCount()}-1
+	 * @return node id in the file
+	 */
+	int node(int index) {
+		return writer.getNodeID(index);
+	}
+
+	int randomNode(Random random) {
+		return node(random.nextInt(nodeCount()));
+	}
+
+	/**
+	 * Close the reader, delete the file and the sidecar file of its spatial index
+	 */
+	void delete() throws IOException {
+		try {
+			reader.close();
+		} finally {
+			SpatialIndex.sidecarFile(file).delete();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package de.unistuttgart.informatik.OfflineToureNPlaner.Handler;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the {@link TourOptimizer} on small random asymmetric travel time tables.
+ */
+public class TourOptimizerTest extends TestCase {
+	private static final long BUDGET_NANOS = 1000L * 1000 * 1000;
+	/** cost the test uses for pairs without a path; larger than any tour without them */
+	private static final long NO_PATH = 1L << 40;
+
+	private final TourOptimizer optimizer = new TourOptimizer();
+
+	public void testRoundTrip() {
+		checkTables(true);
+	}
+
+	public void testOpenPath() {
+		checkTables(false);
+	}
+
+	public void testSinglePoint() {
+		final int[] order = optimizer.optimize(new int[] { 0 }, 1, true, BUDGET_NANOS);
+		assertEquals(1, order.length);
+		assertEquals(0, order[0]);
+	}
+
+	private void checkTables(boolean roundTrip) {
+		final Random random = new Random(roundTrip ? 1 : 2);
+		for (int k = 0; k < 200; ++k) {
+			final int n = 2 + random.nextInt(7);
+			final int[] table = new int[n * n];
+			for (int i = 0; i < table.length; ++i) {
+				// a few pairs without path
+				table[i] = (0 == random.nextInt(20)) ? -1 : 1 + random.nextInt(1000);
+			}
+			for (int i = 0; i < n; ++i) table[i * n + i] = 0;
+
+			// without budget the optimizer stops after nearest insertion
+			final int[] inserted = optimizer.optimize(table, n, roundTrip, 0);
+			checkOrder(inserted, n, roundTrip);
+			final long insertedCost = cost(table, n, inserted, roundTrip);
+			assertEquals(insertedCost, optimizer.tourCost());
+
+			final int[] order = optimizer.optimize(table, n, roundTrip, BUDGET_NANOS);
+			checkOrder(order, n, roundTrip);
+			final long cost = cost(table, n, order, roundTrip);
+			assertEquals(cost, optimizer.tourCost());
+			assertTrue("optimized tour worse than nearest insertion: " + cost + " > " + insertedCost, cost <= insertedCost);
+			assertTrue("tour better than the optimum", cost >= optimum(table, n, roundTrip));
+		}
+	}
+
+	/** the order must be a permutation starting at 0; an open path ends at the last point */
+	private static void checkOrder(int[] order, int n, boolean roundTrip) {
+		assertEquals(n, order.length);
+		assertEquals(0, order[0]);
+		if (!roundTrip) assertEquals(n - 1, order[n - 1]);
+		final boolean[] seen = new boolean[n];
+		for (final int p: order) {
+			assertTrue(p >= 0 && p < n);
+			assertFalse("point " + p + " visited twice", seen[p]);
+			seen[p] = true;
+		}
+	}
+
+	private static long cost(int[] table, int n, int[] order, boolean roundTrip) {
+		long sum = 0;
+		for (int i = 0; i + 1 < order.length; ++i) sum += cost(table, n, order[i], order[i+1]);
+		if (roundTrip && order.length > 1) sum += cost(table, n, order[order.length - 1], order[0]);
+		return sum;
+	}
+
+	private static long cost(int[] table, int n, int from, int to) {
+		final int c = table[from * n + to];
+		return (c < 0) ? NO_PATH : c;
+	}
+
+	/** cost of the best tour, by trying all orders */
+	private static long optimum(int[] table, int n, boolean roundTrip) {
+		final int[] order = new int[n];
+		for (int i = 0; i < n; ++i) order[i] = i;
+		return optimum(table, n, roundTrip, order, 1);
+	}
+
+	private static long optimum(int[] table, int n, boolean roundTrip, int[] order, int fixed) {
+		final int free = roundTrip ? n : n - 1;
+		if (fixed >= free) return cost(table, n, order, roundTrip);
+		long best = Long.MAX_VALUE;
+		for (int i = fixed; i < free; ++i) {
+			swap(order, fixed, i);
+			best = Math.min(best, optimum(table, n, roundTrip, order, fixed + 1));
+			swap(order, fixed, i);
+		}
+		return best;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		final int x = a[i];
+		a[i] = a[j];
+		a[j] = x;
+	}
+}